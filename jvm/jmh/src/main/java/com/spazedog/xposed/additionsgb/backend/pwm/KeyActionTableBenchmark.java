@@ -0,0 +1,130 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+import com.spazedog.xposed.additionsgb.backend.service.FakeXService;
+import com.spazedog.xposed.additionsgb.backend.service.XServiceManager;
+import com.spazedog.xposed.additionsgb.configs.Settings;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+
+/*
+ * The action table for a configuration with 50 remapped keys and 10 combos, each with
+ * actions for the screen on, screen off, keyguard and one application condition.
+ * The settings are written and read with the binary file format, like the service loads them,
+ * and the manager reads them from FakeXService with everything prefetched.
+ *
+ * build is the work done each time the settings change. getActions and comboCondition are
+ * the lookups EventManager does for each key event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyActionTableBenchmark {
+
+	private static final int KEYS = 50;
+	private static final int COMBOS = 10;
+	private static final int FIRST_KEY = 24;
+
+	private FakeXService mService;
+	private XServiceManager mPreferences;
+	private ActionRegistry mRegistry;
+	private KeyActionTable mTable;
+
+	private int mNext = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		SettingsData data = new SettingsData();
+		ArrayList<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < KEYS + COMBOS; i++) {
+			String configName = i < KEYS ? (FIRST_KEY + i) + ":0" : (FIRST_KEY + i - KEYS) + ":" + (FIRST_KEY + i - KEYS + 1);
+
+			keys.add(configName);
+
+			data.put(Settings.REMAP_KEY_LIST_CONDITIONS + "#" + configName, list("com.example.app"), true);
+			data.put(Settings.REMAP_KEY_LIST_ACTIONS.get("on") + "#" + configName, list("torch", "powermenu", "" + (FIRST_KEY + 100 + i), null, "com.example.app", null), true);
+			data.put(Settings.REMAP_KEY_LIST_ACTIONS.get("off") + "#" + configName, list("" + (FIRST_KEY + 100 + i), null, "screenshot"), true);
+			data.put(Settings.REMAP_KEY_LIST_ACTIONS.get("guard") + "#" + configName, list(null, null, "torch"), true);
+			data.put(Settings.REMAP_KEY_LIST_ACTIONS.get("com.example.app") + "#" + configName, list("recentapps", null, "tasker:Task " + i), true);
+			data.put(Settings.REMAP_KEY_DEFAULT_CONDITION + "#" + configName, i % 2 == 0, true);
+			data.put(Settings.REMAP_KEY_ENABLE_CALLBTN + "#" + configName, false, true);
+		}
+
+		data.put(Settings.REMAP_LIST_KEYS, keys, true);
+		data.put(Settings.REMAP_TIMEOUT_DOUBLECLICK, 200, true);
+		data.put(Settings.REMAP_TIMEOUT_LONGPRESS, 400, true);
+		data.put(Settings.REMAP_LIST_FORCED_HAPTIC, list("24", "25", "26"), true);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		data.writeToStream(out);
+		out.flush();
+
+		mService = new FakeXService(new SettingsData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		mPreferences = mService.connect(null);
+		mRegistry = new ActionRegistry();
+		mTable = build();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		mService.shutdown();
+	}
+
+	private static ArrayList<String> list(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	@Benchmark
+	public KeyActionTable build() {
+		return KeyActionTable.build(mPreferences, mRegistry, true);
+	}
+
+	@Benchmark
+	public ParsedAction[] getActions() {
+		int keyCode = FIRST_KEY + (mNext++ % KEYS);
+
+		return mTable.get(keyCode, 0).getActions((mNext & 1) == 0 ? "on" : "com.example.app");
+	}
+
+	@Benchmark
+	public boolean comboCondition() {
+		int keyCode = FIRST_KEY + (mNext++ % KEYS);
+
+		return mTable.hasComboCondition(keyCode, "com.example.app", "on");
+	}
+
+	/*
+	 * The lookups done by the queueing hook for each key
+	 */
+	@Benchmark
+	public int queueLookups() {
+		int keyCode = FIRST_KEY + (mNext++ % KEYS);
+
+		return mTable.isForcedHaptic(keyCode) ? mTable.getHardResetTimeout() : 0;
+	}
+}
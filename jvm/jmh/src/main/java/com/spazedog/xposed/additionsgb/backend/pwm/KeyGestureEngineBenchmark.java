@@ -0,0 +1,191 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+
+/*
+ * The key path of the engine, with a virtual clock so that no time is spent waiting.
+ *
+ * clickCycle queues and dispatches a full click, where the up is queued while the down waits for the press timeout.
+ * queueNewEvent and queueTap only register keys, like the queueing hook does before the dispatching starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyGestureEngineBenchmark {
+
+	private static final int KEY_A = 24;
+	private static final int KEY_B = 25;
+	private static final int KEY_UNCONFIGURED = 26;
+
+	private KeyGestureEngine<Object, ParsedAction> mEngine;
+	private final Object mEvent = new Object();
+
+	private long mTime = 0;
+	private int mPendingUp = 0;
+	private boolean mToggle = false;
+
+	@Setup
+	public void setup() {
+		ActionRegistry registry = new ActionRegistry();
+		final ParsedAction[] actions = new ParsedAction[] { null, ParsedAction.parse("com.example.app", registry) };
+
+		KeyGestureEngine.Clock clock = new KeyGestureEngine.Clock() {
+			@Override
+			public long uptimeMillis() {
+				return mTime;
+			}
+
+			@Override
+			public void await(Object lock, long millis) {
+				if (mPendingUp > 0) {
+					int keyCode = mPendingUp;
+
+					mPendingUp = 0;
+					mTime += 50;
+					mEngine.queue(keyCode, false, mTime, true, 0);
+
+				} else {
+					mTime += millis;
+				}
+			}
+		};
+
+		KeyGestureEngine.Config<ParsedAction> config = new KeyGestureEngine.Config<ParsedAction>() {
+			@Override
+			public void refresh() {}
+
+			@Override
+			public boolean isExtended() {
+				return false;
+			}
+
+			@Override
+			public int getTapTimeout() {
+				return 100;
+			}
+
+			@Override
+			public int getPressTimeout() {
+				return 500;
+			}
+
+			@Override
+			public int getRepeatDelay() {
+				return 50;
+			}
+
+			@Override
+			public ParsedAction[] getActions(int primCode, int secCode, boolean isScreenOn) {
+				return secCode == 0 && (primCode == KEY_A || primCode == KEY_B) ? actions : null;
+			}
+
+			@Override
+			public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+				return false;
+			}
+
+			@Override
+			public boolean isCallButton(int primCode, int secCode) {
+				return false;
+			}
+
+			@Override
+			public int getKeyCode(ParsedAction action) {
+				return action.getKeyCode();
+			}
+
+			@Override
+			public int getKeyFlags(int keyCode) {
+				return 0;
+			}
+		};
+
+		KeyGestureEngine.Output<Object, ParsedAction> output = new KeyGestureEngine.Output<Object, ParsedAction>() {
+			@Override
+			public void inject(Object event, int action, int repeatCount, int flags) {}
+
+			@Override
+			public void injectKey(int keyCode, int action, int flags) {}
+
+			@Override
+			public void invoke(ParsedAction action) {}
+
+			@Override
+			public int getCallButtonCode() {
+				return 0;
+			}
+
+			@Override
+			public void pressFeedback() {}
+
+			@Override
+			public void repeatFeedback(Object event, int flags) {}
+
+			@Override
+			public void userActivity(long eventTime) {}
+
+			@Override
+			public boolean isDebug() {
+				return false;
+			}
+
+			@Override
+			public void debug(String message) {}
+		};
+
+		mEngine = new KeyGestureEngine<Object, ParsedAction>(clock, config, output);
+	}
+
+	@Benchmark
+	public Decision clickCycle() {
+		mTime += 1000;
+		mPendingUp = KEY_A;
+		mEngine.queue(KEY_A, true, mTime, true, 0);
+		mEngine.dispatch(mEvent, KEY_A, true, 0, false, 0);
+
+		return mEngine.dispatch(mEvent, KEY_A, false, 0, false, 0);
+	}
+
+	@Benchmark
+	public Decision queueNewEvent() {
+		int keyCode = (mToggle = !mToggle) ? KEY_A : KEY_B;
+
+		mTime += 1000;
+		mEngine.queue(keyCode, true, mTime, true, 0);
+
+		return mEngine.queue(keyCode, false, mTime + 50, true, 0);
+	}
+
+	@Benchmark
+	public Decision queueTap() {
+		mTime += 100;
+		mEngine.queue(KEY_A, true, mTime, true, 0);
+
+		return mEngine.queue(KEY_A, false, mTime + 50, true, 0);
+	}
+
+	@Benchmark
+	public Decision unconfiguredKey() {
+		mTime += 1000;
+		mEngine.queue(KEY_UNCONFIGURED, true, mTime, true, 0);
+
+		return mEngine.dispatch(mEvent, KEY_UNCONFIGURED, true, 0, false, 0);
+	}
+}
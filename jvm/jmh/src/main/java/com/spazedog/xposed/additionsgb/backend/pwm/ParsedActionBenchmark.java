@@ -0,0 +1,48 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+
+/*
+ * Parsing of the configured action strings, done for every action when the action table is built
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsedActionBenchmark {
+
+	@Param({ "24", "com.example.app", "tasker:task:Example", "torch" })
+	public String action;
+
+	private ActionRegistry mRegistry;
+
+	@Setup
+	public void setup() {
+		mRegistry = new ActionRegistry();
+		mRegistry.register("torch", new ActionRegistry.ActionHandler() {
+			@Override
+			public void handle(String action) {}
+		});
+	}
+
+	@Benchmark
+	public ParsedAction parse() {
+		return ParsedAction.parse(action, mRegistry);
+	}
+}
@@ -0,0 +1,221 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+
+/*
+ * The time a key spends in the queueing and dispatching hooks, with a virtual clock so that
+ * no time is spent waiting for the timeouts.
+ *
+ * The WithSleep variants add what the queueing hook did before the engine used a sequence number:
+ * it slept 1 ms on each key down while the state was not PENDING. After a configured key,
+ * this also delayed keys that are not configured. The difference between the two variants
+ * is the latency that the hook added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueHookBenchmark {
+
+	private static final int KEY = 24;
+	private static final int KEY_UNCONFIGURED = 26;
+
+	private KeyGestureEngine<Object, ParsedAction> mEngine;
+	private final Object mEvent = new Object();
+
+	private long mTime = 0;
+	private int mPendingUp = 0;
+
+	@Setup
+	public void setup() {
+		ActionRegistry registry = new ActionRegistry();
+		final ParsedAction[] actions = new ParsedAction[] { null, ParsedAction.parse("com.example.app", registry) };
+
+		KeyGestureEngine.Clock clock = new KeyGestureEngine.Clock() {
+			@Override
+			public long uptimeMillis() {
+				return mTime;
+			}
+
+			@Override
+			public void await(Object lock, long millis) {
+				if (mPendingUp > 0) {
+					int keyCode = mPendingUp;
+
+					mPendingUp = 0;
+					mTime += 50;
+					mEngine.queue(keyCode, false, mTime, true, 0);
+
+				} else {
+					mTime += millis;
+				}
+			}
+		};
+
+		KeyGestureEngine.Config<ParsedAction> config = new KeyGestureEngine.Config<ParsedAction>() {
+			@Override
+			public void refresh() {}
+
+			@Override
+			public boolean isExtended() {
+				return false;
+			}
+
+			@Override
+			public int getTapTimeout() {
+				return 100;
+			}
+
+			@Override
+			public int getPressTimeout() {
+				return 500;
+			}
+
+			@Override
+			public int getRepeatDelay() {
+				return 50;
+			}
+
+			@Override
+			public ParsedAction[] getActions(int primCode, int secCode, boolean isScreenOn) {
+				return secCode == 0 && primCode == KEY ? actions : null;
+			}
+
+			@Override
+			public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+				return false;
+			}
+
+			@Override
+			public boolean isCallButton(int primCode, int secCode) {
+				return false;
+			}
+
+			@Override
+			public int getKeyCode(ParsedAction action) {
+				return action.getKeyCode();
+			}
+
+			@Override
+			public int getKeyFlags(int keyCode) {
+				return 0;
+			}
+		};
+
+		KeyGestureEngine.Output<Object, ParsedAction> output = new KeyGestureEngine.Output<Object, ParsedAction>() {
+			@Override
+			public void inject(Object event, int action, int repeatCount, int flags) {}
+
+			@Override
+			public void injectKey(int keyCode, int action, int flags) {}
+
+			@Override
+			public void invoke(ParsedAction action) {}
+
+			@Override
+			public int getCallButtonCode() {
+				return 0;
+			}
+
+			@Override
+			public void pressFeedback() {}
+
+			@Override
+			public void repeatFeedback(Object event, int flags) {}
+
+			@Override
+			public void userActivity(long eventTime) {}
+
+			@Override
+			public boolean isDebug() {
+				return false;
+			}
+
+			@Override
+			public void debug(String message) {}
+		};
+
+		mEngine = new KeyGestureEngine<Object, ParsedAction>(clock, config, output);
+	}
+
+	/*
+	 * The old queueing hook, before it called the engine
+	 */
+	private void sleepOnDown() {
+		if (!mEngine.hasState(KeyGestureEngine.State.PENDING)) {
+			try {
+				Thread.sleep(1);
+
+			} catch (InterruptedException e) {}
+		}
+	}
+
+	private Decision click(boolean sleep) {
+		mTime += 1000;
+		mPendingUp = KEY;
+
+		if (sleep) {
+			sleepOnDown();
+		}
+
+		mEngine.queue(KEY, true, mTime, true, 0);
+		mEngine.dispatch(mEvent, KEY, true, 0, false, 0);
+
+		return mEngine.dispatch(mEvent, KEY, false, 0, false, 0);
+	}
+
+	private Decision unconfigured(boolean sleep) {
+		mTime += 1000;
+
+		if (sleep) {
+			sleepOnDown();
+		}
+
+		mEngine.queue(KEY_UNCONFIGURED, true, mTime, true, 0);
+
+		return mEngine.dispatch(mEvent, KEY_UNCONFIGURED, true, 0, false, 0);
+	}
+
+	@Benchmark
+	public Decision click() {
+		return click(false);
+	}
+
+	@Benchmark
+	public Decision clickWithSleep() {
+		return click(true);
+	}
+
+	/*
+	 * A key that is not configured, pressed after a configured key
+	 */
+	@Benchmark
+	public Decision clickAndOtherKey() {
+		click(false);
+
+		return unconfigured(false);
+	}
+
+	@Benchmark
+	public Decision clickAndOtherKeyWithSleep() {
+		click(true);
+
+		return unconfigured(true);
+	}
+}
@@ -0,0 +1,95 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.lib.reflecttools.ReflectClass;
+import com.spazedog.lib.reflecttools.utils.ReflectConstants.Match;
+import com.spazedog.lib.reflecttools.utils.ReflectException;
+
+/*
+ * The boot time probes of IMediatorSetup for a framework without the optional members:
+ * no Samsung feedback, no isWakeKeyWhenScreenOff, no screenshot and no global actions method.
+ *
+ * probeFromScratch looks them all up, like the first boot after an update. cachedProbes reads
+ * the probe file again and gets the stored results, like every later boot. A JDK class with a
+ * deep hierarchy stands in for PhoneWindowManager, which has more methods on a device, so the
+ * lookups are cheaper here than on a device. reflecttools caches the members it finds, but not
+ * the failed lookups that are measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeCacheBenchmark {
+
+	private ReflectClass mPhoneWindowManager;
+
+	@Setup
+	public void setup() {
+		new File(System.getProperty("java.io.tmpdir"), "system").mkdirs();
+
+		mPhoneWindowManager = ReflectClass.forClass(java.util.concurrent.ConcurrentSkipListMap.class);
+
+		ProbeCache.putInt("SAMSUNG_FEEDBACK_VERSION", probeSamsung());
+		ProbeCache.putInt("isWakeKeyWhenScreenOff", probe("isWakeKeyWhenScreenOff", Integer.TYPE) ? 1 : 0);
+		ProbeCache.putInt("takeScreenshot", probe("takeScreenshot") ? 1 : 0);
+		ProbeCache.putString("showGlobalActionsDialog", probe("showGlobalActions") ? "default" : probe("showGlobalActionsDialog", Boolean.TYPE) ? "custom" : "none");
+		ProbeCache.save();
+	}
+
+	private int probeSamsung() {
+		ReflectClass spwm = ReflectClass.forName("com.android.internal.policy.impl.sec.SamsungPhoneWindowManager", Match.SUPPRESS);
+
+		return spwm.exists() ? 1 : 0;
+	}
+
+	private boolean probe(String name, Object... parameters) {
+		try {
+			mPhoneWindowManager.findMethodDeep(name, Match.BEST, parameters);
+
+			return true;
+
+		} catch (ReflectException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public int probeFromScratch() {
+		int found = probeSamsung();
+
+		found += probe("isWakeKeyWhenScreenOff", Integer.TYPE) ? 1 : 0;
+		found += probe("takeScreenshot") ? 1 : 0;
+		found += probe("showGlobalActions") ? 1 : 0;
+		found += probe("showGlobalActionsDialog", Boolean.TYPE) ? 1 : 0;
+
+		return found;
+	}
+
+	@Benchmark
+	public int cachedProbes() {
+		ProbeCache.reload();
+
+		int found = ProbeCache.getInt("SAMSUNG_FEEDBACK_VERSION");
+
+		found += ProbeCache.getInt("isWakeKeyWhenScreenOff");
+		found += ProbeCache.getInt("takeScreenshot");
+		found += "none".equals(ProbeCache.getString("showGlobalActionsDialog")) ? 0 : 1;
+
+		return found;
+	}
+}
@@ -0,0 +1,113 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spazedog.lib.reflecttools.ReflectClass;
+import com.spazedog.lib.reflecttools.ReflectMethod;
+import com.spazedog.lib.reflecttools.utils.ReflectConstants.Match;
+import com.spazedog.lib.reflecttools.utils.ReflectException;
+
+/*
+ * The call overhead of the reflection members that IMediatorSetup uses on every key event,
+ * against a plain class standing in for InputManager.
+ *
+ * stringKeyedMap is the old lookup in a map of about 40 members followed by ReflectMethod.invoke().
+ * typedField calls the same ReflectMethod from a field. typedWrapper is what IMediatorSetup
+ * does now: a resolved java.lang.reflect.Method called on a fixed receiver. direct is the
+ * plain call, for reference. MethodHandles are not compared, as they are not available
+ * on the API levels the module supports.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectionCallBenchmark {
+
+	public static class InputManager {
+		private int mInjected = 0;
+
+		public boolean injectInputEvent(Object event, int mode) {
+			mInjected++;
+
+			return mode > 0;
+		}
+	}
+
+	private static final int MEMBERS = 40;
+
+	private final Object mEvent = new Object();
+	private final Map<String, ReflectMethod> mMethods = new HashMap<String, ReflectMethod>();
+
+	private InputManager mReceiver;
+	private ReflectMethod mInjectInputEvent;
+	private Method mInjectInputEventMethod;
+
+	@Setup
+	public void setup() {
+		mReceiver = new InputManager();
+
+		ReflectClass inputManager = ReflectClass.forReceiver(mReceiver);
+
+		mInjectInputEvent = inputManager.findMethodDeep("injectInputEvent", Match.DEFAULT, Object.class, Integer.TYPE);
+		mInjectInputEventMethod = mInjectInputEvent.getObject();
+		mInjectInputEventMethod.setAccessible(true);
+
+		for (int i = 0; i < MEMBERS; i++) {
+			mMethods.put("member" + i, mInjectInputEvent);
+		}
+
+		mMethods.put("injectInputEvent", mInjectInputEvent);
+	}
+
+	/*
+	 * Same as IMediatorSetup.injectInputEvent(KeyEvent, int)
+	 */
+	private boolean injectInputEvent(Object event, int mode) {
+		try {
+			return (Boolean) mInjectInputEventMethod.invoke(mReceiver, event, mode);
+
+		} catch (IllegalAccessException e) {
+			throw new ReflectException(e);
+
+		} catch (InvocationTargetException e) {
+			throw new ReflectException(e.getCause());
+		}
+	}
+
+	@Benchmark
+	public boolean stringKeyedMap() {
+		return (Boolean) mMethods.get("injectInputEvent").invoke(mEvent, 1);
+	}
+
+	@Benchmark
+	public boolean typedField() {
+		return (Boolean) mInjectInputEvent.invoke(mEvent, 1);
+	}
+
+	@Benchmark
+	public boolean typedWrapper() {
+		return injectInputEvent(mEvent, 1);
+	}
+
+	@Benchmark
+	public boolean direct() {
+		return mReceiver.injectInputEvent(mEvent, 1);
+	}
+}
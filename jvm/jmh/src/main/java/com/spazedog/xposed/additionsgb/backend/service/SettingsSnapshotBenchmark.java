@@ -0,0 +1,114 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+
+import com.spazedog.xposed.additionsgb.configs.Settings;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+
+/*
+ * Reading all settings of a configuration with 50 remapped keys, the way a process does
+ * when it connects to the service and when a value is not cached.
+ *
+ * stubGetSnapshot is the binder path: XService.getSnapshot() and the parceling of the result.
+ * STUB ONLY: it uses the Parcel stub of the plain JVM build and no binder transaction, so on
+ * a device this path costs more. sharedReadChanged reads the settings from the mapped file
+ * after a change, which copies and decodes them. sharedReadUnchanged reads them again without
+ * a change, which only reads the header. publish is what the service does for each change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsSnapshotBenchmark {
+
+	private static final int KEYS = 50;
+	private static final int FIRST_KEY = 24;
+
+	private FakeXService mService;
+	private ParcelFileDescriptor mFile;
+	private SettingsSnapshot.Region mRegion;
+	private SettingsSnapshot mReader;
+	private SettingsData mData;
+
+	@Setup
+	public void setup() throws Exception {
+		mData = new SettingsData();
+
+		ArrayList<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < KEYS; i++) {
+			String configName = (FIRST_KEY + i) + ":0";
+
+			keys.add(configName);
+
+			mData.put(Settings.REMAP_KEY_LIST_CONDITIONS + "#" + configName, list("com.example.app"), true);
+			mData.put(Settings.REMAP_KEY_LIST_ACTIONS.get("on") + "#" + configName, list("torch", "powermenu", "" + (FIRST_KEY + 100 + i)), true);
+			mData.put(Settings.REMAP_KEY_LIST_ACTIONS.get("off") + "#" + configName, list("" + (FIRST_KEY + 100 + i), null, "screenshot"), true);
+			mData.put(Settings.REMAP_KEY_LIST_ACTIONS.get("com.example.app") + "#" + configName, list("recentapps", null, "tasker:Task " + i), true);
+			mData.put(Settings.REMAP_KEY_DEFAULT_CONDITION + "#" + configName, i % 2 == 0, true);
+		}
+
+		mData.put(Settings.REMAP_LIST_KEYS, keys, true);
+
+		mService = new FakeXService(mData);
+		mFile = mService.getSnapshotFile();
+		mRegion = SettingsSnapshot.map(mFile.getFileDescriptor(), SettingsSnapshot.CAPACITY);
+		mReader = new SettingsSnapshot(mRegion);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		mFile.close();
+		mService.shutdown();
+	}
+
+	private static ArrayList<String> list(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	@Benchmark
+	public SettingsData stubGetSnapshot() {
+		Parcel parcel = Parcel.obtain();
+
+		mService.getSnapshot(null).writeToParcel(parcel, 0);
+		parcel.setDataPosition(0);
+
+		return SettingsData.CREATOR.createFromParcel(parcel);
+	}
+
+	@Benchmark
+	public SettingsData sharedReadChanged() throws Exception {
+		return new SettingsSnapshot(mRegion).read();
+	}
+
+	@Benchmark
+	public SettingsData sharedReadUnchanged() throws Exception {
+		return mReader.read();
+	}
+
+	@Benchmark
+	public int publish() throws Exception {
+		mService.putInt(Settings.REMAP_TIMEOUT_LONGPRESS, 400, 1);
+
+		return mReader.getSequence();
+	}
+}
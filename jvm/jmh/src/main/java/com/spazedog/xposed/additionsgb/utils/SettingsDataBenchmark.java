@@ -0,0 +1,124 @@
+package com.spazedog.xposed.additionsgb.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.os.Parcel;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.Type;
+
+/*
+ * Loading and saving a configuration with 50 remapped keys.
+ *
+ * readPreferenceMap parses the schema 2 shared preference keys, which is what the binary
+ * schema 3 file in readBinary replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsDataBenchmark {
+
+	private static final int KEYS = 50;
+
+	private SettingsData mData;
+	private byte[] mBinary;
+	private Map<String, Object> mPreferenceMap;
+
+	@Setup
+	public void setup() throws IOException {
+		mData = new SettingsData();
+		mPreferenceMap = new HashMap<String, Object>();
+
+		for (int i = 0; i < KEYS; i++) {
+			String group = "key_" + (24 + i);
+
+			put(group + "#actions", new ArrayList<String>(Arrays.asList("dispatch:" + i, null, "com.example.app", "torch", null, null)));
+			put(group + "#conditions", new ArrayList<String>(Arrays.asList("on", "off", "guard", "com.example.app")));
+			put(group + "#codes", new ArrayList<Integer>(Arrays.asList(24 + i, 0)));
+			put(group + "#enabled", i % 2 == 0);
+		}
+
+		mBinary = writeBinary();
+	}
+
+	/*
+	 * Add the value to the data and the same value in the schema 2 shared preference format
+	 */
+	private void put(String key, Object value) {
+		mData.put(key, value, true);
+
+		int type = Type.getType(value);
+
+		if (type == Type.LIST) {
+			List<?> list = (List<?>) value;
+
+			for (int i = 0; i < list.size(); i++) {
+				Object listValue = list.get(i);
+
+				mPreferenceMap.put("@2|" + Type.LIST + "|" + Type.getType(listValue) + "#" + i + "," + list.size() + "|" + key, listValue);
+			}
+
+		} else {
+			mPreferenceMap.put("@2|" + type + "|" + key, type == Type.BOOLEAN ? ((Boolean) value ? "1" : "0") : String.valueOf(value));
+		}
+	}
+
+	@Benchmark
+	public byte[] writeBinary() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(mBinary != null ? mBinary.length : 8192);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		mData.writeToStream(out);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public SettingsData readBinary() throws IOException {
+		return new SettingsData(new DataInputStream(new ByteArrayInputStream(mBinary)));
+	}
+
+	@Benchmark
+	public SettingsData readPreferenceMap() {
+		return new SettingsData(mPreferenceMap);
+	}
+
+	/*
+	 * STUB ONLY: this uses the Parcel stub of the plain JVM build, which keeps the values in a list.
+	 * It measures the SettingsData string table and list encoding, not the framework parcel or binder.
+	 */
+	@Benchmark
+	public SettingsData stubParcelRoundTrip() {
+		Parcel parcel = Parcel.obtain();
+
+		mData.writeToParcel(parcel, 0);
+		parcel.setDataPosition(0);
+
+		return SettingsData.CREATOR.createFromParcel(parcel);
+	}
+}
@@ -0,0 +1,59 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.util.List;
+import java.util.Map;
+
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper;
+
+/*
+ * Hand written copy of the interface generated from IXService.aidl for the plain JVM build.
+ * It has no binder Stub or Proxy, tests implement it directly.
+ */
+public interface IXService {
+	public void putStringArray(String key, List<String> value, int preserve) throws RemoteException;
+	public void putString(String key, String value, int preserve) throws RemoteException;
+	public void putInt(String key, int value, int preserve) throws RemoteException;
+	public void putBoolean(String key, boolean value, int preserve) throws RemoteException;
+
+	public List<String> getStringArray(String key, List<String> defaultValue) throws RemoteException;
+	public String getString(String key, String defaultValue) throws RemoteException;
+	public int getInt(String key, int defaultValue) throws RemoteException;
+	public boolean getBoolean(String key, boolean defaultValue) throws RemoteException;
+
+	public boolean remove(String key) throws RemoteException;
+	public boolean removeGroup(String group, String key) throws RemoteException;
+
+	public void putAll(SettingsHelper.SettingsData data, List<String> removed) throws RemoteException;
+
+	public int getType(String key) throws RemoteException;
+
+	public List<String> getKeys() throws RemoteException;
+	public List<String> getPreservedKeys() throws RemoteException;
+
+	public void apply() throws RemoteException;
+
+	public boolean isUnlocked() throws RemoteException;
+
+	public boolean isReady() throws RemoteException;
+
+	public int getVersion() throws RemoteException;
+
+	public void setOnChangeListener(IXServiceChangeListener listener, List<String> topics) throws RemoteException;
+
+	public void sendBroadcast(String action, Bundle data) throws RemoteException;
+
+	public void setSettingsData(SettingsHelper.SettingsData data) throws RemoteException;
+	public SettingsHelper.SettingsData getSettingsData() throws RemoteException;
+	public SettingsHelper.SettingsData getSnapshot(List<String> prefixes) throws RemoteException;
+	public SettingsHelper.SettingsData getGroup(String group, String key) throws RemoteException;
+
+	public void registerActionHandler(String packageName, String action, String intentAction) throws RemoteException;
+	@SuppressWarnings("rawtypes")
+	public Map getActionHandlers() throws RemoteException;
+
+	public ParcelFileDescriptor getSnapshotFile() throws RemoteException;
+}
@@ -0,0 +1,20 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.util.List;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper;
+
+/*
+ * Hand written copy of the interface generated from IXServiceChangeListener.aidl for the plain JVM build
+ */
+public interface IXServiceChangeListener {
+	public void onPreferenceDataSetChanged() throws RemoteException;
+	public void onPreferencesChanged(SettingsHelper.SettingsData values, List<String> removed) throws RemoteException;
+	public void onPackageChanged() throws RemoteException;
+	public void onBroadcastReceive(String action, Bundle data) throws RemoteException;
+
+	public static abstract class Stub implements IXServiceChangeListener {}
+}
@@ -0,0 +1,22 @@
+package android.content;
+
+/*
+ * Stub for the plain JVM build
+ */
+public final class ComponentName {
+	private final String mPackage;
+	private final String mClass;
+
+	public ComponentName(String pkg, String cls) {
+		mPackage = pkg;
+		mClass = cls;
+	}
+
+	public String getPackageName() {
+		return mPackage;
+	}
+
+	public String getClassName() {
+		return mClass;
+	}
+}
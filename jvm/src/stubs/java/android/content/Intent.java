@@ -0,0 +1,32 @@
+package android.content;
+
+import java.net.URISyntaxException;
+
+/*
+ * Stub for the plain JVM build, it only keeps the uri
+ */
+public class Intent {
+	public static final int URI_INTENT_SCHEME = 1;
+
+	private final String mUri;
+
+	public Intent(Intent o) {
+		mUri = o.mUri;
+	}
+
+	private Intent(String uri) {
+		mUri = uri;
+	}
+
+	public static Intent parseUri(String uri, int flags) throws URISyntaxException {
+		if (!uri.startsWith("intent:") && !uri.contains("#Intent;")) {
+			throw new URISyntaxException(uri, "Not an intent uri");
+		}
+
+		return new Intent(uri);
+	}
+
+	public String toUri(int flags) {
+		return mUri;
+	}
+}
@@ -0,0 +1,8 @@
+package android.os;
+
+/*
+ * Stub for the plain JVM build
+ */
+public class Build {
+	public static final String FINGERPRINT = "jvm/stub/stub:1/STUB/1:user/release-keys";
+}
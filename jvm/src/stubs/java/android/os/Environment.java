@@ -0,0 +1,12 @@
+package android.os;
+
+import java.io.File;
+
+/*
+ * Stub for the plain JVM build, the data directory is the temporary directory
+ */
+public class Environment {
+	public static File getDataDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+}
@@ -0,0 +1,6 @@
+package android.os;
+
+/*
+ * Stub for the plain JVM build, only needed to compile against reflecttools
+ */
+public interface IBinder {}
@@ -0,0 +1,144 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Stub for the plain JVM build. It keeps the written values in memory and returns
+ * copies in the same order, which is enough to test the order and types that
+ * a Parcelable writes and reads. It does not use the wire format of the framework,
+ * but dataSize() counts the bytes that the framework Parcel would have written.
+ */
+public final class Parcel {
+	private final List<Object> mValues = new ArrayList<Object>();
+	private int mPosition = 0;
+	private int mDataSize = 0;
+
+	private Parcel() {}
+
+	public static Parcel obtain() {
+		return new Parcel();
+	}
+
+	public void recycle() {
+		mValues.clear();
+		mPosition = 0;
+		mDataSize = 0;
+	}
+
+	public void setDataPosition(int pos) {
+		mPosition = pos;
+	}
+
+	/*
+	 * The size in bytes of the written data in the framework wire format
+	 */
+	public int dataSize() {
+		return mDataSize;
+	}
+
+	public void writeInt(int val) {
+		mValues.add(val);
+		mDataSize += 4;
+	}
+
+	public int readInt() {
+		return (Integer) next();
+	}
+
+	public void writeString(String val) {
+		mValues.add(val);
+		mDataSize += stringSize(val);
+	}
+
+	public String readString() {
+		return (String) next();
+	}
+
+	public void writeIntArray(int[] val) {
+		mValues.add(val != null ? val.clone() : null);
+		mDataSize += 4 + (val != null ? val.length * 4 : 0);
+	}
+
+	public int[] createIntArray() {
+		int[] val = (int[]) next();
+
+		return val != null ? val.clone() : null;
+	}
+
+	public void writeStringList(List<String> val) {
+		mValues.add(val != null ? new ArrayList<String>(val) : null);
+		mDataSize += 4;
+
+		if (val != null) {
+			for (String string : val) {
+				mDataSize += stringSize(string);
+			}
+		}
+	}
+
+	public ArrayList<String> createStringArrayList() {
+		List<?> val = (List<?>) next();
+
+		if (val == null) {
+			return null;
+		}
+
+		ArrayList<String> list = new ArrayList<String>(val.size());
+
+		for (Object item : val) {
+			list.add((String) item);
+		}
+
+		return list;
+	}
+
+	public void writeList(List<?> val) {
+		mValues.add(val != null ? new ArrayList<Object>(val) : null);
+		mDataSize += 4;
+
+		if (val != null) {
+			for (Object item : val) {
+				mDataSize += valueSize(item);
+			}
+		}
+	}
+
+	public ArrayList<Object> readArrayList(ClassLoader loader) {
+		List<?> val = (List<?>) next();
+
+		return val != null ? new ArrayList<Object>(val) : null;
+	}
+
+	private Object next() {
+		if (mPosition >= mValues.size()) {
+			throw new IllegalStateException("Reading past the end of the parcel");
+		}
+
+		return mValues.get(mPosition++);
+	}
+
+	/*
+	 * Strings are written as the length followed by UTF-16 chars and a terminating zero, padded to 4 bytes
+	 */
+	private static int stringSize(String val) {
+		return 4 + (val != null ? ((val.length() + 1) * 2 + 3) & ~3 : 0);
+	}
+
+	/*
+	 * List items are written by writeValue(), with a type tag before the value
+	 */
+	private static int valueSize(Object val) {
+		if (val == null) {
+			return 4;
+
+		} else if (val instanceof String) {
+			return 4 + stringSize((String) val);
+
+		} else if (val instanceof Integer || val instanceof Boolean) {
+			return 4 + 4;
+		}
+
+		throw new IllegalArgumentException("Unsupported value " + val.getClass().getName());
+	}
+}
@@ -0,0 +1,41 @@
+package android.os;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/*
+ * Stub for the plain JVM build, only opening files for reading is supported
+ */
+public class ParcelFileDescriptor {
+	public static final int MODE_READ_ONLY = 0x10000000;
+
+	private final RandomAccessFile mFile;
+
+	private ParcelFileDescriptor(RandomAccessFile file) {
+		mFile = file;
+	}
+
+	public static ParcelFileDescriptor open(File file, int mode) throws FileNotFoundException {
+		if (mode != MODE_READ_ONLY) {
+			throw new IllegalArgumentException("Only MODE_READ_ONLY is supported");
+		}
+
+		return new ParcelFileDescriptor(new RandomAccessFile(file, "r"));
+	}
+
+	public FileDescriptor getFileDescriptor() {
+		try {
+			return mFile.getFD();
+
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		mFile.close();
+	}
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/*
+ * Stub for the plain JVM build
+ */
+public interface Parcelable {
+	public interface Creator<T> {
+		public T createFromParcel(Parcel source);
+		public T[] newArray(int size);
+	}
+
+	public void writeToParcel(Parcel dest, int flags);
+	public int describeContents();
+}
@@ -0,0 +1,8 @@
+package android.os;
+
+/*
+ * Stub for the plain JVM build
+ */
+public class RemoteException extends Exception {
+	private static final long serialVersionUID = 1L;
+}
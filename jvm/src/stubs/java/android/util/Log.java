@@ -0,0 +1,22 @@
+package android.util;
+
+/*
+ * Stub for the plain JVM build, messages are dropped
+ */
+public final class Log {
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return 0;
+	}
+
+	public static int e(String tag, String msg) {
+		return 0;
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+}
@@ -0,0 +1,14 @@
+package android.view;
+
+/*
+ * Stub for the plain JVM build, with the framework default timeouts
+ */
+public class ViewConfiguration {
+	public static int getDoubleTapTimeout() {
+		return 300;
+	}
+
+	public static int getLongPressTimeout() {
+		return 500;
+	}
+}
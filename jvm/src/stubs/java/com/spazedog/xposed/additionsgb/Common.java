@@ -0,0 +1,27 @@
+package com.spazedog.xposed.additionsgb;
+
+/*
+ * Stub for the plain JVM build, the real class depends on the framework
+ */
+public final class Common {
+	public static final String PACKAGE_NAME = "com.spazedog.xposed.additionsgb";
+
+	public static final String XSERVICE_NAME = "user.additionsgb.service";
+	public static final String XSERVICE_NAME_COMBAT = PACKAGE_NAME + ".service.XSERVICE";
+
+	public static Boolean debug() {
+		return false;
+	}
+
+	public static class PlaceHolder {
+		private final String mKey;
+
+		public PlaceHolder(String key) {
+			mKey = key;
+		}
+
+		public String get(Object... replacements) {
+			return String.format(mKey, replacements);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+
+/*
+ * Runs a KeyGestureEngine on a virtual clock, in place of the queueing and dispatching threads of the framework.
+ *
+ * Device events are scripted with their event times. Each one is queued when the clock reaches it
+ * and is then dispatched in order together with the events that the engine injects.
+ * When the engine waits for a timeout, the clock jumps to the next device event or to the end of the timeout,
+ * so the waiting dispatch sees the same changes as it would on a device.
+ *
+ * Actions are strings, "key:<code>" is an action that invokes a key.
+ */
+final class GestureSimulation implements KeyGestureEngine.Clock, KeyGestureEngine.Config<String>, KeyGestureEngine.Output<GestureSimulation.Event, String> {
+
+	static final class Event {
+		final long time;
+		final int keyCode;
+		final int action;
+		final int repeatCount;
+		final boolean injected;
+
+		Event(long time, int keyCode, int action, int repeatCount, boolean injected) {
+			this.time = time;
+			this.keyCode = keyCode;
+			this.action = action;
+			this.repeatCount = repeatCount;
+			this.injected = injected;
+		}
+
+		boolean isDown() {
+			return action == KeyGestureEngine.ACTION_DOWN;
+		}
+
+		@Override
+		public String toString() {
+			return (injected ? "injected " : "device ") + keyCode + (isDown() ? " down(" + repeatCount + ")" : " up") + " at " + time;
+		}
+	}
+
+	static final class Record {
+		final long time;
+		final Event event;
+		final Decision decision;
+		final String action;
+
+		Record(long time, Event event, Decision decision, String action) {
+			this.time = time;
+			this.event = event;
+			this.decision = decision;
+			this.action = action;
+		}
+
+		@Override
+		public String toString() {
+			return time + ": " + (action != null ? "invoke " + action : event + " -> " + decision);
+		}
+	}
+
+	private static final int MAX_DISPATCHES = 100000;
+
+	private final KeyGestureEngine<Event, String> mEngine;
+
+	private final Map<String, String[]> mActions = new HashMap<String, String[]>();
+	private final Set<Integer> mComboKeys = new HashSet<Integer>();
+	private final Set<Integer> mCallButtons = new HashSet<Integer>();
+
+	private final LinkedList<Event> mDeviceEvents = new LinkedList<Event>();
+	private final LinkedList<Event> mDispatchQueue = new LinkedList<Event>();
+
+	private final List<Record> mQueued = new ArrayList<Record>();
+	private final List<Record> mDispatched = new ArrayList<Record>();
+	private final List<Record> mInvoked = new ArrayList<Record>();
+	private final List<Event> mInjected = new ArrayList<Event>();
+
+	private long mTime = 0;
+	private int mWaits = 0;
+	private boolean mScreenOn = true;
+	private int mCallButtonCode = 0;
+
+	int tapTimeout = 100;
+	int pressTimeout = 500;
+	int repeatDelay = 50;
+
+	GestureSimulation() {
+		mEngine = new KeyGestureEngine<Event, String>(this, this, this);
+	}
+
+	KeyGestureEngine<Event, String> getEngine() {
+		return mEngine;
+	}
+
+	/*
+	 * Configure the actions for a key (secCode 0) or a combo in the order press 1, tap 1, press 2, tap 2 etc.
+	 */
+	GestureSimulation configure(int primCode, int secCode, String... actions) {
+		mActions.put(primCode + ":" + secCode, actions);
+
+		if (secCode > 0) {
+			mComboKeys.add(primCode);
+		}
+
+		return this;
+	}
+
+	GestureSimulation callButton(int keyCode, int callButtonCode) {
+		mCallButtons.add(keyCode);
+		mCallButtonCode = callButtonCode;
+
+		return this;
+	}
+
+	GestureSimulation screenOn(boolean screenOn) {
+		mScreenOn = screenOn;
+
+		return this;
+	}
+
+	GestureSimulation down(long time, int keyCode) {
+		return device(time, keyCode, KeyGestureEngine.ACTION_DOWN);
+	}
+
+	GestureSimulation up(long time, int keyCode) {
+		return device(time, keyCode, KeyGestureEngine.ACTION_UP);
+	}
+
+	/*
+	 * A key press from the device, events must be added in the order they happen
+	 */
+	GestureSimulation press(long time, int keyCode, long duration) {
+		return down(time, keyCode).up(time + duration, keyCode);
+	}
+
+	private GestureSimulation device(long time, int keyCode, int action) {
+		if (!mDeviceEvents.isEmpty() && mDeviceEvents.getLast().time > time) {
+			throw new IllegalArgumentException("Device events must be added in order");
+		}
+
+		mDeviceEvents.add(new Event(time, keyCode, action, 0, false));
+
+		return this;
+	}
+
+	/*
+	 * Queue and dispatch all of the device events and advance the clock to at least the time given.
+	 * Returns when nothing is left to dispatch.
+	 */
+	GestureSimulation run(long until) {
+		int dispatches = 0;
+
+		while (true) {
+			if (!mDispatchQueue.isEmpty()) {
+				Event event = mDispatchQueue.removeFirst();
+				Decision decision = mEngine.dispatch(event, event.keyCode, event.isDown(), event.repeatCount, event.injected, 0);
+
+				mDispatched.add(new Record(mTime, event, decision, null));
+
+				if (++dispatches > MAX_DISPATCHES) {
+					throw new IllegalStateException("The dispatching did not stop");
+				}
+
+			} else if (!mDeviceEvents.isEmpty()) {
+				mTime = Math.max(mTime, mDeviceEvents.getFirst().time);
+				queueDeviceEvent();
+
+			} else {
+				break;
+			}
+		}
+
+		mTime = Math.max(mTime, until);
+
+		return this;
+	}
+
+	private void queueDeviceEvent() {
+		Event event = mDeviceEvents.removeFirst();
+		Decision decision = mEngine.queue(event.keyCode, event.isDown(), event.time, mScreenOn, 0);
+
+		mQueued.add(new Record(mTime, event, decision, null));
+		mDispatchQueue.add(event);
+	}
+
+	private void injectEvent(int keyCode, int action, int repeatCount) {
+		if (action == KeyGestureEngine.ACTION_MULTIPLE) {
+			injectEvent(keyCode, KeyGestureEngine.ACTION_DOWN, repeatCount);
+			injectEvent(keyCode, KeyGestureEngine.ACTION_UP, 0);
+
+		} else {
+			Event event = new Event(mTime, keyCode, action, repeatCount, true);
+
+			mInjected.add(event);
+			mDispatchQueue.add(event);
+		}
+	}
+
+	long getTime() {
+		return mTime;
+	}
+
+	int getWaits() {
+		return mWaits;
+	}
+
+	List<Record> getQueued() {
+		return mQueued;
+	}
+
+	List<Record> getDispatched() {
+		return mDispatched;
+	}
+
+	List<Record> getInvoked() {
+		return mInvoked;
+	}
+
+	List<Event> getInjected() {
+		return mInjected;
+	}
+
+	/*
+	 * The decision for the first dispatch of the device event with the time, key code and action
+	 */
+	Record getDispatched(long time, int keyCode, boolean down) {
+		for (Record record : mDispatched) {
+			Event event = record.event;
+
+			if (!event.injected && event.time == time && event.keyCode == keyCode && event.isDown() == down) {
+				return record;
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (Record record : mQueued) builder.append("queue ").append(record).append("\n");
+		for (Record record : mDispatched) builder.append("dispatch ").append(record).append("\n");
+		for (Record record : mInvoked) builder.append(record).append("\n");
+
+		return builder.toString();
+	}
+
+	/*
+	 * Clock
+	 */
+
+	@Override
+	public long uptimeMillis() {
+		return mTime;
+	}
+
+	@Override
+	public void await(Object lock, long millis) {
+		long deadline = mTime + millis;
+
+		mWaits++;
+
+		if (!mDeviceEvents.isEmpty() && mDeviceEvents.getFirst().time <= deadline) {
+			/*
+			 * The event is queued by another thread on a device, which wakes the waiting dispatch
+			 */
+			mTime = Math.max(mTime, mDeviceEvents.getFirst().time);
+			queueDeviceEvent();
+
+		} else {
+			mTime = deadline;
+		}
+	}
+
+	/*
+	 * Config
+	 */
+
+	@Override
+	public void refresh() {}
+
+	@Override
+	public boolean isExtended() {
+		return true;
+	}
+
+	@Override
+	public int getTapTimeout() {
+		return tapTimeout;
+	}
+
+	@Override
+	public int getPressTimeout() {
+		return pressTimeout;
+	}
+
+	@Override
+	public int getRepeatDelay() {
+		return repeatDelay;
+	}
+
+	@Override
+	public String[] getActions(int primCode, int secCode, boolean isScreenOn) {
+		return isScreenOn ? mActions.get(primCode + ":" + secCode) : null;
+	}
+
+	@Override
+	public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+		return isScreenOn && mComboKeys.contains(primCode);
+	}
+
+	@Override
+	public boolean isCallButton(int primCode, int secCode) {
+		return secCode == 0 && mCallButtons.contains(primCode);
+	}
+
+	@Override
+	public int getKeyCode(String action) {
+		return action.startsWith("key:") ? Integer.parseInt(action.substring(4)) : 0;
+	}
+
+	@Override
+	public int getKeyFlags(int keyCode) {
+		return 0;
+	}
+
+	/*
+	 * Output
+	 */
+
+	@Override
+	public void inject(Event event, int action, int repeatCount, int flags) {
+		injectEvent(event.keyCode, action, repeatCount);
+	}
+
+	@Override
+	public void injectKey(int keyCode, int action, int flags) {
+		injectEvent(keyCode, action, 0);
+	}
+
+	@Override
+	public void invoke(String action) {
+		mInvoked.add(new Record(mTime, null, null, action));
+	}
+
+	@Override
+	public int getCallButtonCode() {
+		return mCallButtonCode;
+	}
+
+	@Override
+	public void pressFeedback() {}
+
+	@Override
+	public void repeatFeedback(Event event, int flags) {}
+
+	@Override
+	public void userActivity(long eventTime) {}
+
+	@Override
+	public boolean isDebug() {
+		return false;
+	}
+
+	@Override
+	public void debug(String message) {}
+}
@@ -0,0 +1,287 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.State;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+import com.spazedog.xposed.additionsgb.backend.service.FakeXService;
+import com.spazedog.xposed.additionsgb.configs.Settings;
+
+/*
+ * A full press and release through the engine must not allocate once it is warmed up.
+ * This is checked with a fixed configuration, and with the ActionTableConfig that EventManager uses,
+ * including the hard reset and forced haptic lookups of the queue hook.
+ * The allocations of the test thread are counted by the HotSpot ThreadMXBean.
+ */
+public class KeyGestureEngineAllocationTest {
+
+	private static final int KEY = 24;
+	private static final int MAPPED_KEY = 25;
+
+	private final Object mEvent = new Object();
+	private final String[] mActions = new String[] { "key", "click", null, "double" };
+
+	private final FakeXService mService = new FakeXService();
+
+	private KeyGestureEngine<Object, ?> mEngine;
+	private ActionTableConfig mTableConfig;
+	private long mTime = 0;
+	private long mPendingUp = 0;
+	private int mInvoked = 0;
+	private int mHardResetTimeout = 0;
+	private boolean mForcedHaptic = false;
+
+	private final KeyGestureEngine.Clock mClock = new KeyGestureEngine.Clock() {
+		@Override
+		public long uptimeMillis() {
+			return mTime;
+		}
+
+		/*
+		 * The release arrives while the dispatch waits
+		 */
+		@Override
+		public void await(Object lock, long millis) {
+			if (mPendingUp > 0 && mPendingUp <= mTime + millis) {
+				mTime = mPendingUp;
+				mPendingUp = 0;
+				queue(false);
+
+			} else {
+				mTime += millis;
+			}
+		}
+	};
+
+	private final KeyGestureEngine.Config<String> mConfig = new KeyGestureEngine.Config<String>() {
+		@Override
+		public void refresh() {}
+
+		@Override
+		public boolean isExtended() {
+			return false;
+		}
+
+		@Override
+		public int getTapTimeout() {
+			return 100;
+		}
+
+		@Override
+		public int getPressTimeout() {
+			return 500;
+		}
+
+		@Override
+		public int getRepeatDelay() {
+			return 50;
+		}
+
+		@Override
+		public String[] getActions(int primCode, int secCode, boolean isScreenOn) {
+			return primCode == KEY && secCode == 0 ? mActions : null;
+		}
+
+		@Override
+		public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+			return false;
+		}
+
+		@Override
+		public boolean isCallButton(int primCode, int secCode) {
+			return false;
+		}
+
+		@Override
+		public int getKeyCode(String action) {
+			return action == mActions[0] ? MAPPED_KEY : 0;
+		}
+
+		@Override
+		public int getKeyFlags(int keyCode) {
+			return 0;
+		}
+	};
+
+	private class CountingOutput<A> implements KeyGestureEngine.Output<Object, A> {
+		@Override
+		public void inject(Object event, int action, int repeatCount, int flags) {}
+
+		@Override
+		public void injectKey(int keyCode, int action, int flags) {}
+
+		@Override
+		public void invoke(A action) {
+			mInvoked++;
+		}
+
+		@Override
+		public int getCallButtonCode() {
+			return 0;
+		}
+
+		@Override
+		public void pressFeedback() {}
+
+		@Override
+		public void repeatFeedback(Object event, int flags) {}
+
+		@Override
+		public void userActivity(long eventTime) {}
+
+		@Override
+		public boolean isDebug() {
+			return false;
+		}
+
+		@Override
+		public void debug(String message) {}
+		}
+
+	/*
+	 * The configuration that EventManager uses, with the same key mapping as mConfig
+	 */
+	private ActionTableConfig createTableConfig() throws Exception {
+		mService.putStringArray(Settings.REMAP_LIST_KEYS, Arrays.asList(KEY + ":0"), 0);
+		mService.putStringArray(Settings.REMAP_KEY_LIST_ACTIONS.get("on") + "#" + KEY + ":0", Arrays.asList("torch", "powermenu", "" + MAPPED_KEY), 0);
+		mService.putInt(Settings.REMAP_TIMEOUT_DOUBLECLICK, 100, 0);
+		mService.putInt(Settings.REMAP_TIMEOUT_LONGPRESS, 500, 0);
+		mService.putInt(Settings.REMAP_TIMEOUT_HARD_RESET, 12000, 0);
+		mService.putStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, Arrays.asList("" + KEY), 0);
+
+		return new ActionTableConfig(mService.connect(null), new ActionRegistry()) {
+			@Override
+			protected String getAppCondition(boolean extended) {
+				return null;
+			}
+
+			@Override
+			public int getRepeatDelay() {
+				return 50;
+			}
+
+			@Override
+			public int getKeyCode(ParsedAction action) {
+				return action.getKeyCode();
+			}
+
+			@Override
+			public int getKeyFlags(int keyCode) {
+				return 0;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		mService.shutdown();
+	}
+
+	/*
+	 * The queue hook reads the hard reset timeout and the forced haptic keys before the engine
+	 */
+	private void queue(boolean down) {
+		if (mTableConfig != null) {
+			mHardResetTimeout = mTableConfig.getHardResetTimeout();
+			mForcedHaptic = mTableConfig.isForcedHaptic(KEY);
+		}
+
+		mEngine.queue(KEY, down, mTime, true, 0);
+	}
+
+	/*
+	 * A click that waits for the tap timeout, since a double click is configured
+	 */
+	private void click() {
+		mTime += 2000;
+		mPendingUp = mTime + 50;
+		queue(true);
+		mEngine.dispatch(mEvent, KEY, true, 0, false, 0);
+		mEngine.dispatch(mEvent, KEY, false, 0, false, 0);
+	}
+
+	/*
+	 * A long press that is mapped to another key, which is injected and released again
+	 */
+	private void longPress() {
+		mTime += 2000;
+		mPendingUp = mTime + 700;
+		queue(true);
+		mEngine.dispatch(mEvent, KEY, true, 0, false, 0);
+		mEngine.dispatch(mEvent, MAPPED_KEY, true, 0, true, 0);
+		mEngine.dispatch(mEvent, MAPPED_KEY, true, 1, true, 0);
+		mEngine.dispatch(mEvent, KEY, false, 0, false, 0);
+		mEngine.dispatch(mEvent, MAPPED_KEY, false, 0, true, 0);
+	}
+
+	@Test
+	public void keyPathDoesNotAllocate() {
+		mEngine = new KeyGestureEngine<Object, String>(mClock, mConfig, new CountingOutput<String>());
+
+		assertNoAllocation();
+	}
+
+	@Test
+	public void adapterPathDoesNotAllocate() throws Exception {
+		mTableConfig = createTableConfig();
+		mEngine = new KeyGestureEngine<Object, ParsedAction>(mClock, mTableConfig, new CountingOutput<ParsedAction>());
+
+		assertNoAllocation();
+
+		assertEquals(12000, mHardResetTimeout);
+		assertTrue(mForcedHaptic);
+		assertFalse(mTableConfig.isForcedHaptic(MAPPED_KEY));
+	}
+
+	private void assertNoAllocation() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long threadId = Thread.currentThread().getId();
+
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		for (int i = 0; i < 20000; i++) {
+			click();
+			longPress();
+		}
+
+		/*
+		 * Check that the cycles really invoke the actions
+		 */
+		mInvoked = 0;
+		click();
+		assertEquals(1, mInvoked);
+		longPress();
+		assertEquals(1, mInvoked);
+		assertEquals(State.INVOKED, mEngine.getState());
+		assertTrue(mEngine.isHandledKey(KEY));
+
+		long before = threads.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < 10000; i++) {
+			click();
+			longPress();
+		}
+
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		/*
+		 * Reading the counter can allocate a few bytes itself, any boxing on the key path would be
+		 * at least 16 bytes for each of the 20000 events
+		 */
+		assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+	}
+}
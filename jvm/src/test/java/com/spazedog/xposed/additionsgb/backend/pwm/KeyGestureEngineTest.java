@@ -0,0 +1,352 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.GestureSimulation.Event;
+import com.spazedog.xposed.additionsgb.backend.pwm.GestureSimulation.Record;
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.State;
+
+public class KeyGestureEngineTest {
+
+	private static final int KEY_A = 1;
+	private static final int KEY_B = 2;
+	private static final int KEY_UNCONFIGURED = 3;
+	private static final int KEY_MAPPED = 24;
+
+	@Test
+	public void click() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, null, "click")
+				.press(1000, KEY_A, 100)
+				.run(5000);
+
+		assertInvoked(sim, "click", 1100);
+		assertEquals(1, sim.getWaits());
+		assertEquals(Decision.ALLOW, sim.getQueued().get(0).decision);
+		assertEquals(Decision.REJECT, sim.getDispatched(1000, KEY_A, true).decision);
+		assertEquals(Decision.REJECT, sim.getDispatched(1100, KEY_A, false).decision);
+		assertTrue(sim.getInjected().isEmpty());
+		assertEquals(State.INVOKED, sim.getEngine().getState());
+	}
+
+	@Test
+	public void clickWaitsForTapTimeout() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, null, "click", null, "double")
+				.press(1000, KEY_A, 50)
+				.run(5000);
+
+		/*
+		 * The click fires exactly when the tap timeout after the up has passed
+		 */
+		assertInvoked(sim, "click", 1050 + sim.tapTimeout);
+		assertEquals(2, sim.getWaits());
+	}
+
+	@Test
+	public void doubleClick() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, null, "click", null, "double")
+				.press(1000, KEY_A, 50)
+				.press(1120, KEY_A, 50)
+				.run(5000);
+
+		assertInvoked(sim, "double", 1170);
+		assertEquals(4, sim.getQueued().size());
+	}
+
+	@Test
+	public void longPress() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "press", "click")
+				.press(1000, KEY_A, 1000)
+				.run(5000);
+
+		/*
+		 * The long press fires exactly at the press timeout after the down
+		 */
+		assertInvoked(sim, "press", 1000 + sim.pressTimeout);
+		assertEquals(1, sim.getWaits());
+		assertEquals(Decision.REJECT, sim.getDispatched(2000, KEY_A, false).decision);
+		assertEquals(State.INVOKED, sim.getEngine().getState());
+	}
+
+	@Test
+	public void defaultLongPress() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, null, "click")
+				.press(1000, KEY_A, 800)
+				.run(5000);
+
+		Record down = sim.getDispatched(1000, KEY_A, true);
+
+		assertTrue(sim.getInvoked().isEmpty());
+		assertEquals(Decision.DEFAULT, down.decision);
+		assertEquals(1000 + sim.pressTimeout, down.time);
+		assertEquals(Decision.ALLOW, sim.getDispatched(1800, KEY_A, false).decision);
+		assertEquals(State.PENDING, sim.getEngine().getState());
+	}
+
+	@Test
+	public void unconfiguredKey() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "press", "click")
+				.press(1000, KEY_UNCONFIGURED, 1000)
+				.run(5000);
+
+		for (Record record : sim.getQueued()) {
+			assertEquals(Decision.DEFAULT, record.decision);
+		}
+
+		for (Record record : sim.getDispatched()) {
+			assertEquals(Decision.DEFAULT, record.decision);
+		}
+
+		assertTrue(sim.getInvoked().isEmpty());
+		assertTrue(sim.getInjected().isEmpty());
+		assertEquals(0, sim.getWaits());
+	}
+
+	@Test
+	public void combo() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, KEY_B, null, "combo")
+				.down(1000, KEY_A)
+				.down(1050, KEY_B)
+				.up(1100, KEY_B)
+				.up(1150, KEY_A)
+				.run(5000);
+
+		assertInvoked(sim, "combo", 1100);
+		assertEquals(Decision.REJECT, sim.getDispatched(1000, KEY_A, true).decision);
+		assertEquals(Decision.REJECT, sim.getDispatched(1150, KEY_A, false).decision);
+		assertTrue(sim.getInjected().isEmpty());
+	}
+
+	@Test
+	public void keyMappedLongPressRepeats() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "key:" + KEY_MAPPED, "click")
+				.press(1000, KEY_A, 2000)
+				.run(5000);
+
+		List<Event> injected = sim.getInjected();
+		long pressTime = 1000 + sim.pressTimeout;
+		long repeatTime = pressTime + sim.getEngine().getLongLongPressDelay();
+
+		assertTrue(sim.getInvoked().isEmpty());
+		assertInjected(injected.get(0), KEY_MAPPED, KeyGestureEngine.ACTION_DOWN, 0, pressTime);
+		assertInjected(injected.get(1), KEY_MAPPED, KeyGestureEngine.ACTION_DOWN, 1, pressTime);
+
+		/*
+		 * The repeats starts after the long-long press delay and follows the repeat delay
+		 * until the device key is released, which releases the mapped key
+		 */
+		int repeats = (int) ((3000 - repeatTime - 1) / sim.repeatDelay) + 1;
+
+		for (int i = 0; i < repeats; i++) {
+			assertInjected(injected.get(2 + i), KEY_MAPPED, KeyGestureEngine.ACTION_DOWN, 2 + i, repeatTime + i * sim.repeatDelay);
+		}
+
+		assertInjected(injected.get(2 + repeats), KEY_MAPPED, KeyGestureEngine.ACTION_UP, 0, 3000);
+		assertEquals(3 + repeats, injected.size());
+
+		/*
+		 * One wait for the press, one for the long-long press delay and one after each repeat.
+		 * The last one is ended by the release.
+		 */
+		assertEquals(2 + repeats, sim.getWaits());
+		assertEquals(Decision.REJECT, sim.getDispatched(3000, KEY_A, false).decision);
+		assertEquals(State.INVOKED, sim.getEngine().getState());
+	}
+
+	@Test
+	public void releaseOfAbortedEvent() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "key:" + KEY_MAPPED)
+				.configure(KEY_B, 0, null, "click", null, "double")
+				.down(1000, KEY_A)
+				.press(1600, KEY_B, 50)
+				.up(1700, KEY_A)
+				.run(5000);
+
+		/*
+		 * The new event releases the mapped key, and the release of the old key does not disturb the click
+		 */
+		List<Event> injected = sim.getInjected();
+
+		assertInjected(injected.get(injected.size() - 1), KEY_MAPPED, KeyGestureEngine.ACTION_UP, 0, 1600);
+		assertInvoked(sim, "click", 1650 + sim.tapTimeout);
+		assertEquals(Decision.DEFAULT, sim.getQueued().get(3).decision);
+	}
+
+	@Test
+	public void callButtonWithoutCall() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "press")
+				.callButton(KEY_A, 0)
+				.press(1000, KEY_A, 100)
+				.run(5000);
+
+		/*
+		 * Without a call or a click action, the click gets the default handling
+		 */
+		List<Event> injected = sim.getInjected();
+
+		assertEquals(2, injected.size());
+		assertInjected(injected.get(0), KEY_A, KeyGestureEngine.ACTION_DOWN, 0, 1100);
+		assertInjected(injected.get(1), KEY_A, KeyGestureEngine.ACTION_UP, 0, 1100);
+	}
+
+	@Test
+	public void callButtonDuringCall() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "press", "click")
+				.callButton(KEY_A, KEY_MAPPED)
+				.press(1000, KEY_A, 100)
+				.run(5000);
+
+		List<Event> injected = sim.getInjected();
+
+		assertTrue(sim.getInvoked().isEmpty());
+		assertEquals(2, injected.size());
+		assertInjected(injected.get(0), KEY_MAPPED, KeyGestureEngine.ACTION_DOWN, 0, 1100);
+		assertInjected(injected.get(1), KEY_MAPPED, KeyGestureEngine.ACTION_UP, 0, 1100);
+	}
+
+	@Test
+	public void screenOff() {
+		GestureSimulation sim = new GestureSimulation()
+				.configure(KEY_A, 0, "press", "click")
+				.screenOn(false)
+				.press(1000, KEY_A, 100)
+				.run(5000);
+
+		assertTrue(sim.getInvoked().isEmpty());
+		assertEquals(Decision.DEFAULT, sim.getQueued().get(0).decision);
+	}
+
+	/*
+	 * Random gestures on two configured keys, a combo and an unconfigured key.
+	 * Every gesture must finish and every injected key must be released.
+	 */
+	@Test
+	public void randomGestures() {
+		Random random = new Random(20151004);
+
+		for (int run = 0; run < 2000; run++) {
+			GestureSimulation sim = new GestureSimulation()
+					.configure(KEY_A, 0, randomActions(random))
+					.configure(KEY_B, 0, randomActions(random))
+					.configure(KEY_A, KEY_B, null, "combo");
+
+			long time = 1000;
+
+			for (int i = 0; i < 20; i++) {
+				int kind = random.nextInt(4);
+				int keyCode = kind == 0 ? KEY_UNCONFIGURED : random.nextBoolean() ? KEY_A : KEY_B;
+
+				if (kind == 1) {
+					long secDown = time + 1 + random.nextInt(1200);
+					long secUp = secDown + 1 + random.nextInt(1500);
+
+					sim.down(time, KEY_A).down(secDown, KEY_B);
+
+					if (random.nextBoolean()) {
+						sim.up(secUp, KEY_B).up(secUp + 1 + random.nextInt(300), KEY_A);
+
+					} else {
+						sim.up(secUp, KEY_A).up(secUp + 1 + random.nextInt(300), KEY_B);
+					}
+
+					time = secUp + 302;
+
+				} else {
+					long duration = 1 + random.nextInt(kind == 2 ? 200 : 3000);
+
+					sim.press(time, keyCode, duration);
+					time += duration;
+				}
+
+				time += 1 + random.nextInt(random.nextBoolean() ? 150 : 3000);
+			}
+
+			sim.run(time + 10000);
+
+			String context = "Run " + run + "\n" + sim;
+			State state = sim.getEngine().getState();
+
+			assertTrue(context, state == State.PENDING || state == State.INVOKED);
+			assertReleased(context, sim);
+
+			for (Record record : sim.getInvoked()) {
+				assertTrue(context, record.time <= time + 10000);
+			}
+		}
+	}
+
+	private static String[] randomActions(Random random) {
+		String[] actions = new String[1 + random.nextInt(4)];
+
+		for (int i = 0; i < actions.length; i++) {
+			switch (random.nextInt(4)) {
+				case 0: actions[i] = "action" + i; break;
+				case 1: actions[i] = "key:" + (KEY_MAPPED + random.nextInt(2)); break;
+				case 2: actions[i] = "key:" + (random.nextBoolean() ? KEY_A : KEY_B); break;
+				default: actions[i] = null;
+			}
+		}
+
+		return actions;
+	}
+
+	/*
+	 * Every injected down, that is not a repeat, must be followed by an up
+	 */
+	private static void assertReleased(String context, GestureSimulation sim) {
+		Map<Integer, Integer> pressed = new HashMap<Integer, Integer>();
+
+		for (Event event : sim.getInjected()) {
+			Integer count = pressed.get(event.keyCode);
+			int value = count == null ? 0 : count;
+
+			if (!event.isDown()) {
+				assertTrue(context + "Released " + event + " which is not pressed", value > 0);
+				pressed.put(event.keyCode, value - 1);
+
+			} else if (event.repeatCount == 0) {
+				pressed.put(event.keyCode, value + 1);
+			}
+		}
+
+		for (Map.Entry<Integer, Integer> entry : pressed.entrySet()) {
+			assertEquals(context + "Key " + entry.getKey() + " is still pressed", 0, (int) entry.getValue());
+		}
+	}
+
+	private static void assertInvoked(GestureSimulation sim, String action, long time) {
+		List<Record> invoked = sim.getInvoked();
+
+		assertEquals(sim.toString(), 1, invoked.size());
+		assertEquals(action, invoked.get(0).action);
+		assertEquals(time, invoked.get(0).time);
+		assertNull(invoked.get(0).event);
+	}
+
+	private static void assertInjected(Event event, int keyCode, int action, int repeatCount, long time) {
+		assertEquals(event.toString(), keyCode, event.keyCode);
+		assertEquals(event.toString(), action, event.action);
+		assertEquals(event.toString(), repeatCount, event.repeatCount);
+		assertEquals(event.toString(), time, event.time);
+	}
+}
@@ -0,0 +1,194 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+
+/*
+ * The timeouts on a real clock and real threads: how close the actions fire to the configured
+ * timeouts, and how often the waiting dispatch thread wakes up.
+ */
+public class KeyGestureEngineTimingTest {
+
+	private static final int KEY = 24;
+	private static final int PRESS_TIMEOUT = 300;
+	private static final int TAP_TIMEOUT = 200;
+
+	/*
+	 * Allowed delay on a loaded machine, the timeouts themselves must never fire early
+	 */
+	private static final long TOLERANCE = 100;
+
+	private final AtomicInteger mWakeups = new AtomicInteger();
+	private final AtomicLong mInvokeTime = new AtomicLong();
+
+	private final KeyGestureEngine.Clock mClock = new KeyGestureEngine.Clock() {
+		@Override
+		public long uptimeMillis() {
+			return System.nanoTime() / 1000000;
+		}
+
+		@Override
+		public void await(Object lock, long millis) throws InterruptedException {
+			mWakeups.incrementAndGet();
+			lock.wait(millis);
+		}
+	};
+
+	private KeyGestureEngine<Object, String> createEngine(final String[] actions) {
+		return new KeyGestureEngine<Object, String>(mClock, new KeyGestureEngine.Config<String>() {
+			@Override
+			public void refresh() {}
+
+			@Override
+			public boolean isExtended() {
+				return false;
+			}
+
+			@Override
+			public int getTapTimeout() {
+				return TAP_TIMEOUT;
+			}
+
+			@Override
+			public int getPressTimeout() {
+				return PRESS_TIMEOUT;
+			}
+
+			@Override
+			public int getRepeatDelay() {
+				return 50;
+			}
+
+			@Override
+			public String[] getActions(int primCode, int secCode, boolean isScreenOn) {
+				return primCode == KEY && secCode == 0 ? actions : null;
+			}
+
+			@Override
+			public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+				return false;
+			}
+
+			@Override
+			public boolean isCallButton(int primCode, int secCode) {
+				return false;
+			}
+
+			@Override
+			public int getKeyCode(String action) {
+				return 0;
+			}
+
+			@Override
+			public int getKeyFlags(int keyCode) {
+				return 0;
+			}
+
+		}, new KeyGestureEngine.Output<Object, String>() {
+			@Override
+			public void inject(Object event, int action, int repeatCount, int flags) {}
+
+			@Override
+			public void injectKey(int keyCode, int action, int flags) {}
+
+			@Override
+			public void invoke(String action) {
+				mInvokeTime.set(mClock.uptimeMillis());
+			}
+
+			@Override
+			public int getCallButtonCode() {
+				return 0;
+			}
+
+			@Override
+			public void pressFeedback() {}
+
+			@Override
+			public void repeatFeedback(Object event, int flags) {}
+
+			@Override
+			public void userActivity(long eventTime) {}
+
+			@Override
+			public boolean isDebug() {
+				return false;
+			}
+
+			@Override
+			public void debug(String message) {}
+		});
+	}
+
+	@Test
+	public void longPressTimeout() {
+		KeyGestureEngine<Object, String> engine = createEngine(new String[] { "press", "click" });
+		long downTime = mClock.uptimeMillis();
+
+		engine.queue(KEY, true, downTime, true, 0);
+
+		assertEquals(Decision.REJECT, engine.dispatch(null, KEY, true, 0, false, 0));
+		assertOnTime(downTime + PRESS_TIMEOUT);
+
+		/*
+		 * A single wait, with a spare wakeup for a spurious one
+		 */
+		assertTrue("Woke up " + mWakeups.get() + " times", mWakeups.get() <= 2);
+	}
+
+	@Test
+	public void clickTimeout() throws InterruptedException {
+		final KeyGestureEngine<Object, String> engine = createEngine(new String[] { null, "click", null, "double" });
+		final AtomicLong upTime = new AtomicLong();
+
+		engine.queue(KEY, true, mClock.uptimeMillis(), true, 0);
+
+		/*
+		 * The up is queued on another thread while the dispatch waits for the press timeout
+		 */
+		Thread queueing = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+
+				} catch (InterruptedException e) {}
+
+				upTime.set(mClock.uptimeMillis());
+				engine.queue(KEY, false, upTime.get(), true, 0);
+			}
+		};
+
+		queueing.start();
+
+		assertEquals(Decision.REJECT, engine.dispatch(null, KEY, true, 0, false, 0));
+
+		queueing.join();
+
+		long pressEnd = mClock.uptimeMillis();
+
+		assertTrue("The press wait ended " + (pressEnd - upTime.get()) + "ms after the up", pressEnd - upTime.get() <= TOLERANCE);
+		assertEquals(0, mInvokeTime.get());
+
+		assertEquals(Decision.REJECT, engine.dispatch(null, KEY, false, 0, false, 0));
+		assertOnTime(upTime.get() + TAP_TIMEOUT);
+
+		/*
+		 * One wait for the press that is ended by the up, and one for the tap timeout
+		 */
+		assertTrue("Woke up " + mWakeups.get() + " times", mWakeups.get() <= 3);
+	}
+
+	private void assertOnTime(long expected) {
+		long delay = mInvokeTime.get() - expected;
+
+		assertTrue("Fired " + delay + "ms after the timeout", delay >= 0 && delay <= TOLERANCE);
+	}
+}
@@ -0,0 +1,127 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.ParsedAction.Type;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+
+/*
+ * The action strings must be read the same way as Common.actionParse() does
+ */
+public class ParsedActionTest {
+
+	private ActionRegistry mRegistry;
+	private int mTorchId;
+
+	@Before
+	public void setUp() {
+		mRegistry = new ActionRegistry();
+		mTorchId = mRegistry.register("torch", new ActionRegistry.ActionHandler() {
+			@Override
+			public void handle(String action) {}
+		});
+	}
+
+	@Test
+	public void noAction() {
+		assertNull(ParsedAction.parse(null, mRegistry));
+	}
+
+	@Test
+	public void keyCode() {
+		ParsedAction action = ParsedAction.parse("24", mRegistry);
+
+		assertParsed(action, Type.DISPATCH, "24");
+		assertEquals(24, action.getKeyCode());
+		assertEquals("24", action.toString());
+	}
+
+	@Test
+	public void numberTooLargeForKeyCode() {
+		/*
+		 * Common.actionParse() fails on these, they are never a valid key code
+		 */
+		ParsedAction action = ParsedAction.parse("12345678901", mRegistry);
+
+		assertParsed(action, Type.CUSTOM, "12345678901");
+		assertEquals(0, action.getKeyCode());
+	}
+
+	@Test
+	public void customNames() {
+		for (String name : new String[] {"torch", "my_action", "action1", "12a"}) {
+			assertTrue(name, ParsedAction.isCustomName(name));
+			assertEquals(name, Type.CUSTOM, ParsedAction.parse(name, mRegistry).getType());
+		}
+
+		/*
+		 * These would be parsed as another type, or shadow one
+		 */
+		for (String name : new String[] {null, "", "24", "12345678901", "com.example.app", "tasker:foo", "shortcut:x", "app:x", ":"}) {
+			assertFalse(name, ParsedAction.isCustomName(name));
+		}
+	}
+
+	@Test
+	public void launcher() {
+		ParsedAction action = ParsedAction.parse("com.example.app", mRegistry);
+
+		assertParsed(action, Type.LAUNCHER, "com.example.app");
+		assertEquals(0, action.getKeyCode());
+	}
+
+	@Test
+	public void tasker() {
+		/*
+		 * The character after the prefix is skipped, like in Common.actionParse()
+		 */
+		assertParsed(ParsedAction.parse("tasker:/Example task", mRegistry), Type.TASKER, "Example task");
+	}
+
+	@Test
+	public void shortcut() {
+		String uri = "intent:#Intent;action=android.intent.action.VIEW;end";
+		ParsedAction action = ParsedAction.parse("shortcut:Example:" + uri, mRegistry);
+
+		assertParsed(action, Type.SHORTCUT, uri);
+		assertNotNull(action.getIntent());
+
+		/*
+		 * The caller may change the Intent, so a copy is returned
+		 */
+		assertNotSame(action.getIntent(), action.getIntent());
+	}
+
+	@Test
+	public void invalidShortcut() {
+		ParsedAction action = ParsedAction.parse("shortcut:Example:not an intent", mRegistry);
+
+		assertParsed(action, Type.SHORTCUT, "not an intent");
+		assertNull(action.getIntent());
+	}
+
+	@Test
+	public void customAction() {
+		ParsedAction action = ParsedAction.parse("torch", mRegistry);
+
+		assertEquals(Type.CUSTOM, action.getType());
+		assertEquals("torch", action.getPayload());
+		assertEquals(mTorchId, action.getHandlerId());
+
+		assertEquals(ActionRegistry.NO_HANDLER, ParsedAction.parse("disabled", mRegistry).getHandlerId());
+	}
+
+	private static void assertParsed(ParsedAction action, Type type, String payload) {
+		assertEquals(type, action.getType());
+		assertEquals(payload, action.getPayload());
+		assertEquals(ActionRegistry.NO_HANDLER, action.getHandlerId());
+	}
+}
@@ -0,0 +1,145 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ComponentName;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ForegroundTracker.FocusedTask;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XC_MethodHook.MethodHookParam;
+
+/*
+ * Calls the setFocusedActivityLocked hook with objects that have the fields
+ * of the ActivityRecord and TaskRecord classes in the Activity Manager.
+ */
+public class ForegroundTrackerTest {
+
+	static final class TaskRecord {
+		int taskId;
+		ComponentName realActivity;
+
+		TaskRecord(int taskId, String basePackageName) {
+			this.taskId = taskId;
+			this.realActivity = basePackageName != null ? new ComponentName(basePackageName, basePackageName + ".Main") : null;
+		}
+	}
+
+	static final class ActivityRecord {
+		TaskRecord task;
+		String packageName;
+
+		ActivityRecord(TaskRecord task, String packageName) {
+			this.task = task;
+			this.packageName = packageName;
+		}
+	}
+
+	private ForegroundTracker mTracker;
+
+	@Before
+	public void setUp() {
+		/*
+		 * The Activity Manager cannot be hooked here, the tracker only logs the error
+		 */
+		mTracker = new ForegroundTracker();
+	}
+
+	@Test
+	public void unknownUntilFocused() {
+		assertNull(mTracker.getFocusedTask());
+
+		focus((Object) null);
+		focus(new Object[0]);
+
+		assertNull(mTracker.getFocusedTask());
+	}
+
+	@Test
+	public void focusedActivity() {
+		focus(new ActivityRecord(new TaskRecord(12, "com.example.mail"), "com.example.mail"));
+
+		assertFocused(12, "com.example.mail", "com.example.mail");
+
+		/*
+		 * An activity from another package in the same task, like a picker started by the mail application
+		 */
+		focus(new ActivityRecord(new TaskRecord(12, "com.example.mail"), "com.example.gallery"));
+
+		assertFocused(12, "com.example.gallery", "com.example.mail");
+	}
+
+	@Test
+	public void taskWithoutRealActivity() {
+		focus(new ActivityRecord(new TaskRecord(7, null), "com.example.browser"));
+
+		assertFocused(7, "com.example.browser", "com.example.browser");
+	}
+
+	@Test
+	public void systemUiTaskIsSkipped() {
+		focus(new ActivityRecord(new TaskRecord(3, "com.example.launcher"), "com.example.launcher"));
+		FocusedTask focusedTask = mTracker.getFocusedTask();
+
+		/*
+		 * The recent applications screen is a System UI task
+		 */
+		focus(new ActivityRecord(new TaskRecord(4, "com.android.systemui"), "com.android.systemui"));
+
+		assertSame(focusedTask, mTracker.getFocusedTask());
+
+		/*
+		 * The filter is on the task, not the activity, like in the task stack lookup
+		 */
+		focus(new ActivityRecord(new TaskRecord(5, "com.android.systemui"), "com.example.settings"));
+
+		assertSame(focusedTask, mTracker.getFocusedTask());
+
+		focus(new ActivityRecord(new TaskRecord(6, "com.example.settings"), "com.android.systemui"));
+
+		assertFocused(6, "com.android.systemui", "com.example.settings");
+	}
+
+	@Test
+	public void invalidRecordKeepsTheLastTask() {
+		focus(new ActivityRecord(new TaskRecord(12, "com.example.mail"), "com.example.mail"));
+		FocusedTask focusedTask = mTracker.getFocusedTask();
+
+		focus("not an activity record");
+
+		assertSame(focusedTask, mTracker.getFocusedTask());
+	}
+
+	private void assertFocused(int taskId, String packageName, String basePackageName) {
+		FocusedTask focusedTask = mTracker.getFocusedTask();
+
+		assertEquals(taskId, focusedTask.getTaskId());
+		assertEquals(packageName, focusedTask.getPackageName());
+		assertEquals(basePackageName, focusedTask.getBasePackageName());
+	}
+
+	private void focus(Object activityRecord) {
+		focus(new Object[] { activityRecord });
+	}
+
+	private void focus(Object[] args) {
+		MethodHookParam param = new MethodHookParam();
+		param.args = args;
+
+		try {
+			Method method = XC_MethodHook.class.getDeclaredMethod("afterHookedMethod", MethodHookParam.class);
+			method.setAccessible(true);
+			method.invoke(mTracker.hook_setFocusedActivity, param);
+
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
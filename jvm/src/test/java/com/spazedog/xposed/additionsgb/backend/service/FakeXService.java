@@ -0,0 +1,420 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.Type;
+
+/*
+ * An in-process IXService backed by SettingsData. Like XService, the changes are sent
+ * to the listener from a single thread in the order they were made, without waiting
+ * for the listener, as IXServiceChangeListener is oneway. Only the listener that was
+ * registered when the change was made receives it.
+ *
+ * The values are published to a SettingsSnapshot in a mapped temporary file before
+ * each change is sent, the way XService publishes them in ashmem.
+ */
+public class FakeXService implements IXService {
+	private final SettingsData mData;
+	private final Map<String, String> mActionHandlers = new HashMap<String, String>();
+	private final Map<String, Object> mDelivered = new ConcurrentHashMap<String, Object>();
+	private final ExecutorService mDispatcher = Executors.newSingleThreadExecutor();
+
+	private final File mSnapshotFile;
+	private final SettingsSnapshot mSnapshot;
+
+	private volatile IXServiceChangeListener mListener;
+
+	public FakeXService() {
+		this(new SettingsData());
+	}
+
+	public FakeXService(SettingsData data) {
+		mData = data;
+
+		try {
+			mSnapshotFile = File.createTempFile("settings", ".snapshot");
+			mSnapshotFile.deleteOnExit();
+
+			RandomAccessFile file = new RandomAccessFile(mSnapshotFile, "rw");
+
+			try {
+				mSnapshot = new SettingsSnapshot(new SettingsSnapshot.BufferRegion(file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SettingsSnapshot.CAPACITY)));
+
+			} finally {
+				file.close();
+			}
+
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		publishSnapshot();
+	}
+
+	/*
+	 * A manager connected to this service, only caching keys that starts with one of the topics
+	 */
+	public XServiceManager connect(List<String> topics) throws RemoteException {
+		return XServiceManager.create(this, topics);
+	}
+
+	/*
+	 * Wait until all changes made so far have been sent to the listener
+	 */
+	public void drain() throws Exception {
+		mDispatcher.submit(new Runnable() {
+			@Override
+			public void run() {}
+		}).get();
+	}
+
+	/*
+	 * The last value of the key that the listener has received, null if none
+	 */
+	public Object getDelivered(String key) {
+		return mDelivered.get(key);
+	}
+
+	/*
+	 * Tell the listener that all data has changed, which clears the cache of the manager
+	 */
+	public void invalidate() {
+		final IXServiceChangeListener listener = mListener;
+
+		mDispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (listener != null) {
+					try {
+						listener.onPreferenceDataSetChanged();
+
+					} catch (RemoteException e) {}
+				}
+			}
+		});
+	}
+
+	public void shutdown() throws InterruptedException {
+		mDispatcher.shutdown();
+		mDispatcher.awaitTermination(10, TimeUnit.SECONDS);
+		mSnapshotFile.delete();
+	}
+
+	private void publishSnapshot() {
+		synchronized (mData) {
+			try {
+				mSnapshot.publish(mData);
+
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private void broadcastChanges(final SettingsData values, final List<String> removed) {
+		final IXServiceChangeListener listener = mListener;
+
+		publishSnapshot();
+
+		mDispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (listener != null) {
+					try {
+						listener.onPreferencesChanged(values, removed);
+
+					} catch (RemoteException e) {}
+
+					for (String key : values.keySet()) {
+						if (values.get(key) != null) {
+							mDelivered.put(key, values.get(key));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void setCached(String key, Object value, int preserve) {
+		synchronized (mData) {
+			mData.put(key, value, preserve == 1);
+
+			SettingsData values = new SettingsData();
+			values.put(key, copy(value));
+
+			broadcastChanges(values, Collections.<String>emptyList());
+		}
+	}
+
+	private Object getCached(String key, Object defaultValue) {
+		synchronized (mData) {
+			return mData.contains(key) ? copy(mData.get(key)) : defaultValue;
+		}
+	}
+
+	/*
+	 * Lists are parceled, the receiver never shares them with the service
+	 */
+	private static Object copy(Object value) {
+		return value instanceof List ? new ArrayList<Object>((List<?>) value) : value;
+	}
+
+	@Override
+	public void putStringArray(String key, List<String> value, int preserve) {
+		setCached(key, new ArrayList<String>(value), preserve);
+	}
+
+	@Override
+	public void putString(String key, String value, int preserve) {
+		setCached(key, value, preserve);
+	}
+
+	@Override
+	public void putInt(String key, int value, int preserve) {
+		setCached(key, value, preserve);
+	}
+
+	@Override
+	public void putBoolean(String key, boolean value, int preserve) {
+		setCached(key, value, preserve);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<String> getStringArray(String key, List<String> defaultValue) {
+		return (List<String>) getCached(key, defaultValue);
+	}
+
+	@Override
+	public String getString(String key, String defaultValue) {
+		return (String) getCached(key, defaultValue);
+	}
+
+	@Override
+	public int getInt(String key, int defaultValue) {
+		return (Integer) getCached(key, defaultValue);
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return (Boolean) getCached(key, defaultValue);
+	}
+
+	@Override
+	public boolean remove(String key) {
+		synchronized (mData) {
+			if (mData.contains(key)) {
+				mData.remove(key);
+
+				broadcastChanges(new SettingsData(), Collections.singletonList(key));
+
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	@Override
+	public boolean removeGroup(String group, String key) {
+		synchronized (mData) {
+			List<String> keys = mData.groupKeys(group, key);
+
+			if (keys.size() > 0) {
+				for (String groupKey : keys) {
+					mData.remove(groupKey);
+				}
+
+				broadcastChanges(new SettingsData(), keys);
+			}
+
+			return true;
+		}
+	}
+
+	@Override
+	public void putAll(SettingsData data, List<String> removed) {
+		synchronized (mData) {
+			SettingsData values = new SettingsData();
+			List<String> removedKeys = new ArrayList<String>();
+
+			for (String key : removed) {
+				if (mData.contains(key)) {
+					mData.remove(key);
+					removedKeys.add(key);
+				}
+			}
+
+			for (String key : data.keySet()) {
+				mData.put(key, data.get(key), data.persistent(key));
+				values.put(key, copy(data.get(key)));
+			}
+
+			broadcastChanges(values, removedKeys);
+		}
+	}
+
+	@Override
+	public int getType(String key) {
+		synchronized (mData) {
+			return mData.contains(key) ? mData.type(key) : Type.UNKNOWN;
+		}
+	}
+
+	@Override
+	public List<String> getKeys() {
+		synchronized (mData) {
+			return new ArrayList<String>(mData.keySet());
+		}
+	}
+
+	@Override
+	public List<String> getPreservedKeys() {
+		List<String> keys = new ArrayList<String>();
+
+		synchronized (mData) {
+			for (String key : mData.keySet()) {
+				if (mData.persistent(key)) {
+					keys.add(key);
+				}
+			}
+		}
+
+		return keys;
+	}
+
+	@Override
+	public void apply() {}
+
+	@Override
+	public boolean isUnlocked() {
+		return true;
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+
+	@Override
+	public int getVersion() {
+		return 1;
+	}
+
+	@Override
+	public void setOnChangeListener(IXServiceChangeListener listener, List<String> topics) {
+		mListener = listener;
+	}
+
+	@Override
+	public void sendBroadcast(final String action, final Bundle data) {
+		final IXServiceChangeListener listener = mListener;
+
+		mDispatcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (listener != null) {
+					try {
+						listener.onBroadcastReceive(action, data);
+
+					} catch (RemoteException e) {}
+				}
+			}
+		});
+	}
+
+	@Override
+	public void setSettingsData(SettingsData data) {
+		synchronized (mData) {
+			for (String key : new ArrayList<String>(mData.keySet())) {
+				mData.remove(key);
+			}
+
+			for (String key : data.keySet()) {
+				mData.put(key, data.get(key), data.persistent(key));
+			}
+
+			publishSnapshot();
+			invalidate();
+		}
+	}
+
+	@Override
+	public SettingsData getSettingsData() {
+		return getSnapshot(null);
+	}
+
+	@Override
+	public SettingsData getSnapshot(List<String> prefixes) {
+		SettingsData snapshot = new SettingsData();
+
+		synchronized (mData) {
+			for (String key : mData.keySet()) {
+				if (prefixes == null || prefixes.isEmpty() || XServiceManager.matchesTopic(key, prefixes)) {
+					snapshot.put(key, copy(mData.get(key)));
+				}
+			}
+		}
+
+		return snapshot;
+	}
+
+	@Override
+	public SettingsData getGroup(String group, String key) {
+		SettingsData values = new SettingsData();
+
+		synchronized (mData) {
+			for (String groupKey : mData.groupKeys(group, key)) {
+				values.put(groupKey, copy(mData.get(groupKey)));
+			}
+		}
+
+		return values;
+	}
+
+	@Override
+	public void registerActionHandler(String packageName, String action, String intentAction) {
+		synchronized (mActionHandlers) {
+			if (intentAction != null) {
+				mActionHandlers.put(action, packageName + "/" + intentAction);
+
+			} else {
+				mActionHandlers.remove(action);
+			}
+		}
+	}
+
+	@Override
+	public Map<String, String> getActionHandlers() {
+		synchronized (mActionHandlers) {
+			return new HashMap<String, String>(mActionHandlers);
+		}
+	}
+
+	@Override
+	public ParcelFileDescriptor getSnapshotFile() throws RemoteException {
+		try {
+			return ParcelFileDescriptor.open(mSnapshotFile, ParcelFileDescriptor.MODE_READ_ONLY);
+
+		} catch (IOException e) {
+			throw new RemoteException();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+
+/*
+ * The service writes to a mapped file and the readers map the same file read-only,
+ * like the processes on a device map the ashmem region of the service.
+ */
+public class SettingsSnapshotTest {
+
+	private static final int KEYS = 32;
+	private static final int ROUNDS = 2000;
+
+	private File mFile;
+	private MappedByteBuffer mBuffer;
+	private SettingsSnapshot mWriter;
+
+	@Before
+	public void setUp() throws Exception {
+		mFile = File.createTempFile("settings", ".snapshot");
+
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+
+		try {
+			mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SettingsSnapshot.CAPACITY);
+
+		} finally {
+			file.close();
+		}
+
+		mWriter = new SettingsSnapshot(new SettingsSnapshot.BufferRegion(mBuffer));
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	private SettingsSnapshot openReader() throws Exception {
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+
+		try {
+			return new SettingsSnapshot(SettingsSnapshot.map(file.getFD(), SettingsSnapshot.CAPACITY));
+
+		} finally {
+			file.close();
+		}
+	}
+
+	private static SettingsData round(int round) {
+		SettingsData data = new SettingsData();
+
+		for (int i = 0; i < KEYS; i++) {
+			data.put("key_" + i, round, i % 2 == 0);
+		}
+
+		return data;
+	}
+
+	@Test
+	public void nothingPublished() throws Exception {
+		SettingsSnapshot reader = openReader();
+
+		assertEquals(0, reader.getSequence());
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void readsAllValues() throws Exception {
+		SettingsData data = new SettingsData();
+
+		data.put("remap_keys", new ArrayList<String>(Arrays.asList("24:0", "25:0")), true);
+		data.put("remap_timeout", 200, false);
+		data.put("enable_layout", true, false);
+		data.put("remap_action", "torch", true);
+
+		mWriter.publish(data);
+
+		SettingsSnapshot reader = openReader();
+		SettingsData read = reader.read();
+
+		assertEquals(2, reader.getSequence());
+		assertEquals(4, read.keySet().size());
+		assertEquals(Arrays.asList("24:0", "25:0"), read.get("remap_keys"));
+		assertEquals(200, read.get("remap_timeout"));
+		assertEquals(true, read.get("enable_layout"));
+		assertEquals("torch", read.get("remap_action"));
+
+		/*
+		 * Decoded again only after the next publish
+		 */
+		assertSame(read, reader.read());
+
+		mWriter.publish(round(1));
+
+		assertEquals(4, reader.getSequence());
+		assertEquals(KEYS, reader.read().keySet().size());
+	}
+
+	@Test
+	public void tooLarge() throws Exception {
+		SettingsSnapshot snapshot = new SettingsSnapshot(new SettingsSnapshot.BufferRegion(ByteBuffer.allocate(64)));
+
+		snapshot.publish(round(1));
+
+		assertEquals(2, snapshot.getSequence());
+		assertNull(snapshot.read());
+	}
+
+	@Test
+	public void damagedDataIsNotDecoded() throws Exception {
+		mWriter.publish(round(1));
+
+		/*
+		 * A byte in the data, after the 16 byte header
+		 */
+		mBuffer.put(40, (byte) (mBuffer.get(40) ^ 0x1));
+
+		assertNull(openReader().read());
+	}
+
+	/*
+	 * A reader never sees values from two rounds, and never goes back to an older round
+	 */
+	@Test
+	public void concurrentPublish() throws Exception {
+		final Queue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		final SettingsSnapshot reader = openReader();
+
+		mWriter.publish(round(0));
+
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					int last = 0;
+
+					while (last < ROUNDS) {
+						SettingsData data = reader.read();
+
+						if (data == null) {
+							continue;
+						}
+
+						int value = (Integer) data.get("key_0");
+
+						assertTrue("Went from round " + last + " to " + value, value >= last);
+
+						for (int i = 1; i < KEYS; i++) {
+							assertEquals("Round " + value + " has a value from another round", value, data.get("key_" + i));
+						}
+
+						last = value;
+					}
+
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+
+		thread.start();
+
+		for (int i = 1; i <= ROUNDS; i++) {
+			mWriter.publish(round(i));
+		}
+
+		thread.join(30000);
+
+		assertFalse("The reader did not see the last round", thread.isAlive());
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(ROUNDS * 2 + 2, reader.getSequence());
+		assertNotNull(reader.read());
+	}
+}
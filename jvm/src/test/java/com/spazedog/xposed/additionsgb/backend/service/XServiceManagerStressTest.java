@@ -0,0 +1,210 @@
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import android.os.Bundle;
+
+import com.spazedog.xposed.additionsgb.backend.service.XServiceManager.XServiceBroadcastListener;
+
+/*
+ * The manager cache under load: readers on the input threads, changes arriving from
+ * the service thread, the cache being cleared so that the readers keep going to the shared memory,
+ * and listeners being added and removed while broadcasts are delivered.
+ * No update may be lost, a reader may never see a value older than the last change
+ * delivered to the manager, the generation may never go back, and nothing may throw.
+ * The throughput is printed, run with "gradle test -i" to see it.
+ *
+ * Two cache misses in the same generation can still return different values, as the
+ * service can change between them before the change is delivered. So values are only
+ * compared with the delivered changes, not with earlier reads.
+ */
+public class XServiceManagerStressTest {
+
+	private static final int KEYS = 64;
+	private static final int WRITERS = 2;
+	private static final int READERS = 4;
+	private static final int UPDATES = 1000;
+
+	private final FakeXService mService = new FakeXService();
+	private final Queue<Throwable> mErrors = new ConcurrentLinkedQueue<Throwable>();
+	private final AtomicBoolean mRunning = new AtomicBoolean(true);
+
+	@After
+	public void tearDown() throws Exception {
+		mService.shutdown();
+	}
+
+	private static String key(int i) {
+		/*
+		 * Not one of the prefetched prefixes, so the first reads go to the shared memory
+		 */
+		return "stress_" + i;
+	}
+
+	private Thread start(final CountDownLatch startSignal, final Runnable runnable) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					startSignal.await();
+					runnable.run();
+
+				} catch (Throwable e) {
+					mErrors.add(e);
+				}
+			}
+		};
+
+		thread.start();
+
+		return thread;
+	}
+
+	@Test
+	public void concurrentReadsWritesAndListeners() throws Exception {
+		for (int i = 0; i < KEYS; i++) {
+			mService.putInt(key(i), 0, 0);
+		}
+
+		final XServiceManager manager = mService.connect(null);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong deliveries = new AtomicLong();
+		final AtomicLong registrations = new AtomicLong();
+		final AtomicLong invalidations = new AtomicLong();
+
+		List<Thread> writers = new ArrayList<Thread>();
+		List<Thread> others = new ArrayList<Thread>();
+
+		for (int w = 0; w < WRITERS; w++) {
+			final int first = w;
+
+			writers.add(start(startSignal, new Runnable() {
+				@Override
+				public void run() {
+					for (int value = 1; value <= UPDATES; value++) {
+						for (int i = first; i < KEYS; i += WRITERS) {
+							manager.putInt(key(i), value);
+						}
+					}
+				}
+			}));
+		}
+
+		for (int r = 0; r < READERS; r++) {
+			others.add(start(startSignal, new Runnable() {
+				@Override
+				public void run() {
+					int lastGeneration = 0;
+					long count = 0;
+
+					while (mRunning.get()) {
+						for (int i = 0; i < KEYS; i++) {
+							int generation = manager.getGeneration();
+							Integer delivered = (Integer) mService.getDelivered(key(i));
+							int value = manager.getInt(key(i), -1);
+
+							if (delivered != null && value < delivered) {
+								throw new AssertionError("Value " + value + " of " + key(i) + " is older than the delivered " + delivered);
+
+							} else if (generation < lastGeneration) {
+								throw new AssertionError("Generation went from " + lastGeneration + " to " + generation);
+							}
+
+							lastGeneration = generation;
+							count++;
+						}
+					}
+
+					reads.addAndGet(count);
+				}
+			}));
+		}
+
+		others.add(start(startSignal, new Runnable() {
+			@Override
+			public void run() {
+				XServiceBroadcastListener listener = new XServiceBroadcastListener() {
+					@Override
+					public void onBroadcastReceive(String action, Bundle data) {
+						deliveries.incrementAndGet();
+					}
+				};
+
+				while (mRunning.get()) {
+					manager.addBroadcastListener(listener);
+					manager.sendBroadcast("stress", null);
+					manager.removeBroadcastListener(listener);
+
+					registrations.incrementAndGet();
+				}
+			}
+		}));
+
+		others.add(start(startSignal, new Runnable() {
+			@Override
+			public void run() {
+				while (mRunning.get()) {
+					mService.invalidate();
+					invalidations.incrementAndGet();
+
+					try {
+						Thread.sleep(1);
+
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}));
+
+		long start = System.nanoTime();
+
+		startSignal.countDown();
+
+		for (Thread thread : writers) {
+			thread.join();
+		}
+
+		long time = System.nanoTime() - start;
+
+		mRunning.set(false);
+
+		for (Thread thread : others) {
+			thread.join();
+		}
+
+		mService.drain();
+
+		for (Throwable e : mErrors) {
+			throw new AssertionError(e);
+		}
+
+		for (int i = 0; i < KEYS; i++) {
+			assertEquals(key(i), UPDATES, (int) manager.getInt(key(i), -1));
+		}
+
+		/*
+		 * Every write and every invalidation is reported as one change
+		 */
+		assertEquals(KEYS * UPDATES + invalidations.get(), manager.getGeneration());
+		assertTrue(reads.get() > 0);
+
+		double seconds = time / 1e9;
+
+		System.out.println(String.format("XServiceManager: %.0f reads/s, %.0f writes/s, %.0f registrations/s, %d broadcasts delivered, %d invalidations",
+				reads.get() / seconds, KEYS * UPDATES / seconds, registrations.get() / seconds, deliveries.get(), invalidations.get()));
+	}
+}
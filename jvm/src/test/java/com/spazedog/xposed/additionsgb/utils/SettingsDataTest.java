@@ -0,0 +1,416 @@
+package com.spazedog.xposed.additionsgb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.os.Parcel;
+
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.Type;
+
+public class SettingsDataTest {
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+		SettingsData data = createData(50);
+		SettingsData copy = readBinary(writeBinary(data));
+
+		/*
+		 * Only persistent values are written, and they are all persistent when read back
+		 */
+		assertEquals(persistentKeys(data), copy.keySet());
+
+		for (String key : copy.keySet()) {
+			assertEquals(key, data.get(key), copy.get(key));
+			assertTrue(key, copy.persistent(key));
+		}
+
+		assertEquals(new HashSet<String>(data.groupKeys("key_25", null)), new HashSet<String>(copy.groupKeys("key_25", null)));
+		assertEquals(new HashSet<String>(data.groupKeys(null, "actions")), new HashSet<String>(copy.groupKeys(null, "actions")));
+	}
+
+	@Test
+	public void binaryLeavesOutUnsupportedValues() throws IOException {
+		SettingsData data = new SettingsData();
+		ArrayList<Object> list = new ArrayList<Object>(Arrays.<Object>asList("a", 1L));
+
+		data.put("long", 1L, true);
+		data.put("list", list, true);
+		data.put("string", "value", true);
+
+		SettingsData copy = readBinary(writeBinary(data));
+
+		assertEquals(new HashSet<String>(Arrays.asList("string")), copy.keySet());
+	}
+
+	@Test
+	public void emptyBinary() throws IOException {
+		SettingsData copy = readBinary(writeBinary(new SettingsData()));
+
+		assertEquals(0, (int) copy.size());
+	}
+
+	@Test
+	public void parcelRoundTrip() {
+		SettingsData data = createData(50);
+		ArrayList<Object> mixed = new ArrayList<Object>(Arrays.<Object>asList("a", 1, null, true));
+
+		data.put("mixed", mixed, true);
+		data.put("integers_with_null", new ArrayList<Integer>(Arrays.asList(1, null, 3)));
+		data.changed(false);
+
+		Parcel parcel = Parcel.obtain();
+		data.writeToParcel(parcel, 0);
+		parcel.setDataPosition(0);
+
+		SettingsData copy = SettingsData.CREATOR.createFromParcel(parcel);
+
+		/*
+		 * Everything is parceled, including the values that are not persistent
+		 */
+		assertEquals(data.keySet(), copy.keySet());
+
+		for (String key : data.keySet()) {
+			assertEquals(key, data.get(key), copy.get(key));
+			assertEquals(key, data.persistent(key), copy.persistent(key));
+			assertEquals(key, data.type(key), copy.type(key));
+		}
+
+		assertFalse(copy.changed());
+		assertEquals(new HashSet<String>(data.groupKeys("key_24", null)), new HashSet<String>(copy.groupKeys("key_24", null)));
+
+		data.changed(true);
+		parcel = Parcel.obtain();
+		data.writeToParcel(parcel, 0);
+		parcel.setDataPosition(0);
+
+		assertTrue(SettingsData.CREATOR.createFromParcel(parcel).changed());
+	}
+
+	/*
+	 * The string table encoding compared to the one that wrote every key and list item in full
+	 */
+	@Test
+	public void parcelSmallerThanFullKeyEncoding() {
+		SettingsData data = createData(50);
+
+		Parcel parcel = Parcel.obtain();
+		data.writeToParcel(parcel, 0);
+		int size = parcel.dataSize();
+
+		parcel = Parcel.obtain();
+		writeFullKeyParcel(data, parcel);
+		int fullKeySize = parcel.dataSize();
+
+		System.out.println("Parcel with 50 keys: " + size + " bytes, " + fullKeySize + " bytes with full keys");
+
+		assertTrue(size * 3 < fullKeySize * 2);
+	}
+
+	@Test
+	public void sharedPreferenceMigration() throws IOException {
+		Map<String, Object> packed = new HashMap<String, Object>();
+
+		/*
+		 * Schema 2 keys
+		 */
+		packed.put("@2|" + Type.STRING + "|name", "value");
+		packed.put("@2|" + Type.INTEGER + "|count", "5");
+		packed.put("@2|" + Type.BOOLEAN + "|enabled", "1");
+		packed.put("@2|" + Type.LIST + "|" + Type.STRING + "#1,3|key#actions", "b");
+		packed.put("@2|" + Type.LIST + "|" + Type.STRING + "#0,3|key#actions", "a");
+		packed.put("@2|" + Type.LIST + "|" + Type.NULL + "#2,3|key#actions", "");
+		packed.put("@2|" + Type.LIST + "|" + Type.INTEGER + "#0,1|codes", 24);
+
+		/*
+		 * Schema 1 keys
+		 */
+		packed.put("#2:legacy", "second");
+		packed.put("#1:legacy", "first");
+		packed.put("old", "@null");
+
+		SettingsData data = readBinary(writeBinary(new SettingsData(packed)));
+
+		assertEquals("value", data.getString("name"));
+		assertEquals(5, (int) data.getInteger("count"));
+		assertTrue(data.getBoolean("enabled"));
+		assertEquals(Arrays.asList("a", "b", null), data.getStringList("key#actions"));
+		assertEquals(Arrays.asList(24), data.getIntegerList("codes"));
+		assertEquals(Arrays.asList("first", "second"), data.getStringList("legacy"));
+		assertTrue(data.contains("old"));
+		assertNull(data.get("old"));
+		assertEquals(Arrays.asList("key#actions"), data.groupKeys("key", null));
+	}
+
+	@Test
+	public void groupKeysWithSeveralSeparators() {
+		SettingsData data = new SettingsData();
+		String[] keys = {"a#b#c", "a#b", "a#c", "b#c", "a##c", "#c", "a#", "abc", "x#a#b#c"};
+
+		for (String key : keys) {
+			data.put(key, key, true);
+		}
+
+		data.put("a#x#c", "removed");
+		data.remove("a#x#c");
+
+		String[] parts = {"a", "b", "c", "a#b", "b#c", "a#b#c", "", "#c", "x", "x#a"};
+
+		for (String group : parts) {
+			for (String name : parts) {
+				assertEquals(group + "#" + name, matchGroup(keys, group, name), new HashSet<String>(data.groupKeys(group, name)));
+			}
+
+			assertEquals(group + "#", matchGroup(keys, group, null), new HashSet<String>(data.groupKeys(group, null)));
+			assertEquals("#" + group, matchGroup(keys, null, group), new HashSet<String>(data.groupKeys(null, group)));
+		}
+	}
+
+	/*
+	 * The binary file compared to the shared preference file that schema 2 wrote for the same values
+	 */
+	@Test
+	public void binarySmallerThanSharedPreferences() throws IOException {
+		SettingsData data = createData(50);
+		int binarySize = writeBinary(data).length;
+		int xmlSize = writeSharedPreferences(data).getBytes("UTF-8").length;
+
+		System.out.println("Preference file with 50 keys: " + binarySize + " bytes binary, " + xmlSize + " bytes as schema 2 shared preferences");
+
+		assertTrue(binarySize * 3 < xmlSize);
+	}
+
+	@Test
+	public void wrongMagicOrVersion() throws IOException {
+		byte[] bytes = writeBinary(createData(5));
+
+		byte[] magic = bytes.clone();
+		magic[0] ^= 1;
+		assertUnreadable(magic);
+
+		byte[] version = bytes.clone();
+		version[7] = 2;
+		assertUnreadable(version);
+
+		assertUnreadable("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>".getBytes("UTF-8"));
+	}
+
+	@Test
+	public void truncatedFile() throws IOException {
+		byte[] bytes = writeBinary(createData(20));
+
+		for (int length = 0; length < bytes.length; length++) {
+			assertUnreadable(Arrays.copyOf(bytes, length));
+		}
+	}
+
+	/*
+	 * A damaged file must either be read or fail with an IOException,
+	 * so that it is moved aside instead of crashing the service.
+	 */
+	@Test
+	public void corruptFile() throws IOException {
+		byte[] bytes = writeBinary(createData(20));
+		Random random = new Random(20151004);
+
+		for (int run = 0; run < 20000; run++) {
+			byte[] corrupt = bytes.clone();
+			int changes = 1 + random.nextInt(4);
+
+			for (int i = 0; i < changes; i++) {
+				int pos = 8 + random.nextInt(corrupt.length - 8);
+
+				if (random.nextBoolean()) {
+					corrupt[pos] ^= 1 << random.nextInt(8);
+
+				} else {
+					corrupt[pos] = (byte) random.nextInt(256);
+				}
+			}
+
+			try {
+				readBinary(corrupt);
+
+			} catch (IOException e) {
+				/*
+				 * Expected for most changes
+				 */
+			}
+		}
+	}
+
+	private static SettingsData createData(int keys) {
+		SettingsData data = new SettingsData();
+
+		data.put("version", 3, true);
+		data.put("enabled", true, true);
+		data.put("disabled", false, true);
+		data.put("empty", null, true);
+		data.put("name", "Xposed Additions", true);
+		data.put("runtime", "not persistent");
+
+		for (int i = 0; i < keys; i++) {
+			String group = "key_" + (24 + i);
+
+			data.put(group + "#actions", new ArrayList<String>(Arrays.asList("dispatch:" + i, null, "launcher", "")), true);
+			data.put(group + "#conditions", new ArrayList<String>(Arrays.asList("on", "off", "guard")), true);
+			data.put(group + "#codes", new ArrayList<Integer>(Arrays.asList(24 + i, 0, -1)), true);
+			data.put(group + "#enabled", i % 2 == 0, i % 3 != 0);
+		}
+
+		data.put("empty_list", new ArrayList<String>(), true);
+
+		return data;
+	}
+
+	/*
+	 * The matching that XServiceManager.removeGroup() used before the group index
+	 */
+	private static HashSet<String> matchGroup(String[] keys, String group, String name) {
+		HashSet<String> matches = new HashSet<String>();
+
+		for (String key : keys) {
+			if ((group != null && name != null && key.equals(group + "#" + name)) ||
+					(name == null && key.startsWith(group + "#")) ||
+					(group == null && key.endsWith("#" + name))) {
+
+				matches.add(key);
+			}
+		}
+
+		return matches;
+	}
+
+	/*
+	 * The parcel encoding that SettingsData used before the string table
+	 */
+	private static void writeFullKeyParcel(SettingsData data, Parcel out) {
+		out.writeInt(data.size());
+
+		for (String key : data.keySet()) {
+			Object value = data.get(key);
+			int type = Type.getType(value);
+
+			out.writeInt(type);
+			out.writeString(key);
+
+			if (type == Type.LIST) {
+				out.writeList((ArrayList<?>) value);
+
+			} else if (type == Type.BOOLEAN) {
+				out.writeInt((Boolean) value ? 1 : 0);
+
+			} else if (type == Type.INTEGER) {
+				out.writeInt((Integer) value);
+
+			} else if (type == Type.STRING) {
+				out.writeString((String) value);
+			}
+		}
+
+		HashSet<String> persistent = persistentKeys(data);
+		out.writeInt(persistent.size());
+
+		for (String key : persistent) {
+			out.writeString(key);
+		}
+
+		out.writeInt(data.changed() ? 1 : 0);
+	}
+
+	/*
+	 * The shared preference XML for the values, using the schema 2 keys of the removed SettingsData.getPreferenceMap()
+	 */
+	private static String writeSharedPreferences(SettingsData data) {
+		StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+
+		for (String key : data.keySet()) {
+			if (data.persistent(key)) {
+				Object value = data.get(key);
+				int type = Type.getType(value);
+				String packKey = "@2|" + type + "|";
+
+				if (type == Type.LIST) {
+					ArrayList<?> list = (ArrayList<?>) value;
+
+					for (int i = 0; i < list.size(); i++) {
+						Object listValue = list.get(i);
+
+						writeXmlString(xml, packKey + Type.getType(listValue) + "#" + i + "," + list.size() + "|" + key, listValue == null ? "" : listValue.toString());
+					}
+
+				} else if (type == Type.BOOLEAN) {
+					writeXmlString(xml, packKey + key, (Boolean) value ? "1" : "0");
+
+				} else {
+					writeXmlString(xml, packKey + key, value == null ? "" : value.toString());
+				}
+			}
+		}
+
+		return xml.append("</map>\n").toString();
+	}
+
+	private static void writeXmlString(StringBuilder xml, String name, String value) {
+		xml.append("    <string name=\"").append(escapeXml(name)).append("\">").append(escapeXml(value)).append("</string>\n");
+	}
+
+	private static String escapeXml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	private static HashSet<String> persistentKeys(SettingsData data) {
+		HashSet<String> keys = new HashSet<String>();
+
+		for (String key : data.keySet()) {
+			if (data.persistent(key)) {
+				keys.add(key);
+			}
+		}
+
+		return keys;
+	}
+
+	private static byte[] writeBinary(SettingsData data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		data.writeToStream(out);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	private static SettingsData readBinary(byte[] bytes) throws IOException {
+		return new SettingsData(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	private static void assertUnreadable(byte[] bytes) {
+		try {
+			readBinary(bytes);
+			fail("Read " + bytes.length + " bytes without an error");
+
+		} catch (IOException e) {
+			/*
+			 * Expected
+			 */
+		}
+	}
+}
@@ -187,8 +187,15 @@ public class ActivityScreenRemapKey extends PreferenceActivity implements OnPref
 			String tag = (String) ((IWidgetPreference) preference).getTag();
 			
 			mKeyConditions.remove(tag);
-			mPreferences.putStringArrayGroup(Settings.REMAP_KEY_LIST_CONDITIONS, mKey, mKeyConditions, true);
-			mPreferences.removeGroup(Settings.REMAP_KEY_LIST_ACTIONS.get(tag), mKey);
+			mPreferences.beginBatch();
+			
+			try {
+				mPreferences.putStringArrayGroup(Settings.REMAP_KEY_LIST_CONDITIONS, mKey, mKeyConditions, true);
+				mPreferences.removeGroup(Settings.REMAP_KEY_LIST_ACTIONS.get(tag), mKey);
+				
+			} finally {
+				mPreferences.commitBatch();
+			}
 			
 			((PreferenceCategory) findPreference("conditions_group")).removePreference(preference);
 		}
@@ -209,15 +209,22 @@ public class ActivityScreenRemapMain extends PreferenceActivity implements OnPre
 			String key = (String) ((IWidgetPreference) preference).getTag();
 			
 			mKeyList.remove(key);
-			mPreferences.putStringArray(Settings.REMAP_LIST_KEYS, mKeyList, true);
-			mPreferences.removeGroup(null, key);
+			mPreferences.beginBatch();
 			
-			if (key.endsWith(":0")) {
-				String keyCode = key.substring(0, key.indexOf(":"));
-				ArrayList<String> forcedKeys = (ArrayList<String>) mPreferences.getStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, new ArrayList<String>());
+			try {
+				mPreferences.putStringArray(Settings.REMAP_LIST_KEYS, mKeyList, true);
+				mPreferences.removeGroup(null, key);
 				
-				forcedKeys.remove(keyCode);
-				mPreferences.putStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, forcedKeys, true);
+				if (key.endsWith(":0")) {
+					String keyCode = key.substring(0, key.indexOf(":"));
+					ArrayList<String> forcedKeys = (ArrayList<String>) mPreferences.getStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, new ArrayList<String>());
+					
+					forcedKeys.remove(keyCode);
+					mPreferences.putStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, forcedKeys, true);
+				}
+				
+			} finally {
+				mPreferences.commitBatch();
 			}
 			
 			((PreferenceCategory) findPreference("keys_group")).removePreference(preference);
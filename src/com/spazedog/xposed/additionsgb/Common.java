@@ -23,9 +23,11 @@ import java.io.File;
 import java.lang.ref.WeakReference;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import android.annotation.SuppressLint;
 import android.app.ProgressDialog;
@@ -78,6 +80,8 @@ public final class Common {
 		public static final File STORED = new File(Environment.getDataDirectory(), "data/" + PACKAGE_NAME + "/cache/error.stored.log");
 	}
 
+    private static final Pattern KEYCODE_PATTERN = Pattern.compile("^[0-9]+$");
+
     public static String[] actionParse(String action) {
         return actionParse(null, action);
     }
@@ -88,7 +92,7 @@ public final class Common {
         //type, action, display name
         String[] result = {null, null, null};
         if (action != null) {
-            if (action.matches("^[0-9]+$")) {
+            if (KEYCODE_PATTERN.matcher(action).matches()) {
                 result[0] = "dispatch";
                 result[1] = action;
                 result[2] = keyToString( Integer.parseInt(action) );
@@ -493,6 +497,11 @@ public final class Common {
 		}
 	}
 	
+	/*
+	 * Only subscribe to the debug setting, the process might not need any other preferences
+	 */
+	private static final List<String> DEBUG_TOPICS = Arrays.asList(Settings.DEBUG_ENABLE_LOGGING);
+	
 	public static Boolean debug() {
 		if (ENABLE_DEBUG == null) {
 			/*
@@ -500,7 +509,7 @@ public final class Common {
 			 */
 			ENABLE_DEBUG = false;
 			
-			XServiceManager preferences = XServiceManager.getInstance();
+			XServiceManager preferences = XServiceManager.getInstance(DEBUG_TOPICS);
 			
 			if (preferences != null && preferences.isServiceReady()) {
 				ENABLE_DEBUG = preferences.getBoolean(Settings.DEBUG_ENABLE_LOGGING);
@@ -19,13 +19,24 @@
  
 package com.spazedog.xposed.additionsgb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.RemoteException;
@@ -36,67 +47,325 @@ import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
 public class ServicePreferences extends Service {
 	public static final String TAG = ServicePreferences.class.getName();
 	
+	private static final long WRITE_TIMEOUT = 5000;
+	
 	/*
 	 * SELinux in Lollipop+ has restricted the access to applications shared preference files. 
 	 * So much that the system process itself no longer has access, regardless of the file permissions. 
 	 * To get around this we use this service that the module service can connect to when it needs 
 	 * to read/write preferences. 
 	 * 
-	 * This service is only meant to be used by the SettingsService and it will reject 
-	 * any other caller. 
+	 * The preferences are stored in a single binary file (schema 3, see SettingsData.writeToStream()) 
+	 * in the files directory. It is written to a temporary file and renamed, so it is replaced as a whole. 
+	 * When there is no binary file yet, the values from the schema 1 or 2 shared preference file 
+	 * are migrated into it, and the shared preference file is cleared once the new file is written. 
+	 * A binary file that cannot be read is moved to a ".bad" file so it can be recovered, 
+	 * and the next write from the system process contains all of the preferences. 
+	 * 
+	 * Only the system process (uid 1000), where the XService runs, is allowed to call this service. 
 	 */
 	
 	private IBinder mBinder = new IServicePreferences.Stub() {
 		@Override
 		public void writeSettingsData(SettingsData data) throws RemoteException {
 			if (Binder.getCallingUid() == 1000) {
-				if(Common.debug()) Log.d(TAG, "Writing preferences to shared preference file");
+				if(Common.debug()) Log.d(TAG, "Writing preferences to the preference file");
 				
 				if (data.changed()) {
-					SharedPreferences preferences = getSharedPreferences(Common.PREFERENCE_FILE, Context.MODE_PRIVATE);
-					Editor editor = preferences.edit();
-					Map<String, ?> packedData = data.getPreferenceMap();
+					synchronized (ServicePreferences.this) {
+						mCurrent = data;
+					}
 					
-					editor.clear();
+					scheduleWrite();
+				}
+				
+			} else {
+				if(Common.debug()) Log.d(TAG, "Invalid caller '" + Binder.getCallingUid() + "' tried to access preferences from outside the SettingsService");
+			}
+		}
+		
+		/*
+		 * Only replace the stored values for the keys that has changed. 
+		 * Keys without a value in the data are removed. 
+		 * 
+		 * Returns false if the stored preferences could not be read, in which case 
+		 * nothing is written and the caller should send all of the preferences instead. 
+		 */
+		@Override
+		public boolean writeSettingsDelta(SettingsData data, List<String> keys) throws RemoteException {
+			if (Binder.getCallingUid() == 1000) {
+				if(Common.debug()) Log.d(TAG, "Writing " + keys.size() + " changed preferences to the preference file");
+				
+				synchronized (ServicePreferences.this) {
+					SettingsData current;
 					
-					for (String key : packedData.keySet()) {
-						Object value = packedData.get(key);
+					try {
+						current = getCurrent();
 						
-						if (value != null && value instanceof String) {
-							editor.putString(key, (String) value);
-						}
+					} catch (IOException e) {
+						Log.e(TAG, "The preference file could not be read, the changes are not written", e);
+						
+						return false;
 					}
 					
-					editor.commit();
+					for (String key : keys) {
+						if (data.contains(key)) {
+							current.put(key, data.get(key), true);
+							
+						} else {
+							current.remove(key);
+						}
+					}
 				}
 				
+				scheduleWrite();
+				
+				return true;
+				
 			} else {
 				if(Common.debug()) Log.d(TAG, "Invalid caller '" + Binder.getCallingUid() + "' tried to access preferences from outside the SettingsService");
 			}
+			
+			return false;
 		}
 
+		/*
+		 * Returns null if the preference file exists but could not be read
+		 */
 		@Override
 		public SettingsData readSettingsData() throws RemoteException {
 			if (Binder.getCallingUid() == 1000) {
-				if(Common.debug()) Log.d(TAG, "Reading preferences from shared preference file");
+				if(Common.debug()) Log.d(TAG, "Reading preferences from the preference file");
 				
-				SharedPreferences preferences = getSharedPreferences(Common.PREFERENCE_FILE, Context.MODE_PRIVATE);
-				Map<String, ?> packedData = null;
+				synchronized (ServicePreferences.this) {
+					try {
+						return getCurrent();
+						
+					} catch (IOException e) {
+						Log.e(TAG, "The preference file could not be read", e);
+					}
+				}
 				
+			} else {
+				if(Common.debug()) Log.d(TAG, "Invalid caller '" + Binder.getCallingUid() + "' tried to access preferences from outside the SettingsService");
+			}
+			
+			return null;
+		}
+		
+		/*
+		 * Wait until the scheduled writes are done
+		 */
+		@Override
+		public void flush() throws RemoteException {
+			if (Binder.getCallingUid() == 1000) {
 				try {
-					packedData = preferences.getAll();
+					mWriter.submit(new Runnable() {
+						@Override
+						public void run() {}
+						
+					}).get(WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
 					
-				} catch (NullPointerException e) {}
-				
-				return packedData != null ? new SettingsData(packedData) : new SettingsData();
+				} catch (Exception e) {
+					Log.e(TAG, e.getMessage(), e);
+				}
 				
 			} else {
 				if(Common.debug()) Log.d(TAG, "Invalid caller '" + Binder.getCallingUid() + "' tried to access preferences from outside the SettingsService");
 			}
+		}
+	};
+	
+	/*
+	 * The preferences as they will be once the pending writes are done, 
+	 * null until the file has been read by this process. 
+	 */
+	private SettingsData mCurrent;
+	
+	/*
+	 * The file is written on a separate thread, so the binder calls from the system process 
+	 * do not wait for the disk. Only the first delta in a new process reads the file while the caller waits. 
+	 * Writes that are scheduled before the previous one has started are combined into one. 
+	 */
+	private ExecutorService mWriter;
+	private boolean mWritePending = false;
+	
+	private int mWriteCount = 0;
+	private long mWriteBytes = 0;
+	
+	private final Runnable mWriteRunnable = new Runnable() {
+		@Override
+		public void run() {
+			SettingsData data;
 			
-			return null;
+			synchronized (ServicePreferences.this) {
+				mWritePending = false;
+				data = mCurrent;
+			}
+			
+			if (data != null) {
+				writeFile(data);
+			}
 		}
 	};
+	
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		
+		mWriter = Executors.newSingleThreadExecutor();
+	}
+	
+	/*
+	 * Let the pending writes finish before the service is gone
+	 */
+	@Override
+	public void onDestroy() {
+		mWriter.shutdown();
+		
+		try {
+			if (!mWriter.awaitTermination(WRITE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				Log.e(TAG, "The preference file was still being written when the service was destroyed");
+			}
+			
+		} catch (InterruptedException e) {}
+		
+		super.onDestroy();
+	}
+	
+	private void scheduleWrite() {
+		synchronized (this) {
+			if (mWritePending) {
+				return;
+			}
+			
+			mWritePending = true;
+		}
+		
+		mWriter.execute(mWriteRunnable);
+	}
+	
+	private synchronized SettingsData getCurrent() throws IOException {
+		if (mCurrent == null) {
+			mCurrent = readFile();
+		}
+		
+		return mCurrent;
+	}
+	
+	private File getPreferenceFile() {
+		return new File(getFilesDir(), Common.PREFERENCE_FILE + ".bin");
+	}
+	
+	/*
+	 * Read the binary preference file. If it does not exist yet, 
+	 * the preferences are migrated from the old shared preference file. 
+	 * 
+	 * A file that cannot be read is moved to a ".bad" file, so that it is never 
+	 * replaced by a partial set of preferences and can still be recovered. 
+	 */
+	private SettingsData readFile() throws IOException {
+		File file = getPreferenceFile();
+		
+		if (file.exists()) {
+			DataInputStream in = null;
+			
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				
+				return new SettingsData(in);
+				
+			} catch (IOException e) {
+				File badFile = new File(file.getPath() + ".bad");
+				
+				if (file.renameTo(badFile)) {
+					Log.e(TAG, "Moved the unreadable preference file to " + badFile.getName());
+				}
+				
+				throw e;
+				
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+						
+					} catch (IOException e) {}
+				}
+			}
+		}
+		
+		SharedPreferences preferences = getSharedPreferences(Common.PREFERENCE_FILE, Context.MODE_PRIVATE);
+		Map<String, ?> packedData = null;
+		
+		try {
+			packedData = preferences.getAll();
+			
+		} catch (NullPointerException e) {}
+		
+		if (packedData != null && packedData.size() > 0) {
+			SettingsData data = new SettingsData(packedData);
+			
+			if(Common.debug()) Log.d(TAG, "Migrating " + data.size() + " preferences from the shared preference file");
+			
+			if (writeFile(data)) {
+				preferences.edit().clear().commit();
+			}
+			
+			return data;
+		}
+		
+		return new SettingsData();
+	}
+	
+	/*
+	 * Write the file to a temporary file first and then replace the old one, 
+	 * so that an interrupted write does not leave a broken file. 
+	 * 
+	 * This does not hold the service lock, so the binder calls are not blocked while the file is synced. 
+	 * The file is only read before mCurrent is set, and only written after, so the two never overlap. 
+	 */
+	private boolean writeFile(SettingsData data) {
+		File file = getPreferenceFile();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = null;
+		
+		try {
+			stream = new FileOutputStream(tmpFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			
+			data.writeToStream(out);
+			out.flush();
+			stream.getFD().sync();
+			out.close();
+			stream = null;
+			
+			if (tmpFile.renameTo(file)) {
+				mWriteCount++;
+				mWriteBytes += out.size();
+				
+				if(Common.debug()) Log.d(TAG, "Wrote " + out.size() + " bytes to the preference file (" + mWriteCount + " writes, " + mWriteBytes + " bytes in total)");
+				
+				return true;
+			}
+			
+			Log.e(TAG, "Could not replace the preference file");
+			
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+			
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+					
+				} catch (IOException e) {}
+			}
+		}
+		
+		tmpFile.delete();
+		
+		return false;
+	}
 
 	@Override
 	public IBinder onBind(Intent intent) {
@@ -20,6 +20,7 @@
 package com.spazedog.xposed.additionsgb.backend;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.Activity;
@@ -39,6 +40,11 @@ import de.robv.android.xposed.XC_MethodHook;
 
 public final class ApplicationLayout {
 	public static final String TAG = ApplicationLayout.class.getName();
+	
+	/*
+	 * The settings are only read once per process, so only the layout preferences are needed
+	 */
+	private static final List<String> TOPICS = Arrays.asList("layout_");
 
 	protected Boolean mConfigureKeyguard = true;
 	protected Boolean mKeyguardOverwriteRotation = false;
@@ -76,7 +82,7 @@ public final class ApplicationLayout {
 		protected final void beforeHookedMethod(final MethodHookParam param) {
 			if (param.args.length > 0 && "lockscreen.rot_override".equals(param.args[0])) {
 				if (mConfigureKeyguard) {
-					XServiceManager preferences = XServiceManager.getInstance();
+					XServiceManager preferences = XServiceManager.getInstance(TOPICS);
 
 					if (preferences != null) {
 						mConfigureKeyguard = false;
@@ -106,7 +112,7 @@ public final class ApplicationLayout {
 			 * for each new process we need a new setup.
 			 */
 			if (mGetSettings) {
-				XServiceManager preferences = XServiceManager.getInstance();
+				XServiceManager preferences = XServiceManager.getInstance(TOPICS);
 
 				if (preferences != null) {
 					mGetSettings = false;
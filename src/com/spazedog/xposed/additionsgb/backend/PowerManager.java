@@ -19,6 +19,8 @@
 
 package com.spazedog.xposed.additionsgb.backend;
 
+import java.util.Arrays;
+
 import android.content.Context;
 import android.os.BatteryManager;
 import android.util.Log;
@@ -99,7 +101,7 @@ public final class PowerManager {
 				
 				mContext = (Context) mPowerManager.findField("mContext").getValue();
 				
-				mPreferences = XServiceManager.getInstance();
+				mPreferences = XServiceManager.getInstance(Arrays.asList("usb_"));
 				
 				if (mPreferences == null) {
 					throw new ReflectException("XService has not been started", null);
@@ -39,6 +39,7 @@ import com.spazedog.lib.reflecttools.ReflectMethod;
 import com.spazedog.lib.reflecttools.utils.ReflectConstants.Match;
 import com.spazedog.xposed.additionsgb.Common;
 import com.spazedog.xposed.additionsgb.backend.pwm.PhoneWindowManager;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ProbeCache;
 import com.spazedog.xposed.additionsgb.backend.service.XService;
 
 import de.robv.android.xposed.IXposedHookLoadPackage;
@@ -52,6 +53,7 @@ public final class XposedInjector implements IXposedHookZygoteInit, IXposedHookL
 	@Override
 	public void initZygote(IXposedHookZygoteInit.StartupParam startupParam) throws Throwable {
 		LogcatMonitor.init();
+		ProbeCache.setModulePath(startupParam.modulePath);
 
 		XService.init();
 		ApplicationLayout.init();
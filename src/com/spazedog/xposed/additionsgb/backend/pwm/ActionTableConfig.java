@@ -0,0 +1,113 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+import com.spazedog.xposed.additionsgb.backend.service.XServiceManager;
+
+/*
+ * The KeyGestureEngine configuration, read from a KeyActionTable that is rebuilt
+ * when the service or the action registry reports changes. The framework parts,
+ * like the foreground application and the key flags, are left to the subclass.
+ */
+abstract class ActionTableConfig implements KeyGestureEngine.Config<ParsedAction> {
+
+	private final XServiceManager mPreferences;
+	private final ActionRegistry mActionRegistry;
+
+	//Pre-processed configuration, rebuilt when the service reports changes
+	private volatile KeyActionTable mActionTable;
+	private int mActionTableGeneration;
+	private int mActionRegistryGeneration;
+
+	//The application condition of the last looked up event
+	private String mAppCondition;
+
+	ActionTableConfig(XServiceManager preferences, ActionRegistry registry) {
+		mPreferences = preferences;
+		mActionRegistry = registry;
+	}
+
+	/*
+	 * The condition for the application in front while the screen is on, like "guard" while
+	 * the keyguard is showing or the package name, null for none
+	 */
+	protected abstract String getAppCondition(boolean extended);
+
+	synchronized KeyActionTable getActionTable() {
+		int generation = mPreferences.getGeneration();
+		int registryGeneration = mActionRegistry.getGeneration();
+		boolean extended = mPreferences.isPackageUnlocked();
+
+		if (mActionTable == null || mActionTableGeneration != generation || mActionRegistryGeneration != registryGeneration
+				|| mActionTable.isExtended() != extended) {
+			mActionTable = KeyActionTable.build(mPreferences, mActionRegistry, extended);
+			mActionTableGeneration = generation;
+			mActionRegistryGeneration = registryGeneration;
+		}
+
+		return mActionTable;
+	}
+
+	int getHardResetTimeout() {
+		return getActionTable().getHardResetTimeout();
+	}
+
+	boolean isForcedHaptic(int keyCode) {
+		return getActionTable().isForcedHaptic(keyCode);
+	}
+
+	@Override
+	public void refresh() {
+		getActionTable();
+	}
+
+	@Override
+	public boolean isExtended() {
+		return mActionTable.isExtended();
+	}
+
+	@Override
+	public int getTapTimeout() {
+		return mActionTable.getTapTimeout();
+	}
+
+	@Override
+	public int getPressTimeout() {
+		return mActionTable.getPressTimeout();
+	}
+
+	@Override
+	public ParsedAction[] getActions(int primCode, int secCode, boolean isScreenOn) {
+		KeyActionTable table = mActionTable;
+		boolean extended = table.isExtended();
+		KeyActionTable.KeyConfig config = table.get(primCode, secCode);
+		ParsedAction[] keyActions = null;
+
+		mAppCondition = isScreenOn ? getAppCondition(extended) : null;
+
+		if (config != null) {
+			if (mAppCondition != null && extended) {
+				keyActions = config.getActions(mAppCondition);
+			}
+
+			if (keyActions == null) {
+				keyActions = config.getActions(isScreenOn ? "on" : "off");
+			}
+		}
+
+		return keyActions;
+	}
+
+	@Override
+	public boolean hasComboCondition(int primCode, boolean isScreenOn) {
+		KeyActionTable table = mActionTable;
+
+		return table.hasComboCondition(primCode, table.isExtended() ? mAppCondition : null, isScreenOn ? "on" : "off");
+	}
+
+	@Override
+	public boolean isCallButton(int primCode, int secCode) {
+		KeyActionTable.KeyConfig config = mActionTable.get(primCode, secCode);
+
+		return config != null && config.isCallButton();
+	}
+}
@@ -1,34 +1,32 @@
 package com.spazedog.xposed.additionsgb.backend.pwm;
 
-import android.view.KeyEvent;
-
 public class EventKey {
-	
+
 	public static final int FLAG_CUSTOM = 4096;
-	
-	private Long mDownTime;
-	private Integer mKeyCode;
+
+	private int mKeyCode = 0;
 	public static enum PressStates { DOWN, UP }
 
-    private KeyEvent mKeyEvent = null; //Original KeyEvent, used as status
-    private Integer mFlags;
+    private boolean mUsed = false;
+    private int mFlags;
     private PressStates mDevicePressState;
 
-    void initiateInstance(KeyEvent keyEvent, Integer flags) {
-        mKeyEvent = new KeyEvent(keyEvent);
+    void initiateInstance(int keyCode, int flags) {
+        mUsed = true;
+        mKeyCode = keyCode;
         mFlags = flags;
         mDevicePressState = PressStates.DOWN;
-		
+
 		/*
-		 * This will allow us to distinguish between our injected keys and 
-		 * others like from the software navigation bar. 
+		 * This will allow us to distinguish between our injected keys and
+		 * others like from the software navigation bar.
 		 */
 		if ((flags & FLAG_CUSTOM) == 0) {
 			mFlags |= FLAG_CUSTOM;
+		}
 	}
-	}
-	
-	void setKetPressDevice(Boolean pressed) {
+
+	void setKetPressDevice(boolean pressed) {
 		if (pressed) {
             mDevicePressState = PressStates.DOWN;
         } else {
@@ -36,23 +34,22 @@ public class EventKey {
         }
 	}
 
-    public KeyEvent getKeyEvent() { return mKeyEvent; }
-
-	public Integer getCode() {
-		return mKeyEvent == null ? 0 : mKeyEvent.getKeyCode();
+	public int getCode() {
+		return mKeyCode;
 	}
 
-    public Integer getFlags(){ return mFlags; }
+    public int getFlags(){ return mFlags; }
 
-    public Boolean isPressed() {
+    public boolean isPressed() {
         return (mDevicePressState == PressStates.DOWN);
     }
 
     public void setUnused(){
-        mKeyEvent = null;
+        mUsed = false;
+        mKeyCode = 0;
     }
 
-    public Boolean isUsed() {
-        return mKeyEvent != null;
+    public boolean isUsed() {
+        return mUsed;
     }
 }
@@ -0,0 +1,336 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+import android.view.ViewConfiguration;
+
+import com.spazedog.xposed.additionsgb.Common;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+import com.spazedog.xposed.additionsgb.backend.service.XServiceManager;
+import com.spazedog.xposed.additionsgb.configs.Settings;
+
+/*
+ * An immutable, pre-processed copy of the remap configuration.
+ * It is built once when the settings change, so that looking up the actions
+ * for a new key event does not need any string building or list copying.
+ */
+final class KeyActionTable {
+	private static final String TAG = KeyActionTable.class.getName();
+
+	//Order the actions to the order they occur (by click/repeat):
+	//long press before click, single before double
+	private static final int[] ACTION_LOCATIONS = new int[]{2,0,3,1,5,4};
+
+	//A press and a click action for each of the three taps
+	static final int MAX_ACTIONS = ACTION_LOCATIONS.length;
+
+	private static final String[] DEFAULT_CONDITIONS = new String[]{"on", "off", "guard"};
+
+	static final class KeyConfig {
+		private final Map<String, ParsedAction[]> mActions;
+		private final List<String> mConditions;
+		private final boolean mCallButton;
+
+		private KeyConfig(Map<String, ParsedAction[]> actions, List<String> conditions, boolean callButton) {
+			mActions = actions;
+			mConditions = conditions;
+			mCallButton = callButton;
+		}
+
+		/*
+		 * The actions in the order they appear: press 1, tap 1, press 2, tap 2 etc.
+		 * The returned array is shared and must not be changed.
+		 */
+		ParsedAction[] getActions(String condition) {
+			return mActions.get(condition);
+		}
+
+		boolean hasCondition(String condition) {
+			return mConditions.contains(condition);
+		}
+
+		boolean isCallButton() {
+			return mCallButton;
+		}
+	}
+
+	private static final class Entry {
+		private KeyConfig mSingle;
+		private int[] mComboCodes = new int[0];
+		private KeyConfig[] mCombos = new KeyConfig[0];
+
+		private void addCombo(int secCode, KeyConfig config) {
+			int length = mComboCodes.length;
+			int[] codes = new int[length + 1];
+			KeyConfig[] combos = new KeyConfig[length + 1];
+
+			System.arraycopy(mComboCodes, 0, codes, 0, length);
+			System.arraycopy(mCombos, 0, combos, 0, length);
+
+			codes[length] = secCode;
+			combos[length] = config;
+
+			mComboCodes = codes;
+			mCombos = combos;
+		}
+	}
+
+	private final Entry[] mEntries;
+	private final boolean mExtended;
+	private final int mTapTimeout;
+	private final int mPressTimeout;
+	private final int mHardResetTimeout;
+
+	//Indexed by key code
+	private final boolean[] mForcedHaptic;
+
+	private KeyActionTable(Entry[] entries, boolean extended, int tapTimeout, int pressTimeout, int hardResetTimeout, boolean[] forcedHaptic) {
+		mEntries = entries;
+		mExtended = extended;
+		mTapTimeout = tapTimeout;
+		mPressTimeout = pressTimeout;
+		mHardResetTimeout = hardResetTimeout;
+		mForcedHaptic = forcedHaptic;
+	}
+
+	static KeyActionTable build(XServiceManager preferences, ActionRegistry registry, boolean extended) {
+		Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+		int maxCode = -1;
+
+		for (String configName : preferences.getStringArray(Settings.REMAP_LIST_KEYS, new ArrayList<String>())) {
+			int pos = configName == null ? -1 : configName.indexOf(":");
+
+			if (pos <= 0) {
+				continue;
+			}
+
+			int primCode;
+			int secCode;
+
+			try {
+				primCode = Integer.parseInt(configName.substring(0, pos));
+				secCode = Integer.parseInt(configName.substring(pos+1));
+
+			} catch (NumberFormatException e) {
+				Log.e(TAG, "Invalid key configuration '" + configName + "'", e);
+
+				continue;
+			}
+
+			/*
+			 * Combos are not available on non-pro versions
+			 */
+			if (primCode < 0 || secCode < 0 || (secCode > 0 && !extended)) {
+				continue;
+			}
+
+			Entry entry = entries.get(primCode);
+
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(primCode, entry);
+			}
+
+			KeyConfig config = buildConfig(preferences, registry, configName, extended);
+
+			if (secCode == 0) {
+				entry.mSingle = config;
+
+			} else {
+				entry.addCombo(secCode, config);
+			}
+
+			if (primCode > maxCode) {
+				maxCode = primCode;
+			}
+		}
+
+		Entry[] entryArray = new Entry[maxCode + 1];
+
+		for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+			entryArray[entry.getKey()] = entry.getValue();
+		}
+
+		if (Common.debug()) Log.d(TAG, "Built the action table for " + entries.size() + " keys");
+
+		return new KeyActionTable(entryArray, extended,
+				preferences.getInt(Settings.REMAP_TIMEOUT_DOUBLECLICK, ViewConfiguration.getDoubleTapTimeout()),
+				preferences.getInt(Settings.REMAP_TIMEOUT_LONGPRESS, ViewConfiguration.getLongPressTimeout()),
+				preferences.getInt(Settings.REMAP_TIMEOUT_HARD_RESET, 15000),
+				buildKeySet(preferences.getStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, null)));
+	}
+
+	private static boolean[] buildKeySet(List<String> keys) {
+		List<Integer> keyCodes = new ArrayList<Integer>();
+		int maxCode = -1;
+
+		if (keys != null) {
+			for (String key : keys) {
+				try {
+					int keyCode = Integer.parseInt(key);
+
+					if (keyCode >= 0) {
+						keyCodes.add(keyCode);
+
+						if (keyCode > maxCode) {
+							maxCode = keyCode;
+						}
+					}
+
+				} catch (NumberFormatException e) {
+					Log.e(TAG, "Invalid key code '" + key + "'", e);
+				}
+			}
+		}
+
+		boolean[] keySet = new boolean[maxCode + 1];
+
+		for (int keyCode : keyCodes) {
+			keySet[keyCode] = true;
+		}
+
+		return keySet;
+	}
+
+	private static KeyConfig buildConfig(XServiceManager preferences, ActionRegistry registry, String configName, boolean extended) {
+		List<String> conditions = preferences.getStringArrayGroup(Settings.REMAP_KEY_LIST_CONDITIONS, configName, null);
+		List<String> conditionList = new ArrayList<String>();
+		Map<String, ParsedAction[]> actionMap = new HashMap<String, ParsedAction[]>();
+
+		if (conditions != null) {
+			conditionList.addAll(conditions);
+		}
+
+		List<String> lookups = new ArrayList<String>(conditionList);
+
+		for (String condition : DEFAULT_CONDITIONS) {
+			if (!lookups.contains(condition)) {
+				lookups.add(condition);
+			}
+		}
+
+		List<String> defActions = preferences.getStringArrayGroup(Settings.REMAP_KEY_LIST_ACTIONS.get("on"), configName, null);
+		boolean overrideDefault = preferences.getBooleanGroup(Settings.REMAP_KEY_DEFAULT_CONDITION, configName, false);
+
+		for (String condition : lookups) {
+			List<String> actions = preferences.getStringArrayGroup(Settings.REMAP_KEY_LIST_ACTIONS.get(condition), configName, null);
+
+			if (actions == null) {
+				continue;
+			}
+
+			/*
+			 * Application conditions (including the keyguard) can be overlaid with the screen on actions
+			 */
+			if (overrideDefault && defActions != null && !"on".equals(condition) && !"off".equals(condition)) {
+				actions = new ArrayList<String>(actions);
+
+				for (int i = 0; i < actions.size(); i++) {
+					if (actions.get(i) == null && defActions.size() > i) {
+						actions.set(i, defActions.get(i));
+					}
+				}
+
+				for (int i = actions.size(); i < defActions.size(); i++) {
+					actions.add(defActions.get(i));
+				}
+			}
+
+			actionMap.put(condition, convertConfig(actions, registry, extended));
+		}
+
+		return new KeyConfig(actionMap, conditionList, preferences.getBooleanGroup(Settings.REMAP_KEY_ENABLE_CALLBTN, configName));
+	}
+
+	private static ParsedAction[] convertConfig(List<String> config, ActionRegistry registry, boolean extended) {
+		ParsedAction[] actions = new ParsedAction[MAX_ACTIONS];
+
+		for (int i = 0; i < MAX_ACTIONS; i++) {
+			int x = ACTION_LOCATIONS[i];
+			String action = config.size() > x ? config.get(x) : null;
+
+			if (!extended && action != null) {
+				/*
+				 * Only include Click and Long Press, also excluding Application Launch on non-pro versions
+				 */
+				//No triple, double press
+				if (i >= 2 ||
+						//No program, tasker
+						action.contains(".") || action.startsWith("shortcut:") || action.startsWith("tasker:")) {
+					action = null;
+				}
+			}
+
+			actions[i] = ParsedAction.parse(action, registry);
+		}
+
+		return actions;
+	}
+
+	boolean isExtended() {
+		return mExtended;
+	}
+
+	int getTapTimeout() {
+		return mTapTimeout;
+	}
+
+	int getPressTimeout() {
+		return mPressTimeout;
+	}
+
+	/*
+	 * Time in milliseconds that Power must be held before the device reboots, 0 or less to disable it
+	 */
+	int getHardResetTimeout() {
+		return mHardResetTimeout;
+	}
+
+	/*
+	 * Whether the key always has haptic feedback, also when the device does not mark it as virtual
+	 */
+	boolean isForcedHaptic(int keyCode) {
+		return keyCode >= 0 && keyCode < mForcedHaptic.length && mForcedHaptic[keyCode];
+	}
+
+	KeyConfig get(int primCode, int secCode) {
+		Entry entry = primCode >= 0 && primCode < mEntries.length ? mEntries[primCode] : null;
+
+		if (entry == null) {
+			return null;
+
+		} else if (secCode == 0) {
+			return entry.mSingle;
+		}
+
+		for (int i = 0; i < entry.mComboCodes.length; i++) {
+			if (entry.mComboCodes[i] == secCode) {
+				return entry.mCombos[i];
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Check whether the key is the primary key of a combo that
+	 * is enabled for one of the conditions.
+	 */
+	boolean hasComboCondition(int primCode, String appCondition, String screenCondition) {
+		Entry entry = primCode >= 0 && primCode < mEntries.length ? mEntries[primCode] : null;
+
+		if (entry != null) {
+			for (KeyConfig combo : entry.mCombos) {
+				if ((appCondition != null && combo.hasCondition(appCondition)) || combo.hasCondition(screenCondition)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,806 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+/*
+ * The key gesture state machine: tap counting, combos, long press, long-long press and the
+ * PENDING/ONGOING/REPEATING/INVOKED state of the ongoing event.
+ *
+ * The engine takes the key events as they are queued and dispatched and returns a Decision for each of them.
+ * Keys to inject and actions to invoke are passed to the Output, and the configuration is read from the Config.
+ * The PhoneWindowManager hooks only translate between the framework and the engine.
+ *
+ * This class does not depend on the Android framework or Xposed. All time is taken from a Clock,
+ * so the gesture timing can be driven by a virtual clock outside the device.
+ *
+ * E is the type of the key events that are injected again, A is the type of the configured actions.
+ */
+final class KeyGestureEngine<E, A> {
+
+	public static enum State { PENDING, ONGOING, REPEATING, INVOKED }
+
+	/*
+	 * DEFAULT leaves the event to the original method, ALLOW passes it on and REJECT drops it.
+	 * Injected keys and invoked actions are passed to the Output while the event is handled.
+	 */
+	public static enum Decision { DEFAULT, ALLOW, REJECT }
+
+	/*
+	 * The same values as in android.view.KeyEvent. ACTION_MULTIPLE injects a down followed by an up.
+	 */
+	static final int ACTION_DOWN = 0;
+	static final int ACTION_UP = 1;
+	static final int ACTION_MULTIPLE = 2;
+
+	/*
+	 * Time source for the engine. Times must use the same base as the key event times (uptime on Android).
+	 */
+	static interface Clock {
+		long uptimeMillis();
+
+		/*
+		 * Wait on the monitor for at most the number of milliseconds.
+		 * The caller holds the monitor of the lock.
+		 */
+		void await(Object lock, long millis) throws InterruptedException;
+	}
+
+	/*
+	 * The key configuration. It is only read while the engine holds its lock.
+	 */
+	static interface Config<A> {
+		/*
+		 * Called before the actions for a new event are looked up, so that changed settings are used
+		 */
+		void refresh();
+
+		boolean isExtended();
+		int getTapTimeout();
+		int getPressTimeout();
+		int getRepeatDelay();
+
+		/*
+		 * The actions for a single key (secCode 0) or a combo in the order press 1, tap 1, press 2, tap 2 etc.
+		 * or null if nothing is configured. The array is not changed by the engine.
+		 */
+		A[] getActions(int primCode, int secCode, boolean isScreenOn);
+
+		/*
+		 * Whether the key is the primary key of a combo that is enabled in the current condition
+		 */
+		boolean hasComboCondition(int primCode, boolean isScreenOn);
+
+		boolean isCallButton(int primCode, int secCode);
+
+		/*
+		 * The key code that the action invokes, or 0 if it is not a key action
+		 */
+		int getKeyCode(A action);
+
+		/*
+		 * The policy flags to use when injecting a key for an action
+		 */
+		int getKeyFlags(int keyCode);
+	}
+
+	/*
+	 * The effects of the decisions
+	 */
+	static interface Output<E, A> {
+		/*
+		 * Inject a copy of the queued or dispatched event with another action and repeat count
+		 */
+		void inject(E event, int action, int repeatCount, int flags);
+
+		/*
+		 * Inject a new event for a key that an action is mapped to
+		 */
+		void injectKey(int keyCode, int action, int flags);
+
+		void invoke(A action);
+
+		/*
+		 * The key code of the call button in the current call state, or 0 if there is no call
+		 */
+		int getCallButtonCode();
+
+		/*
+		 * Feedback when a press action has been invoked
+		 */
+		void pressFeedback();
+
+		/*
+		 * Feedback when an injected long press starts repeating
+		 */
+		void repeatFeedback(E event, int flags);
+
+		/*
+		 * Keep the device awake while a new event is handled with the screen off
+		 */
+		void userActivity(long eventTime);
+
+		boolean isDebug();
+		void debug(String message);
+	}
+
+	private static final int KEY_INVOKED = 0;
+	private static final int KEY_PRIMARY = 1;
+	private static final int KEY_SECONDARY = 2;
+
+	private final Clock mClock;
+	private final Config<A> mConfig;
+	private final Output<E, A> mOutput;
+
+	//Held while an event is registered or a decision is made, waits happens outside of it
+	private final Object mLock = new Object();
+
+	//Notified when the state or the event times changes, used by the waitFor*Change() methods
+	private final Object mEventLock = new Object();
+
+	private final EventKey[] mTrackedKeys = new EventKey[1+KEY_SECONDARY];
+
+	private volatile State mState = State.PENDING;
+	private int mTapCount = 0;
+	private long mEventChangeTime = 0; //time for last event change
+	private volatile long mEventStartTime = 0; //time for last event start
+	//Increased for each registered event change, so waiting threads can detect changes
+	//even if events share the same event time
+	private long mEventSequence = 0;
+	//ongoing combo timeouts
+	private boolean mComboStarted = false;
+	//The key code of the secondary combo key, 0 if no combo is tracked
+	private int mSecondaryCode = 0;
+	//The ongoing long press (repeat) key
+	private int mLongPressKeyCode = -1;
+
+	private boolean mIsExtended = false;
+	private boolean mIsCallButton = false;
+	private int mTapTimeout = 0;
+	private int mPressTimeout = 500; //Hardcoded default value, used in determining validity of event
+
+	//actions in the order they appear: press 1, tap 1, press 2, tap 2 etc
+	private A[] mKeyActions;
+	//The index for the "last" action
+	private int mMaxActionIndex = -1;
+
+	KeyGestureEngine(Clock clock, Config<A> config, Output<E, A> output) {
+		mClock = clock;
+		mConfig = config;
+		mOutput = output;
+
+		for (int i = 0; i < mTrackedKeys.length; i++) {
+			mTrackedKeys[i] = new EventKey();
+		}
+	}
+
+	Clock getClock() {
+		return mClock;
+	}
+
+	/*
+	 * Register a key event as it is queued.
+	 * ALLOW means that the key is part of a handled event, DEFAULT that the module does not handle it.
+	 */
+	public Decision queue(int keyCode, boolean down, long eventTime, boolean isScreenOn, int policyFlags) {
+		synchronized (mLock) {
+			if (registerKey(keyCode, down, eventTime, isScreenOn, policyFlags)) {
+				if (mOutput.isDebug()) mOutput.debug("Starting a new event");
+
+				/*
+				 * If the screen is off, it's a good idea to poke the device out of deep sleep.
+				 */
+				if (!isScreenOn) {
+					mOutput.userActivity(mEventChangeTime);
+				}
+
+			} else if (mState == State.PENDING || getKey(keyCode) == null) {
+				if (mOutput.isDebug()) mOutput.debug("Unconfigured key, no action");
+
+				return Decision.DEFAULT;
+
+			} else {
+				if (mOutput.isDebug()) mOutput.debug("Continuing ongoing event");
+			}
+
+			if (mOutput.isDebug()) mOutput.debug("Passing the event to the queue (" + mState.name() + ")");
+
+			return Decision.ALLOW;
+		}
+	}
+
+	/*
+	 * Handle a key event as it is dispatched. This blocks the calling thread while it waits
+	 * for the press, tap and repeat timeouts.
+	 */
+	public Decision dispatch(E event, int keyCode, boolean down, int repeatCount, boolean injected, int policyFlags) {
+		State state;
+		boolean isHandled;
+		long origEventContext;
+		int timeout;
+
+		//The queueing thread changes the event while this waits, so take what is needed before waiting
+		synchronized (mLock) {
+			state = mState;
+			isHandled = getKey(keyCode) != null;
+			origEventContext = mEventStartTime;
+
+			if (state == State.REPEATING) {
+				timeout = repeatCount == 0 || (repeatCount == 1 && getInvokedDefault()) ? -1 :
+					repeatCount == 1 ? getLongLongPressDelay() : mConfig.getRepeatDelay();
+
+			} else if (down) {
+				timeout = mPressTimeout;
+
+			} else {
+				//Nothing to wait for if there are no more actions
+				timeout = hasMoreActions() ? mTapTimeout : -1;
+			}
+		}
+
+		if (!isHandled || state == State.PENDING) {
+			if (mOutput.isDebug()) mOutput.debug("Unconfigured key, not handling");
+
+			return Decision.DEFAULT;
+
+		} else if (state == State.INVOKED) {
+			if (injected) {
+				//All in this state should be explicitly injected
+				if (mOutput.isDebug()) mOutput.debug("Dispatching INVOKED injected key");
+
+				return Decision.ALLOW;
+			}
+
+			if (mOutput.isDebug()) mOutput.debug("Already handled device key (" + state.name() + ") " + isDownEvent());
+
+			return Decision.REJECT;
+
+		} else if (state == State.REPEATING) {
+			return dispatchRepeating(event, down, repeatCount, injected, policyFlags, origEventContext, timeout);
+
+		} else if (state == State.ONGOING) {
+			if (down) {
+				if (!dispatchPress(keyCode, origEventContext, timeout)) {
+					return Decision.DEFAULT;
+				}
+
+			} else {
+				dispatchClick(event, keyCode, policyFlags, origEventContext, timeout);
+			}
+
+			if (mOutput.isDebug()) mOutput.debug("Disabling default dispatching (" + mState.name() + ")");
+
+			return Decision.REJECT;
+		}
+
+		return Decision.DEFAULT;
+	}
+
+	/*
+	 * When we disallow applications from getting the event, we also disable repeats.
+	 * This is a hack where we create a controlled injection loop to simulate repeats.
+	 *
+	 * If we did not have to support GB, then we could have just returned the timeout to force repeat without global dispatching.
+	 * But since we have GB to think about, this is the best solution.
+	 *
+	 * The timeout is -1 for the repeats that are dispatched without waiting.
+	 */
+	private Decision dispatchRepeating(E event, boolean down, int repeatCount, boolean injected, int policyFlags, long origEventContext, int timeout) {
+		boolean dispatch = true;
+
+		//Any down key is repeating
+		if (down) {
+			if (mOutput.isDebug()) mOutput.debug("Injecting a new repeat " + repeatCount);
+
+			boolean timeoutExpired;
+			boolean alwaysDispatch = false;
+			boolean longLongInvokedFirstRepeat = false;
+
+			if (timeout < 0) {
+				//No delay dispatching this repeat, wait already done in ONGOING the timeout
+				//Waiting is done before dispatching the next
+				timeoutExpired = true;
+				alwaysDispatch = true;
+
+			} else {
+				longLongInvokedFirstRepeat = repeatCount == 1;
+				timeoutExpired = waitForLongpressChange(timeout, origEventContext);
+			}
+
+			synchronized (mLock) {
+				if (timeoutExpired && mState == State.REPEATING && origEventContext == mEventStartTime) {
+					//State is good to insert a new repeat
+					mOutput.inject(event, ACTION_DOWN, repeatCount + 1, policyFlags);
+
+				} else if (!alwaysDispatch) {
+					//The first repeat must be dispatched, not waiting for timeout
+					//Release invoked keys when next up is dispatched (could be inserted here, but the other situation must be handled anyway)
+					dispatch = false;
+				}
+			}
+
+			if (dispatch && longLongInvokedFirstRepeat) {
+				//The inserted key long press occurred, give normal longpress feedback
+				mOutput.repeatFeedback(event, policyFlags);
+			}
+
+		} else {
+			synchronized (mLock) {
+				//Release invoked long press keys on any up key
+				if (mLongPressKeyCode > 0) {
+					if (!injected) {
+						if (mOutput.isDebug()) mOutput.debug("Key up, ending invoked longpress from device key");
+
+						dispatch = false;
+
+					} else {
+						if (mOutput.isDebug()) mOutput.debug("Strange: Key up, ending longpress from injected key");
+					}
+
+					//Invoke key up
+					setState(State.INVOKED);
+					mLongPressKeyCode = -1;
+
+				} else {
+					if (mOutput.isDebug()) mOutput.debug("Key up, ending default longpress from device key up");
+
+					//Default invoked keys. Primary should not be sent, if the handling is changed just release
+					setState(State.PENDING);
+				}
+			}
+		}
+
+		return dispatch ? Decision.ALLOW : Decision.REJECT;
+	}
+
+	/*
+	 * Returns false if the key should get the default handling
+	 */
+	private boolean dispatchPress(int keyCode, long origEventContext, int timeout) {
+		if (mOutput.isDebug()) mOutput.debug("Waiting on long press timeout");
+
+		boolean timeoutExpired = waitForOngoingChange(keyCode, timeout, origEventContext);
+
+		synchronized (mLock) {
+			//Continue normally if state is still OnGoing and timer released
+			//If an event is aborted, only do default handling for secondary
+			//There is no default handling for the primary in a combo
+			//(insert keys with new event will interfere with states)
+			boolean aborted = origEventContext != mEventStartTime || mState == State.PENDING;
+
+			if (timeoutExpired && mState == State.ONGOING || aborted) {
+				A eventAction = getAction(false);
+				boolean isDefault = aborted || eventAction == null;
+
+				if (mOutput.isDebug()) mOutput.debug("Invoking press action: " + (isDefault ? "<default>" : eventAction));
+
+				if (isDefault) {
+					/*
+					 * The first one MUST be dispatched throughout the system.
+					 * Applications can ONLY start tracking from the original event object.
+					 */
+					if (!aborted) {
+						setState(State.REPEATING);
+					}
+
+					return false;
+				}
+
+				int invokeKeyCode = mConfig.getKeyCode(eventAction);
+
+				if (invokeKeyCode > 0) {
+					invokeKey(invokeKeyCode, ACTION_DOWN, mConfig.getKeyFlags(invokeKeyCode));
+					mOutput.pressFeedback();
+					setState(State.REPEATING);
+					mLongPressKeyCode = invokeKeyCode;
+
+				} else {
+					mOutput.invoke(eventAction);
+					setState(State.INVOKED);
+				}
+
+			} else {
+				if (mOutput.isDebug()) mOutput.debug("No action timeout:" + timeoutExpired + " aborted:" + aborted + " " + mState.name());
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * The timeout is -1 if there are no more actions to wait for
+	 */
+	private void dispatchClick(E event, int keyCode, int policyFlags, long origEventContext, int timeout) {
+		boolean timeoutExpired = true;
+
+		if (timeout >= 0) {
+			if (mOutput.isDebug()) mOutput.debug("Waiting on tap timeout");
+
+			timeoutExpired = waitForOngoingChange(keyCode, timeout, origEventContext);
+		}
+
+		synchronized (mLock) {
+			//Abort, primary etc: See long press
+			boolean aborted = origEventContext != mEventStartTime || mState == State.PENDING;
+
+			if (timeoutExpired && mState == State.ONGOING || aborted) {
+				A eventAction = getAction(true);
+				int invokeKeyCode = 0;
+
+				if (!aborted && mIsCallButton) {
+					//Call button overrides configuration of the button (unless the sequence was aborted)
+					invokeKeyCode = mOutput.getCallButtonCode();
+				}
+
+				boolean isDefault = aborted || (invokeKeyCode <= 0 && eventAction == null);
+
+				if (mOutput.isDebug()) mOutput.debug("Invoking click action: " + (invokeKeyCode > 0 ? "Callcode:" + invokeKeyCode : isDefault ? "<default>" : eventAction));
+
+				if (isDefault) {
+					if (!aborted) {
+						setState(State.INVOKED);
+					}
+
+					mOutput.inject(event, ACTION_MULTIPLE, 0, policyFlags);
+
+				} else {
+					if (invokeKeyCode <= 0) {
+						invokeKeyCode = mConfig.getKeyCode(eventAction);
+					}
+
+					//Wake up if needed, let Android drop key if WAKE_DROPPED
+					//Explicitly waking up seem to cause problems waking for some devices, if added should be for non-key only
+					//Probably better to require the user to insert the wakeup with app shortcut
+					if (invokeKeyCode > 0) {
+						invokeKey(invokeKeyCode, ACTION_MULTIPLE, mConfig.getKeyFlags(invokeKeyCode));
+
+					} else {
+						mOutput.invoke(eventAction);
+					}
+
+					setState(State.INVOKED);
+				}
+
+			} else {
+				if (mOutput.isDebug()) mOutput.debug("No action timeout:" + timeoutExpired + " aborted:" + aborted + " " + mState.name());
+			}
+		}
+	}
+
+	private boolean registerKey(int keyCode, boolean isKeyDown, long eventTime, boolean isScreenOn, int policyFlags) {
+		boolean newEvent = false;
+
+		// Make sure not event hangs: Cancel at new presses 1000 + longest handled timeout
+		if (isKeyDown && (eventTime - mEventChangeTime) > 1000 + getLongLongPressDelay()) {
+			if (mState == State.ONGOING || mState == State.REPEATING) {
+				if (mOutput.isDebug()) mOutput.debug("Aborting old event: " + (eventTime - mEventChangeTime));
+			}
+
+			abortRepeatingKeys();
+		}
+
+		EventKey key = getDeviceKey(keyCode);
+		boolean keyExists = key != null;
+		//Set event time, abort timeouts
+		long currEventChangeTime = mEventChangeTime;
+		boolean eventChanged = true;
+
+		mEventChangeTime = eventTime;
+
+		if (isKeyDown) {
+			if (mState == State.ONGOING && keyExists) {
+				//Part of an ongoing event
+				if (mTrackedKeys[KEY_SECONDARY].isUsed() && mTrackedKeys[KEY_PRIMARY].getCode() == keyCode) {
+					if (mOutput.isDebug()) mOutput.debug("Ignoring primary repeat");
+
+					mEventChangeTime = currEventChangeTime;
+					eventChanged = false;
+
+				} else {
+					if (mOutput.isDebug()) mOutput.debug("Registering new tap event");
+
+					mTapCount += 1;
+				}
+
+			} else {
+				//New key or handled state, must be new event
+				//Set new state after checking if this is a new event
+
+				//Pull, in case they are changed
+				//Must not be in REPEATING when doing this
+				mConfig.refresh();
+				mTapTimeout = mConfig.getTapTimeout();
+				mPressTimeout = mConfig.getPressTimeout();
+				mIsExtended = mConfig.isExtended();
+				mMaxActionIndex = -1;
+
+				if (!keyExists) {
+					if (mTrackedKeys[KEY_PRIMARY].isUsed() && mTrackedKeys[KEY_SECONDARY].isUsed()) {
+						if (mOutput.isDebug()) mOutput.debug("Exceeding combo, resetting");
+
+						abortRepeatingKeys();
+
+					} else if (mState == State.ONGOING && mTrackedKeys[KEY_PRIMARY].isUsed() && isDownEvent() && mIsExtended) {
+						if (mOutput.isDebug()) mOutput.debug("Registering new combo event");
+
+						mMaxActionIndex = startEvent(mTrackedKeys[KEY_PRIMARY].getCode(), keyCode, isScreenOn);
+
+						if (mMaxActionIndex >= 0) {
+							mTrackedKeys[KEY_SECONDARY].initiateInstance(keyCode, policyFlags);
+							mSecondaryCode = keyCode;
+						}
+					}
+				}
+
+				if (mMaxActionIndex < 0) {
+					if (mOutput.isDebug()) mOutput.debug("Registering new single event");
+
+					//This is not continuing, make sure existing are removed (default handled)
+					abortRepeatingKeys();
+					mMaxActionIndex = startEvent(keyCode, 0, isScreenOn);
+
+					if (mMaxActionIndex >= 0) {
+						mTrackedKeys[KEY_PRIMARY].initiateInstance(keyCode, policyFlags);
+						mTrackedKeys[KEY_SECONDARY].setUnused();
+						mSecondaryCode = 0;
+						//The context for the start is changed for the first key only
+						mEventStartTime = mEventChangeTime;
+					}
+				}
+
+				newEvent = mMaxActionIndex >= 0;
+			}
+
+		} else {
+			//key up
+			if (mState == State.ONGOING && mTrackedKeys[KEY_SECONDARY].isUsed() && mTrackedKeys[KEY_PRIMARY].getCode() == keyCode) {
+				//Primary key in an existing combo, ignore
+				if (mOutput.isDebug()) mOutput.debug("Primary up, default handling");
+
+				mEventChangeTime = currEventChangeTime;
+				eventChanged = false;
+
+			} else if (!keyExists) {
+				//Release of a key that is not part of the event, like the primary of an aborted event
+				if (mOutput.isDebug()) mOutput.debug("Untracked key up, ignoring");
+
+				mEventChangeTime = currEventChangeTime;
+				eventChanged = false;
+			}
+		}
+
+		if (key != null) {
+			key.setKetPressDevice(isKeyDown);
+		}
+
+		synchronized (mEventLock) {
+			if (eventChanged) {
+				mEventSequence++;
+			}
+
+			mEventLock.notifyAll();
+		}
+
+		return newEvent;
+	}
+
+	/*
+	 * Look up the actions for a new event and start it, or cancel it if there is nothing to handle.
+	 * Returns the index of the last configured action, or -1.
+	 */
+	private int startEvent(int primCode, int secCode, boolean isScreenOn) {
+		if (mOutput.isDebug()) mOutput.debug("Getting actions for the key combo '" + primCode + ":" + secCode + "'");
+
+		A[] keyActions = mConfig.getActions(primCode, secCode, isScreenOn);
+		int maxActionIndex = -1;
+
+		if (keyActions != null) {
+			for (int i = 0; i < keyActions.length; i++) {
+				if (keyActions[i] != null) {
+					//The longest to wait for more events
+					maxActionIndex = i;
+				}
+			}
+		}
+
+		if (maxActionIndex < 0 && secCode == 0) {
+			//Find if there are multi keys that this key need to wait for
+			//This event need to wait at most for keyUp
+			//The list of configured conditions, no need to check actually configured actions
+			//(no actions for a condition is user controllable)
+			if (mConfig.hasComboCondition(primCode, isScreenOn)) {
+				maxActionIndex = 1;
+			}
+		}
+
+		//The previous event is cancelled
+		if (maxActionIndex < 0) {
+			mIsCallButton = false;
+			mState = State.PENDING;
+			mComboStarted = false;
+
+		} else {
+			mIsCallButton = mConfig.isCallButton(primCode, secCode);
+			mKeyActions = keyActions;
+			mState = State.ONGOING;
+
+			if (secCode > 0) {
+				mComboStarted = true;
+			}
+		}
+
+		mTapCount = 0;
+
+		return maxActionIndex;
+	}
+
+	private void invokeKey(int keyCode, int keyAction, int flags) {
+		abortRepeatingKeys();
+		//Add the key to tracked keys
+		mTrackedKeys[KEY_INVOKED].initiateInstance(keyCode, flags);
+		mOutput.injectKey(keyCode, keyAction, flags);
+	}
+
+	private void abortRepeatingKeys() {
+		EventKey invokedKey = mTrackedKeys[KEY_INVOKED];
+
+		//If ONGOING or REPEAT-default, the default handling fixes the abort (context changed)
+		if (mState == State.REPEATING && invokedKey.isUsed() && mLongPressKeyCode == invokedKey.getCode()) {
+			mOutput.injectKey(invokedKey.getCode(), ACTION_UP, invokedKey.getFlags());
+		}
+
+		invokedKey.setUnused();
+		mComboStarted = false;
+	}
+
+	/*
+	 * Must be called while holding mLock
+	 */
+	private void setState(State state) {
+		if (mState == state) {
+			return;
+		}
+
+		if (mState == State.REPEATING && state == State.INVOKED) {
+			//Change the event context, so that threads waiting for the previous one aborts
+			mEventStartTime++;
+
+			//Released invoked keys, device default is handled separately
+			EventKey invokedKey = mTrackedKeys[KEY_INVOKED];
+
+			if (invokedKey.isUsed()) {
+				mOutput.injectKey(invokedKey.getCode(), ACTION_UP, invokedKey.getFlags());
+			}
+		}
+
+		mState = state;
+
+		synchronized (mEventLock) {
+			mEventLock.notifyAll();
+		}
+	}
+
+	public State getState() {
+		return mState;
+	}
+
+	public boolean hasState(State state) {
+		return mState == state;
+	}
+
+	public int getTapCount() {
+		return mTapCount;
+	}
+
+	public long getEventChangeTime() {
+		return mEventChangeTime;
+	}
+
+	public int getPressTimeout() {
+		return mPressTimeout;
+	}
+
+	public int getLongLongPressDelay() {
+		return 2 * mPressTimeout;
+	}
+
+	/*
+	 * Whether the ongoing long press is the default one (not mapped to another key)
+	 */
+	public boolean getInvokedDefault() {
+		return mLongPressKeyCode <= 0;
+	}
+
+	public boolean isHandledKey(int keyCode) {
+		return getKey(keyCode) != null;
+	}
+
+	//Are all (combo) keys pressed?
+	private boolean isDownEvent() {
+		return (!mTrackedKeys[KEY_PRIMARY].isUsed() || mTrackedKeys[KEY_PRIMARY].isPressed())
+				&& (!mTrackedKeys[KEY_SECONDARY].isUsed() || mTrackedKeys[KEY_SECONDARY].isPressed());
+	}
+
+	private A getAction(boolean click) {
+		int index = mTapCount * 2 + (click ? 1 : 0);
+
+		return mKeyActions != null && index < mKeyActions.length ? mKeyActions[index] : null;
+	}
+
+	private boolean hasMoreActions() {
+		return mTapCount * 2 + 2 <= mMaxActionIndex;
+	}
+
+	private EventKey getDeviceKey(int keyCode) {
+		for (int i = KEY_PRIMARY; i <= KEY_SECONDARY; i++) {
+			EventKey key = mTrackedKeys[i];
+
+			if (key.getCode() == keyCode && key.isUsed()) {
+				return key;
+			}
+		}
+
+		return null;
+	}
+
+	private EventKey getKey(int keyCode) {
+		//Check invoked first, to handle mapping to same
+		for (EventKey key : mTrackedKeys) {
+			if (key.getCode() == keyCode && key.isUsed()) {
+				return key;
+			}
+		}
+
+		return null;
+	}
+
+	//Wait until signaled or the deadline (uptime) is reached, must hold mEventLock
+	//Returns false if the deadline had already passed
+	private boolean awaitEventChange(long deadline) {
+		long remaining = deadline - mClock.uptimeMillis();
+
+		if (remaining <= 0) {
+			return false;
+		}
+
+		try {
+			mClock.await(mEventLock, remaining);
+
+		} catch (InterruptedException e) {}
+
+		return true;
+	}
+
+	//wait for timeout or state change of the press or click, but let primary timeout first
+	private boolean waitForOngoingChange(int keyCode, int timeout, long origContext) {
+		long deadline = mClock.uptimeMillis() + timeout;
+		boolean expired = false;
+
+		synchronized (mEventLock) {
+			long lastSequence = mEventSequence; //Context for current event status
+
+			while (!expired && mState == State.ONGOING &&
+					lastSequence == mEventSequence && (!mComboStarted || keyCode == mSecondaryCode) &&
+					origContext == mEventStartTime) {
+				expired = !awaitEventChange(deadline);
+			}
+		}
+
+		return expired;
+	}
+
+	//wait for timeout or state change
+	private boolean waitForLongpressChange(int timeout, long origContext) {
+		long deadline = mClock.uptimeMillis() + timeout;
+		boolean expired = false;
+
+		synchronized (mEventLock) {
+			long lastSequence = mEventSequence;
+
+			//Only abort for state change
+			while (!expired && mState == State.REPEATING
+					&& lastSequence == mEventSequence && origContext == mEventStartTime) {
+				expired = !awaitEventChange(deadline);
+			}
+		}
+
+		return expired;
+	}
+}
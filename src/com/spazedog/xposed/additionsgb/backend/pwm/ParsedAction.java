@@ -0,0 +1,146 @@
+package com.spazedog.xposed.additionsgb.backend.pwm;
+
+import android.content.Intent;
+import android.util.Log;
+
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry;
+
+/*
+ * An action string from the remap configuration, parsed once when the configuration is loaded.
+ * The format is the same as handled by Common.actionParse().
+ */
+public final class ParsedAction {
+	private static final String TAG = ParsedAction.class.getName();
+
+	public static enum Type { DISPATCH, TASKER, SHORTCUT, LAUNCHER, CUSTOM }
+
+	private final String mAction;
+	private final Type mType;
+	private final String mPayload;
+	private final int mKeyCode;
+	private final Intent mIntent;
+	private final int mHandlerId;
+
+	private ParsedAction(String action, Type type, String payload, int keyCode, Intent intent) {
+		this(action, type, payload, keyCode, intent, ActionRegistry.NO_HANDLER);
+	}
+
+	private ParsedAction(String action, Type type, String payload, int keyCode, Intent intent, int handlerId) {
+		mAction = action;
+		mType = type;
+		mPayload = payload;
+		mKeyCode = keyCode;
+		mIntent = intent;
+		mHandlerId = handlerId;
+	}
+
+	/*
+	 * Custom actions are resolved to a handler id in the registry
+	 */
+	public static ParsedAction parse(String action, ActionRegistry registry) {
+		if (action == null) {
+			return null;
+
+		} else if (isKeyCode(action)) {
+			return new ParsedAction(action, Type.DISPATCH, action, Integer.parseInt(action), null);
+
+		} else if (action.startsWith("tasker:")) {
+			return new ParsedAction(action, Type.TASKER, action.substring("tasker:".length() + 1), 0, null);
+
+		} else if (action.startsWith("shortcut:")) {
+			int i = "shortcut:".length();
+			String uri = action.substring(action.indexOf(':', i) + 1);
+			Intent intent = null;
+
+			try {
+				intent = Intent.parseUri(uri, Intent.URI_INTENT_SCHEME);
+
+			} catch (Exception e) {
+				Log.e(TAG, "Parse URI exception!" + e.getMessage(), e);
+			}
+
+			return new ParsedAction(action, Type.SHORTCUT, uri, 0, intent);
+
+		} else if (action.contains(".")) {
+			return new ParsedAction(action, Type.LAUNCHER, action, 0, null);
+		}
+
+		return new ParsedAction(action, Type.CUSTOM, action, 0, null, registry.getId(action));
+	}
+
+	/*
+	 * Whether the name can be used for an external custom action. It must always be parsed as CUSTOM,
+	 * so it cannot be a number, contain '.' like a package name or ':' like the type prefixes.
+	 */
+	public static boolean isCustomName(String name) {
+		if (name == null || name.length() == 0 || name.indexOf('.') >= 0 || name.indexOf(':') >= 0) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isKeyCode(String action) {
+		int length = action.length();
+
+		//Larger values does not fit a key code
+		if (length == 0 || length > 9) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			char c = action.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public Type getType() {
+		return mType;
+	}
+
+	/*
+	 * The action without the type prefix: The package name, custom action name, tasker task or shortcut uri
+	 */
+	public String getPayload() {
+		return mPayload;
+	}
+
+	/*
+	 * The key code for dispatch actions, 0 for all other types
+	 */
+	public int getKeyCode() {
+		return mKeyCode;
+	}
+
+	/*
+	 * The registry id for custom actions, ActionRegistry.NO_HANDLER for all other types
+	 */
+	public int getHandlerId() {
+		return mHandlerId;
+	}
+
+	/*
+	 * A copy of the shortcut Intent, or null if the action is not a valid shortcut
+	 */
+	public Intent getIntent() {
+		return mIntent != null ? new Intent(mIntent) : null;
+	}
+
+	@Override
+	public String toString() {
+		return mAction;
+	}
+}
@@ -7,18 +7,19 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.HapticFeedbackConstants;
 import android.view.KeyEvent;
-import android.view.ViewConfiguration;
 
 import com.spazedog.lib.reflecttools.ReflectClass;
 import com.spazedog.lib.reflecttools.utils.ReflectException;
 import com.spazedog.xposed.additionsgb.Common;
-import com.spazedog.xposed.additionsgb.backend.pwm.EventManager.State;
-import com.spazedog.xposed.additionsgb.backend.pwm.iface.IEventMediator.ActionType;
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.Decision;
+import com.spazedog.xposed.additionsgb.backend.pwm.KeyGestureEngine.State;
 import com.spazedog.xposed.additionsgb.backend.pwm.iface.IMediatorSetup.ORIGINAL;
 import com.spazedog.xposed.additionsgb.backend.pwm.iface.IMediatorSetup.SDK;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ProbeCache;
 import com.spazedog.xposed.additionsgb.backend.service.XServiceManager;
 import com.spazedog.xposed.additionsgb.backend.service.XServiceManager.XServiceBroadcastListener;
 
@@ -30,14 +31,13 @@ public final class PhoneWindowManager {
 	
 	private XServiceManager mXServiceManager;
 	private EventManager mEventManager;
+	private KeyGestureEngine<KeyEvent, ParsedAction> mEngine;
 	
-	private Boolean mInterceptKeyCode = false;
+	private boolean mInterceptKeyCode = false;
 	
-	private Boolean mActiveQueueing = false;
-	private Boolean mActiveDispatching = false;
+	private boolean mActiveQueueing = false;
+	private boolean mActiveDispatching = false;
 	
-	private final Object mQueueLock = new Object();
-
 	/**
 	 * This is a static initialization method.
 	 */
@@ -93,6 +93,8 @@ public final class PhoneWindowManager {
 				new BroadcastReceiver() {
 					@Override
 					public void onReceive(Context context, Intent intent) {
+						long bootCompleted = SystemClock.elapsedRealtime();
+						
 						/*
 						 * Let's get an instance of our own Service Manager and
 						 * make sure that the related service is running, before continuing.
@@ -110,6 +112,7 @@ public final class PhoneWindowManager {
 								 */
 								pwm = ReflectClass.forReceiver(param.thisObject);
 								mEventManager = new EventManager(pwm, mXServiceManager);
+								mEngine = mEventManager.getEngine();
 								
 								if (mEventManager.isReady()) {
 									/*
@@ -137,6 +140,8 @@ public final class PhoneWindowManager {
 									 * Add listener to receive broadcasts from the XService
 									 */
 									mXServiceManager.addBroadcastListener(listener_XServiceBroadcast);
+									
+									if(Common.debug()) Log.d(TAG, "The module was ready " + (SystemClock.elapsedRealtime() - bootCompleted) + "ms after boot completed, " + SystemClock.elapsedRealtime() + "ms after boot");
 								}
 								
 							} catch (Throwable e) {
@@ -148,6 +153,11 @@ public final class PhoneWindowManager {
 									 */
 									pwm.removeInjections();
 								}
+								
+								/*
+								 * The stored probe results might be the cause, so probe everything on the next boot
+								 */
+								ProbeCache.invalidate();
 							}
 							
 						} else {
@@ -171,6 +181,9 @@ public final class PhoneWindowManager {
 				
 			} else if (action.equals("keyIntercepter:disable")) {
 				mInterceptKeyCode = false;
+
+			} else if (action.equals("actionHandler:changed") && mEventManager != null) {
+				mEventManager.registerExternalActions();
 			}
 		}
 	};
@@ -193,14 +206,14 @@ public final class PhoneWindowManager {
 	private final XC_MethodHook hook_viewConfigTimeouts = new XC_MethodHook() {
 		@Override
 		protected final void afterHookedMethod(final MethodHookParam param) {
-			if (mEventManager.hasState(State.REPEATING)) {
-				if (mEventManager.getInvokedDefault()) {
+			if (mEngine.hasState(State.REPEATING)) {
+				if (mEngine.getInvokedDefault()) {
 					//The timeout has already occurred when default is dispatched
 					param.setResult(10);
 				}
 				else {
 					//The timeout is longer than usual, handled after the first injected key
-					param.setResult(10 + mEventManager.getLongLongPressDelay());
+					param.setResult(10 + mEngine.getLongLongPressDelay());
                 }
 			}
         }
@@ -216,31 +229,31 @@ public final class PhoneWindowManager {
 	protected final XC_MethodHook hook_interceptKeyBeforeQueueing = new XC_MethodHook(XCallback.PRIORITY_DEFAULT + 100) {
 		@Override
 		protected final void beforeHookedMethod(final MethodHookParam param) {
-			final Integer methodVersion = SDK.METHOD_INTERCEPT_VERSION;
+			final int methodVersion = SDK.METHOD_INTERCEPT_VERSION;
             final KeyEvent keyEvent;
             final Object keyObject;
-            final Integer POLICYFLAGS_POS;
-            final Integer ISSCREENON_POS;
+            final int POLICYFLAGS_POS;
+            final int ISSCREENON_POS;
             if (methodVersion > 1) {
                 POLICYFLAGS_POS = 1;
                 ISSCREENON_POS = 2;
-                final Integer KEYEVENT_POS = 0;
+                final int KEYEVENT_POS = 0;
                 keyEvent = (KeyEvent) param.args[KEYEVENT_POS];
                 keyObject = keyEvent;
             } else {
                 POLICYFLAGS_POS = 5;
                 ISSCREENON_POS = 6;
-                Integer keyCode = (Integer)param.args[3];
-                Integer action = (Integer)param.args[1];
-                Long eventTime = android.os.SystemClock.uptimeMillis();
-                Long downTime = ((Long) param.args[0]) / 1000 / 1000;
-                Integer repeatCount = 0;
-                Integer metaState = 0;
+                int keyCode = (Integer)param.args[3];
+                int action = (Integer)param.args[1];
+                long eventTime = android.os.SystemClock.uptimeMillis();
+                long downTime = ((Long) param.args[0]) / 1000 / 1000;
+                int repeatCount = 0;
+                int metaState = 0;
                 keyEvent = new KeyEvent(downTime,eventTime,action,keyCode,repeatCount,metaState);
-                keyObject = keyCode;
+                keyObject = param.args[3];
             }
-            Integer policyFlags = (Integer) (param.args[POLICYFLAGS_POS]);
-            final Boolean isScreenOn;
+            int policyFlags = (Integer) (param.args[POLICYFLAGS_POS]);
+            final boolean isScreenOn;
 			if (android.os.Build.VERSION.SDK_INT >= 21) {
 				isScreenOn = (policyFlags & ORIGINAL.FLAG_INTERACTIVE) != 0;
 				
@@ -248,123 +261,93 @@ public final class PhoneWindowManager {
 				isScreenOn = (Boolean) (param.args[ISSCREENON_POS]);
 			}
 
-			Integer keyCode = keyEvent.getKeyCode();
-			Integer action = keyEvent.getAction();
-			Integer repeatCount = keyEvent.getRepeatCount();
-			Boolean down = action == KeyEvent.ACTION_DOWN;
-			String tag = TAG + "#Queueing/" + (down ? "Down " : "Up ") + keyCode + "(" + mEventManager.getTapCount() + "," + repeatCount+ "):";
+			int keyCode = keyEvent.getKeyCode();
+			int action = keyEvent.getAction();
+			int repeatCount = keyEvent.getRepeatCount();
+			boolean down = action == KeyEvent.ACTION_DOWN;
 
-			if (down && !mEventManager.hasState(State.PENDING)) {
-				try {
-					Thread.sleep(1);
-					
-				} catch (InterruptedException e) {}
-			}
+			/*
+			 * Only disable default haptic feedback on 
+			 * our own injected events
+			 */
+			mActiveQueueing = (((KeyEvent) param.args[0]).getFlags() & EventKey.FLAG_CUSTOM) != 0;
 			
-			synchronized(mQueueLock) {
-				/*
-				 * Only disable default haptic feedback on 
-				 * our own injected events
-				 */
-				mActiveQueueing = (((KeyEvent) param.args[0]).getFlags() & EventKey.FLAG_CUSTOM) != 0;
-				
-				/*
-				 * Using KitKat work-around from the InputManager Hook
-				 */
-				Boolean isInjected = SDK.MANAGER_HARDWAREINPUT_VERSION > 1 ? 
-						(keyEvent.getFlags() & ORIGINAL.FLAG_INJECTED) != 0 : (policyFlags & ORIGINAL.FLAG_INJECTED) != 0;
-				
-				/*
-				 * The module should not handle injected keys. 
-				 * First of all, we inject keys our self and would create a loop. 
-				 * Second, some software buttons use injection, and we don't remap software keys.
-				 */
-				if (isInjected) {
-					if (down && repeatCount > 0) {
-						/*
-						 * Normally repeated events will not continue to invoke this method. 
-						 * But it seams that repeating an event using injection will. On most devices
-						 * the original methods themselves seams to be handling this just fine, but a few 
-						 * stock ROM's are treating these as both new and repeated events. 
-						 */
-						//param.setResult(ORIGINAL.QUEUEING_ALLOW);
-                        //noinspection UnnecessaryReturnStatement
-                        return;
+			/*
+			 * Using KitKat work-around from the InputManager Hook
+			 */
+			boolean isInjected = SDK.MANAGER_HARDWAREINPUT_VERSION > 1 ? 
+					(keyEvent.getFlags() & ORIGINAL.FLAG_INJECTED) != 0 : (policyFlags & ORIGINAL.FLAG_INJECTED) != 0;
+			
+			/*
+			 * The module should not handle injected keys. 
+			 * First of all, we inject keys our self and would create a loop. 
+			 * Second, some software buttons use injection, and we don't remap software keys.
+			 */
+			if (isInjected) {
+				if (down && repeatCount > 0) {
+					/*
+					 * Normally repeated events will not continue to invoke this method. 
+					 * But it seams that repeating an event using injection will. On most devices
+					 * the original methods themselves seams to be handling this just fine, but a few 
+					 * stock ROM's are treating these as both new and repeated events. 
+					 */
+					//param.setResult(ORIGINAL.QUEUEING_ALLOW);
+                    //noinspection UnnecessaryReturnStatement
+                    return;
 
-					} else if ((policyFlags & ORIGINAL.FLAG_INJECTED) != 0) {
-						/*
-						 * Some ROM's disables features on injected keys. So let's remove the flag.
-						 */
-						param.args[POLICYFLAGS_POS] = policyFlags & ~ORIGINAL.FLAG_INJECTED;
-					}
-					
-				/*
-				 * No need to do anything if the settings part of the module
-				 * has asked for the keys. However, do make sure that the screen is on.
-				 * The display could have been auto turned off while in the settings remap part.
-				 * We don't want to create a situation where users can't turn the screen back on.
-				 */
-				} else if (mInterceptKeyCode && isScreenOn) {
-					if (down) {
-						/*
-						 * Temp. re-activate our hooked feedback to account for ART XposedBridge being broken and does not
-						 * properly invoke original methods when being asked to. It still executes the hook as well. 
-						 */
-						mActiveQueueing = false;
-						mEventManager.performHapticFeedback(keyEvent, HapticFeedbackConstants.VIRTUAL_KEY, policyFlags);
-						mActiveQueueing = true;
-						
-					} else if (mEventManager.validateDeviceType(keyObject)) {
-						Bundle bundle = new Bundle();
-						bundle.putInt("keyCode", keyCode);
-						
-						/*
-						 * Send the key back to the settings part
-						 */
-						mXServiceManager.sendBroadcast("keyIntercepter:keyCode", bundle);
-					}
-					
-					param.setResult(ORIGINAL.QUEUEING_REJECT);
+				} else if ((policyFlags & ORIGINAL.FLAG_INJECTED) != 0) {
+					/*
+					 * Some ROM's disables features on injected keys. So let's remove the flag.
+					 */
+					param.args[POLICYFLAGS_POS] = policyFlags & ~ORIGINAL.FLAG_INJECTED;
+				}
+				
+			/*
+			 * No need to do anything if the settings part of the module
+			 * has asked for the keys. However, do make sure that the screen is on.
+			 * The display could have been auto turned off while in the settings remap part.
+			 * We don't want to create a situation where users can't turn the screen back on.
+			 */
+			} else if (mInterceptKeyCode && isScreenOn) {
+				if (down) {
+					/*
+					 * Temp. re-activate our hooked feedback to account for ART XposedBridge being broken and does not
+					 * properly invoke original methods when being asked to. It still executes the hook as well. 
+					 */
+					mActiveQueueing = false;
+					mEventManager.performHapticFeedback(keyEvent, HapticFeedbackConstants.VIRTUAL_KEY, policyFlags);
+					mActiveQueueing = true;
 					
 				} else if (mEventManager.validateDeviceType(keyObject)) {
+					Bundle bundle = new Bundle();
+					bundle.putInt("keyCode", keyCode);
+					
 					/*
-					 * Most ROM reboots after holding Power for 8-12s.
-					 * For those missing (like Omate TrueSmart) this is kind of a replacement.
+					 * Send the key back to the settings part
 					 */
-					mEventManager.powerHardResetTimer(keyCode, down, mEventManager.getPressTimeout());
+					mXServiceManager.sendBroadcast("keyIntercepter:keyCode", bundle);
+				}
+				
+				param.setResult(ORIGINAL.QUEUEING_REJECT);
+				
+			} else if (mEventManager.validateDeviceType(keyObject)) {
+				/*
+				 * Most ROM reboots after holding Power for 8-12s.
+				 * For those missing (like Omate TrueSmart) this is kind of a replacement.
+				 */
+				mEventManager.powerHardResetTimer(keyCode, down, mEngine.getPressTimeout());
 
-					if (mEventManager.registerKey(keyEvent, isScreenOn, policyFlags)) {
-						if(Common.debug()) Log.d(tag, "Starting a new event");
-						
-						/*
-						 * If the screen is off, it's a good idea to poke the device out of deep sleep. 
-						 */
-						if (!isScreenOn) {
-							mEventManager.pokeUserActivity(mEventManager.getEventChangeTime(), false);
-						}
-						
-					} else {
-						if (mEventManager.hasState(State.PENDING) || !mEventManager.isHandledKey(keyCode)) {
-							if(Common.debug()) Log.d(tag, "Unconfigured key, no action");
-							return;
-						}
-						if(Common.debug()) Log.d(tag, "Continuing ongoing event");
-					}
-					
+				Decision decision = mEngine.queue(keyCode, down, keyEvent.getEventTime(), isScreenOn, policyFlags);
+
+				if (decision == Decision.ALLOW) {
 					if (down) {
 						mActiveQueueing = false;
 						mEventManager.performHapticFeedback(keyEvent, HapticFeedbackConstants.VIRTUAL_KEY, policyFlags);
 						mActiveQueueing = true;
 					}
 					
-					if(Common.debug()) Log.d(tag, "Passing the event to the queue (" + mEventManager.stateName() + ")");
-					
 					//The default handling may "supress" keys we configure, so avoid default handling in some situations
-					if (!mEventManager.hasState(State.PENDING)) {
-                        param.setResult(ORIGINAL.QUEUEING_ALLOW);
-                    }
-                    //noinspection UnnecessaryReturnStatement
-                    return;
+					param.setResult(ORIGINAL.QUEUEING_ALLOW);
 				}
 			}
 		}
@@ -387,283 +370,50 @@ public final class PhoneWindowManager {
 		@Override
 		protected final void beforeHookedMethod(final MethodHookParam param) {
 
-            final Integer methodVersion = SDK.METHOD_INTERCEPT_VERSION;
+            final int methodVersion = SDK.METHOD_INTERCEPT_VERSION;
             final KeyEvent keyEvent;
-            final Integer POLICYFLAGS_POS;
+            final int POLICYFLAGS_POS;
             if (methodVersion > 1) {
                 POLICYFLAGS_POS = 2;
-                final Integer KEYEVENT_POS = 1;
+                final int KEYEVENT_POS = 1;
                 keyEvent = (KeyEvent) param.args[KEYEVENT_POS];
             } else {
                 POLICYFLAGS_POS = 7;
-                Integer keyCode = (Integer) param.args[3];
-                Integer action = (Integer) param.args[1];
-                Long eventTime = android.os.SystemClock.uptimeMillis();
-                Long downTime = eventTime;
-                Integer repeatCount = (Integer) param.args[6];
-                Integer metaState = 0;
+                int keyCode = (Integer) param.args[3];
+                int action = (Integer) param.args[1];
+                long eventTime = android.os.SystemClock.uptimeMillis();
+                long downTime = eventTime;
+                int repeatCount = (Integer) param.args[6];
+                int metaState = 0;
                 keyEvent = new KeyEvent(downTime, eventTime, action, keyCode, repeatCount, metaState);
             }
-            Integer policyFlags = (Integer) (param.args[POLICYFLAGS_POS]);
+            int policyFlags = (Integer) (param.args[POLICYFLAGS_POS]);
 
-            Integer keyCode = keyEvent.getKeyCode();
-            Integer action = keyEvent.getAction();
-            Integer repeatCount = keyEvent.getRepeatCount();
-            Boolean down = action == KeyEvent.ACTION_DOWN;
+            int keyCode = keyEvent.getKeyCode();
+            int repeatCount = keyEvent.getRepeatCount();
+            boolean down = keyEvent.getAction() == KeyEvent.ACTION_DOWN;
 
-            EventKey key = mEventManager.getKey(keyCode);
-            String tag = TAG + "#Dispatching/" + (down ? "Down " : "Up ") + keyCode + "(" + mEventManager.getTapCount() + "," + repeatCount + "): ";
-
-            if (key == null || mEventManager.hasState(State.PENDING)) {
-                if (Common.debug()) Log.d(tag, "Unconfigured key, not handling");
-                //Return, do default handling, not call:  param.setResult(ORIGINAL.DISPATCHING_ALLOW);
-                return;
-            }
-
-			mActiveDispatching = (((KeyEvent) param.args[1]).getFlags() & EventKey.FLAG_CUSTOM) != 0;
+			mActiveDispatching = (keyEvent.getFlags() & EventKey.FLAG_CUSTOM) != 0;
 
         	/*
 			 * Using KitKat work-around from the InputManager Hook
 			 */
-            Boolean isInjected = SDK.MANAGER_HARDWAREINPUT_VERSION > 1 ?
+            boolean isInjected = SDK.MANAGER_HARDWAREINPUT_VERSION > 1 ?
                     (keyEvent.getFlags() & ORIGINAL.FLAG_INJECTED) != 0 : (policyFlags & ORIGINAL.FLAG_INJECTED) != 0;
 
-            if (mEventManager.hasState(State.INVOKED)) {
-                if (isInjected) {
-                    //All in this state should be explicitly injected
-
-                    if ((policyFlags & ORIGINAL.FLAG_INJECTED) != 0) {
-                        //Restore original flags
-                        param.args[POLICYFLAGS_POS] = policyFlags & ~ORIGINAL.FLAG_INJECTED;
-                    }
-                    if (Common.debug())
-                        Log.d(tag, "Dispatching INVOKED injected key");
-                    //param.setResult(ORIGINAL.DISPATCHING_ALLOW);
-                    //noinspection UnnecessaryReturnStatement
-                    return;
-
-                } else {
-                    if (Common.debug())
-                        Log.d(tag, "Already handled device key (" + mEventManager.stateName() + ") " + mEventManager.isDownEvent());
-                    param.setResult(ORIGINAL.DISPATCHING_REJECT);
-                    //noinspection UnnecessaryReturnStatement
-                    return;
-                }
-
-            } else if (mEventManager.hasState(State.REPEATING)) {
-				/*
-				 * When we disallow applications from getting the event, we also disable repeats. 
-				 * This is a hack where we create a controlled injection loop to simulate repeats. 
-				 * 
-				 * If we did not have to support GB, then we could have just returned the timeout to force repeat without global dispatching. 
-				 * But since we have GB to think about, this is the best solution. 
-				 */
-                Boolean dispatch = true;
-                //Any down key is repeating
-                if (down) {
-                    if (Common.debug()) Log.d(tag, "Injecting a new repeat " + repeatCount);
-
-                    Long origEventContext = mEventManager.getEventStartTime();
-
-                    Boolean timeoutExpired;
-                    Boolean alwaysDispatch = false;
-                    Boolean longLongInvokedFirstRepeat = false;
-                    if (repeatCount == 0 ||
-                            ((repeatCount == 1) && (mEventManager.getInvokedDefault()))) {
-                        //No delay dispatching this repeat, wait already done in ONGOING the timeout
-                        //Waiting is done before dispatching the next
-                        timeoutExpired = true;
-                        alwaysDispatch = true;
-                    } else {
-                        longLongInvokedFirstRepeat = (repeatCount == 1);
-                        Integer curTimeout = longLongInvokedFirstRepeat ?  mEventManager.getLongLongPressDelay() :
-                                SDK.VIEW_CONFIGURATION_VERSION > 1 ? ViewConfiguration.getKeyRepeatDelay() : 50;
-                        timeoutExpired = mEventManager.waitForLongpressChange(curTimeout, origEventContext);
-                    }
-
-                    synchronized (mQueueLock) {
-                        //Check state
-                        if (timeoutExpired && mEventManager.hasState(State.REPEATING) &&
-                                origEventContext.equals(mEventManager.getEventStartTime())) {
-                            //State is good to insert a new repeat
-                            mEventManager.injectInputEvent(keyEvent, KeyEvent.ACTION_DOWN, keyEvent.getRepeatCount() + 1, policyFlags);
-                        } else {
-                            //The first repeat must be dispatched, not waiting for timeout
-                            if (!alwaysDispatch) {
-                                dispatch = false;
-                                //Release invoked keys when next up is dispatched (could be inserted here, but the other situation must be handled anyway)
-                            }
-                        }
-                    }
-                    if (dispatch && longLongInvokedFirstRepeat) {
-                        //The inserted key long press occurred, give normal longpress feedback
-                        mEventManager.performHapticFeedback(keyEvent, HapticFeedbackConstants.LONG_PRESS, policyFlags);
-                    }
-                }
+            Decision decision = mEngine.dispatch(keyEvent, keyCode, down, repeatCount, isInjected, policyFlags);
 
-                if (!down) {
-                    synchronized (mQueueLock) {
-                        //Release invoked long press keys on any up key
-                        if (mEventManager.getLongPressKeyCode() > 0) {
-                            if(!isInjected) {
-                                if (Common.debug())
-                                    Log.d(tag, "Key up, ending invoked longpress from device key");
-                                dispatch = false;
-                            } else {
-                                if (Common.debug())
-                                    Log.d(tag, "Strange: Key up, ending longpress from injected key");
-                            }
-                            //Invoke key up
-                            mEventManager.setState(State.INVOKED);
-                            mEventManager.setLongPressKeyCode(-1);
-                        } else {
-                            if (Common.debug())
-                                Log.d(tag, "Key up, ending default longpress from device key up");
-                            //Default invoked keys. Primary should not be sent, if the handling is changed just release
-                            mEventManager.setState(State.PENDING);
-                        }
-                    }
-                }
+            if (Common.debug()) Log.d(TAG + "#Dispatching/" + (down ? "Down " : "Up ") + keyCode + "(" + mEngine.getTapCount() + "," + repeatCount + "): ", decision.name() + " (" + mEngine.getState().name() + ")");
 
-                if (dispatch) {
-                    if ((policyFlags & ORIGINAL.FLAG_INJECTED) != 0) {
-                        //Restore original flags
-                        param.args[POLICYFLAGS_POS] = policyFlags & ~ORIGINAL.FLAG_INJECTED;
-                    }
-                    //param.setResult(ORIGINAL.DISPATCHING_ALLOW);
-                    //noinspection UnnecessaryReturnStatement
-                    return;
-                } else {
-                    param.setResult(ORIGINAL.DISPATCHING_REJECT);
+            if (decision == Decision.ALLOW) {
+                if ((policyFlags & ORIGINAL.FLAG_INJECTED) != 0) {
+                    //Restore original flags
+                    param.args[POLICYFLAGS_POS] = policyFlags & ~ORIGINAL.FLAG_INJECTED;
                 }
 
-            } else if (mEventManager.hasState(State.ONGOING)) {
-
-                if (down) {
-                    if (Common.debug()) Log.d(tag, "Waiting on long press timeout");
-                    Long origEventContext = mEventManager.getEventStartTime();
-                    Boolean timeoutExpired = mEventManager.waitForPressChange(key, origEventContext);
-
-                    synchronized (mQueueLock) {
-                        //Continue normally if state is still OnGoing and timer released
-                        //If an event is aborted, only do default handling for secondary
-                        //There is no default handling for the primary in a combo
-                        //(insert keys with new event will interfere with states)
-                        Boolean aborted = (!origEventContext.equals(mEventManager.getEventStartTime()) || mEventManager.hasState(State.PENDING));
-
-                        if (timeoutExpired && mEventManager.hasState(State.ONGOING) || aborted) {
-                            String eventAction = mEventManager.getAction(ActionType.PRESS);
-                            Boolean isDefault = aborted || eventAction == null;
-                            if (Common.debug())
-                                Log.d(tag, "Invoking press action: " + (isDefault ? "<default>" : eventAction));
-
-                            if (isDefault) {
-      							    /*
-									 * The first one MUST be dispatched throughout the system.
-									 * Applications can ONLY start tracking from the original event object.
-									 */
-                                if (!aborted) {
-                                    mEventManager.setState(State.REPEATING);
-                                }
-                                //param.setResult(ORIGINAL.DISPATCHING_ALLOW);
-                                return;
-
-                            } else {
-                                Integer invokeKeyCode = mEventManager.getActionKeyCode(eventAction);
-                                if (invokeKeyCode > 0) {
-                                    Integer flags = mEventManager.fixPolicyFlags(invokeKeyCode, 0);
-                                    mEventManager.invokeKey(invokeKeyCode, KeyEvent.ACTION_DOWN, flags);
-                                    mEventManager.performLongPressFeedback();
-                                    mEventManager.setState(State.REPEATING);
-                                    mEventManager.setLongPressKeyCode(invokeKeyCode);
-                                } else {
-                                    mEventManager.handleEventAction(eventAction);
-                                    mEventManager.setState(State.INVOKED);
-                                }
-                            }
-                        } else {
-                            if (Common.debug())
-                                Log.d(tag, "No action" + " timeout:" + timeoutExpired + " aborted:" + aborted + " " + mEventManager.stateName());
-                        }
-                    }
-
-                } else {
-                    //ONGOING key down
-                    Boolean timeoutExpired;
-                    Long origEventContext = mEventManager.getEventStartTime();
-                    if (mEventManager.hasMoreActions()) {
-                        if (Common.debug()) Log.d(tag, "Waiting on tap timeout");
-
-                        timeoutExpired = mEventManager.waitForClickChange(key, origEventContext);
-                    } else {
-                        timeoutExpired = true;
-                    }
-
-                    synchronized (mQueueLock) {
-
-                        //Abort, primary etc: See long press
-                        Boolean aborted = (!origEventContext.equals(mEventManager.getEventStartTime()) || mEventManager.hasState(State.PENDING));
-                        if (timeoutExpired && mEventManager.hasState(State.ONGOING) || aborted) {
-                            String eventAction = mEventManager.getAction(ActionType.CLICK);
-                            Integer invokeKeyCode = -1;
-                            Boolean isDefault = aborted;
-                            if (!isDefault && mEventManager.isCallButton()) {
-                                //Call button overrides configuration of the button (unless the sequence was aborted)
-                                invokeKeyCode = mEventManager.invokeCallButton();
-                            } else {
-                                isDefault = isDefault || eventAction == null;
-                            }
-
-                            if (Common.debug()) {
-                                String str;
-                                if (invokeKeyCode > 0) {
-                                    str = "Callcode:"+invokeKeyCode;
-                                } else {
-                                    str = (isDefault ? "<default>" : eventAction);
-                                }
-                                Log.d(tag, "Invoking click action: " + str);
-                            }
-
-                            if (isDefault) {
-                                if (!aborted) {
-                                    mEventManager.setState(State.INVOKED);
-                                }
-
-                                mEventManager.injectInputEvent(keyEvent, KeyEvent.ACTION_MULTIPLE, 0, policyFlags);
-
-                            } else {
-                                if (invokeKeyCode <= 0) {
-                                    invokeKeyCode = mEventManager.getActionKeyCode(eventAction);
-                                }
-                                final Integer flags = mEventManager.fixPolicyFlags(invokeKeyCode,0);
-                                //Wake up if needed, let Android drop key if WAKE_DROPPED
-                                //Explicitly waking up seem to cause problems waking for some devices, if added should be for non-key only
-                                //mEventManager.handleScreen(ActionType.CLICK, mEventManager.isScreenOn(), mEventManager.getEventChangeTime(), flags);
-                                //Probably better to require the user to insert the wakeup with app shortcut
-
-                                if (invokeKeyCode > 0) {
-                                    mEventManager.invokeKey(invokeKeyCode, KeyEvent.ACTION_MULTIPLE, flags);
-                                } else {
-                                    mEventManager.handleEventAction(eventAction);
-                                }
-                                mEventManager.setState(State.INVOKED);
-                            }
-                        } else {
-                            if (Common.debug())
-                                Log.d(tag, "No action" + " timeout:" + timeoutExpired + " aborted:" + aborted + " " + mEventManager.stateName());
-                        }
-                    }
-                }
-
-                if (Common.debug())
-                    Log.d(tag, "Disabling default dispatching (" + mEventManager.stateName() + ")");
-
+            } else if (decision == Decision.REJECT) {
                 param.setResult(ORIGINAL.DISPATCHING_REJECT);
-
-                //end ongoing
-            } else if (Common.debug()) {
-				Log.w(tag, "Strange: This key/state is not handled by the module(" + mEventManager.stateName() + ") " + mEventManager.isDownEvent());
-			}
+            }
 		}
 		
 		@Override
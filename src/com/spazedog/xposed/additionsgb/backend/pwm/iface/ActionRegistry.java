@@ -0,0 +1,150 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.spazedog.xposed.additionsgb.Common;
+
+/*
+ * The handlers for the custom actions.
+ * Each action name is given a fixed id when first registered. The id is resolved
+ * when the configuration is loaded, so executing an action is a simple array lookup.
+ */
+public final class ActionRegistry {
+	private static final String TAG = ActionRegistry.class.getName();
+
+	public static final int NO_HANDLER = -1;
+
+	public static interface ActionHandler {
+		public void handle(String action);
+	}
+
+	private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+
+	private String[] mNames = new String[0];
+	private ActionHandler[] mHandlers = new ActionHandler[0];
+
+	//Execution statistics per action id
+	private int[] mCount = new int[0];
+	private long[] mTotalTime = new long[0];
+	private long[] mMaxTime = new long[0];
+
+	//Increased when a handler is added or removed, so cached ids can be resolved again
+	private volatile int mGeneration = 0;
+
+	/*
+	 * Add or replace the handler for an action. A null handler removes it.
+	 * Returns the id for the action.
+	 */
+	public synchronized int register(String name, ActionHandler handler) {
+		Integer id = mIds.get(name);
+
+		if (id == null) {
+			int length = mHandlers.length;
+
+			String[] names = new String[length + 1];
+			ActionHandler[] handlers = new ActionHandler[length + 1];
+			int[] count = new int[length + 1];
+			long[] totalTime = new long[length + 1];
+			long[] maxTime = new long[length + 1];
+
+			System.arraycopy(mNames, 0, names, 0, length);
+			System.arraycopy(mHandlers, 0, handlers, 0, length);
+			System.arraycopy(mCount, 0, count, 0, length);
+			System.arraycopy(mTotalTime, 0, totalTime, 0, length);
+			System.arraycopy(mMaxTime, 0, maxTime, 0, length);
+
+			names[length] = name;
+
+			mNames = names;
+			mHandlers = handlers;
+			mCount = count;
+			mTotalTime = totalTime;
+			mMaxTime = maxTime;
+
+			id = length;
+			mIds.put(name, id);
+		}
+
+		mHandlers[id] = handler;
+		mGeneration++;
+
+		return id;
+	}
+
+	/*
+	 * Returns the id for the action, or NO_HANDLER if no handler is registered
+	 */
+	public synchronized int getId(String name) {
+		Integer id = mIds.get(name);
+
+		return id != null && mHandlers[id] != null ? id : NO_HANDLER;
+	}
+
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/*
+	 * Execute the handler with the id. Returns false if there is no handler for it.
+	 */
+	public boolean invoke(int id, String action) {
+		ActionHandler handler;
+
+		synchronized (this) {
+			handler = id >= 0 && id < mHandlers.length ? mHandlers[id] : null;
+		}
+
+		if (handler == null) {
+			return false;
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			handler.handle(action);
+
+		} finally {
+			long time = System.nanoTime() - start;
+
+			synchronized (this) {
+				mCount[id]++;
+				mTotalTime[id] += time;
+
+				if (time > mMaxTime[id]) {
+					mMaxTime[id] = time;
+				}
+
+				if(Common.debug()) Log.d(TAG, "Executed '" + mNames[id] + "' in " + (time / 1000) + "us, average " + (mTotalTime[id] / mCount[id] / 1000) + "us, max " + (mMaxTime[id] / 1000) + "us over " + mCount[id] + " executions");
+			}
+		}
+
+		return true;
+	}
+
+	public synchronized int getExecutionCount(String name) {
+		Integer id = mIds.get(name);
+
+		return id != null ? mCount[id] : 0;
+	}
+
+	/*
+	 * The total execution time in nanoseconds
+	 */
+	public synchronized long getExecutionTime(String name) {
+		Integer id = mIds.get(name);
+
+		return id != null ? mTotalTime[id] : 0;
+	}
+
+	/*
+	 * The longest execution time in nanoseconds
+	 */
+	public synchronized long getMaxExecutionTime(String name) {
+		Integer id = mIds.get(name);
+
+		return id != null ? mMaxTime[id] : 0;
+	}
+}
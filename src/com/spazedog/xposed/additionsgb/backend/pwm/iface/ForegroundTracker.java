@@ -0,0 +1,102 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import android.content.ComponentName;
+import android.util.Log;
+
+import com.spazedog.lib.reflecttools.ReflectClass;
+import com.spazedog.lib.reflecttools.utils.ReflectException;
+import com.spazedog.xposed.additionsgb.Common;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+/*
+ * Keeps track of the focused task by hooking the Activity Manager,
+ * so that the foreground application can be found without asking for the task stack.
+ *
+ * Until the first focus change has been seen, or if the hook could not be added,
+ * there is no focused task and callers should use the task stack instead.
+ */
+final class ForegroundTracker {
+	private static final String TAG = ForegroundTracker.class.getName();
+
+	/*
+	 * The focused task at the time of a focus change. It is replaced as a whole,
+	 * so readers always get values from the same change.
+	 */
+	static final class FocusedTask {
+		private final int mTaskId;
+		private final String mPackageName;
+		private final String mBasePackageName;
+
+		FocusedTask(int taskId, String packageName, String basePackageName) {
+			mTaskId = taskId;
+			mPackageName = packageName;
+			mBasePackageName = basePackageName;
+		}
+
+		public int getTaskId() {
+			return mTaskId;
+		}
+
+		/*
+		 * The package of the focused activity
+		 */
+		public String getPackageName() {
+			return mPackageName;
+		}
+
+		/*
+		 * The package of the activity that started the focused task
+		 */
+		public String getBasePackageName() {
+			return mBasePackageName;
+		}
+	}
+
+	private volatile FocusedTask mFocusedTask;
+
+	ForegroundTracker() {
+		try {
+			ReflectClass.forName("com.android.server.am.ActivityManagerService").inject("setFocusedActivityLocked", hook_setFocusedActivity);
+
+		} catch (ReflectException e) {
+			Log.e(TAG, e.getMessage(), e);
+		}
+	}
+
+	protected XC_MethodHook hook_setFocusedActivity = new XC_MethodHook() {
+		@Override
+		protected final void afterHookedMethod(final MethodHookParam param) {
+			if (param.args.length > 0 && param.args[0] != null) {
+				try {
+					ReflectClass activity = ReflectClass.forReceiver(param.args[0]);
+					ReflectClass task = activity.findField("task").getValueToInstance();
+					ComponentName realActivity = (ComponentName) task.findField("realActivity").getValue();
+					String packageName = (String) activity.findField("packageName").getValue();
+					String basePackageName = realActivity != null ? realActivity.getPackageName() : packageName;
+
+					/*
+					 * The stack lookup also skips tasks started by the System UI, like the recent applications screen
+					 */
+					if (!"com.android.systemui".equals(basePackageName)) {
+						FocusedTask focusedTask = new FocusedTask((Integer) task.findField("taskId").getValue(), packageName, basePackageName);
+
+						mFocusedTask = focusedTask;
+
+						if(Common.debug()) Log.d(TAG, "The focused task is now " + focusedTask.getTaskId() + " (" + focusedTask.getPackageName() + ")");
+					}
+
+				} catch (ReflectException e) {
+					Log.e(TAG, e.getMessage(), e);
+				}
+			}
+		}
+	};
+
+	/*
+	 * The focused task, or null if it is not known
+	 */
+	public FocusedTask getFocusedTask() {
+		return mFocusedTask;
+	}
+}
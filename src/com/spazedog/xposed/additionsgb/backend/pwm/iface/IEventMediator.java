@@ -1,9 +1,11 @@
 package com.spazedog.xposed.additionsgb.backend.pwm.iface;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.dinglisch.android.tasker.TaskerIntent;
 import android.annotation.SuppressLint;
@@ -20,6 +22,7 @@ import android.os.PowerManager;
 import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.HapticFeedbackConstants;
 import android.view.InputDevice;
 import android.view.KeyCharacterMap;
@@ -30,7 +33,9 @@ import android.widget.Toast;
 import com.spazedog.lib.reflecttools.ReflectClass;
 import com.spazedog.lib.reflecttools.utils.ReflectException;
 import com.spazedog.xposed.additionsgb.Common;
+import com.spazedog.xposed.additionsgb.backend.pwm.ParsedAction;
 import com.spazedog.xposed.additionsgb.backend.pwm.PhoneWindowManager;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.ActionRegistry.ActionHandler;
 import com.spazedog.xposed.additionsgb.backend.pwm.iface.IMediatorSetup.SDK;
 import com.spazedog.xposed.additionsgb.backend.service.XServiceManager;
 import com.spazedog.xposed.additionsgb.configs.Settings;
@@ -40,9 +45,15 @@ public abstract class IEventMediator extends IMediatorSetup {
 	public static enum ActionType { CLICK, PRESS }
 	public static enum StackAction { EXLUDE_HOME, INCLUDE_HOME, JUMP_HOME }
 	
-	@SuppressLint("UseSparseArrays")
-	//Suppress lint, small array no difference
-	private Map<Integer, Boolean> mDeviceIds = new HashMap<Integer, Boolean>();
+	private static final List<String> BUILTIN_ACTIONS = Arrays.asList("disabled", "torch", "powermenu", "recentapps", "screenshot",
+			"flipleft", "flipright", "fliptoggle", "previousapp", "killapp", "guarddismiss");
+
+	protected final ActionRegistry mActionRegistry = new ActionRegistry();
+
+	//The names of the registered external actions
+	private final Set<String> mExternalActions = new HashSet<String>();
+
+	private SparseBooleanArray mDeviceIds = new SparseBooleanArray();
 	private ArrayList<String> mDeviceTypes;
 	
 	private Runnable mPowerHardResetVibrateRunnable = new Runnable(){
@@ -64,22 +75,25 @@ public abstract class IEventMediator extends IMediatorSetup {
 
 	protected IEventMediator(ReflectClass pwm, XServiceManager xServiceManager) {
 		super(pwm, xServiceManager);
+
+		registerActions();
+		registerExternalActions();
 	}
 
-	public Boolean validateDeviceType(Object event) {
+	public boolean validateDeviceType(Object event) {
 		/*
 		 * Gingerbread has no access to the KeyEvent in the intercept method.
 		 * Instead we parse the keycode on these versions and skip the first check here. 
 		 */
 		KeyEvent keyEvent = event instanceof KeyEvent ? (KeyEvent) event : null;
-		Integer keyCode = event instanceof KeyEvent ? keyEvent.getKeyCode() : (Integer) event;
+		int keyCode = keyEvent != null ? keyEvent.getKeyCode() : (Integer) event;
 		
 		/*
 		 * Older Android version does not parse the KeyEvent object to the PhoneWindowManager class.
 		 * For these we validate individual key codes instead. Not as exact, but is does the job in most cases. 
 		 */
-		Integer deviceId = keyEvent != null ? keyEvent.getDeviceId() : keyCode;
-		Integer allowExternals = -2;
+		int deviceId = keyEvent != null ? keyEvent.getDeviceId() : keyCode;
+		int allowExternals = -2;
 		
 		/*
 		 * If the settings change, we have to re-validate the keys
@@ -91,17 +105,19 @@ public abstract class IEventMediator extends IMediatorSetup {
 			}
 			
 		} else {
-			if (!mDeviceIds.containsKey(allowExternals) || !mDeviceIds.get(allowExternals).equals(mXServiceManager.getBoolean(Settings.REMAP_ALLOW_EXTERNALS))) {
+			boolean allow = mXServiceManager.getBoolean(Settings.REMAP_ALLOW_EXTERNALS);
+			
+			if (mDeviceIds.indexOfKey(allowExternals) < 0 || mDeviceIds.get(allowExternals) != allow) {
 				mDeviceIds.clear();
-				mDeviceIds.put(allowExternals, mXServiceManager.getBoolean(Settings.REMAP_ALLOW_EXTERNALS));
+				mDeviceIds.put(allowExternals, allow);
 			}
 		}
 		
-		if (!mDeviceIds.containsKey(deviceId)) {
-			Boolean validated = true;
+		if (mDeviceIds.indexOfKey(deviceId) < 0) {
+			boolean validated = true;
 			
 			if (keyEvent != null && keyEvent.getDeviceId() != -1) {
-				Integer source = keyEvent.getSource();
+				int source = keyEvent.getSource();
 				InputDevice device = keyEvent.getDevice();
 				
 				/*
@@ -133,7 +149,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 						/*
 						 * @Google get a grip, this method should be publicly accessible. Makes no sense to hide it.
 						 */
-						validated = device == null || (Boolean) mMethods.get("isDeviceExternal").invokeReceiver(device);
+						validated = device == null || isDeviceExternal(device);
 
                     } catch (NullPointerException e) {
                         Log.e(TAG, e.getMessage(), e);
@@ -152,10 +168,10 @@ public abstract class IEventMediator extends IMediatorSetup {
 		return mDeviceIds.get(deviceId);
 	}
 	
-    public void injectInputEvent(KeyEvent keyEvent, Integer action, Integer repeatCount, Integer flags) {
+    public void injectInputEvent(KeyEvent keyEvent, int action, int repeatCount, int flags) {
         //ACTION_MULTIPLE is really abuse of the action, but calling code is shorter...
-        Integer[] actions = action == KeyEvent.ACTION_MULTIPLE ? new Integer[]{KeyEvent.ACTION_DOWN, KeyEvent.ACTION_UP} : new Integer[]{action};
-        Long time = SystemClock.uptimeMillis();
+        int firstAction = action == KeyEvent.ACTION_MULTIPLE ? KeyEvent.ACTION_DOWN : action;
+        long time = SystemClock.uptimeMillis();
 
         if ((flags & KeyEvent.FLAG_FROM_SYSTEM) == 0)
             flags |= KeyEvent.FLAG_FROM_SYSTEM;
@@ -171,12 +187,14 @@ public abstract class IEventMediator extends IMediatorSetup {
 
         keyEvent = KeyEvent.changeTimeRepeat(keyEvent, time, repeatCount, flags);
 
-        for (Integer keyAction: actions) {
-            if (keyEvent.getAction() != keyAction) {
-                keyEvent = KeyEvent.changeAction(keyEvent, keyAction);
-            }
+        if (keyEvent.getAction() != firstAction) {
+            keyEvent = KeyEvent.changeAction(keyEvent, firstAction);
+        }
+
+        injectInputEvent(keyEvent);
 
-            injectInputEvent(keyEvent);
+        if (action == KeyEvent.ACTION_MULTIPLE) {
+            injectInputEvent(KeyEvent.changeAction(keyEvent, KeyEvent.ACTION_UP));
         }
     }
 
@@ -184,12 +202,7 @@ public abstract class IEventMediator extends IMediatorSetup {
     public void injectInputEvent(KeyEvent keyEvent) {
         synchronized (PhoneWindowManager.class) {
             try {
-                if (SDK.MANAGER_HARDWAREINPUT_VERSION > 1) {
-                    mMethods.get("injectInputEvent").invoke(keyEvent, ORIGINAL.INPUT_MODE_ASYNC);
-
-                } else {
-                    mMethods.get("injectInputEvent").invoke(keyEvent);
-                }
+                injectInputEvent(keyEvent, SDK.MANAGER_HARDWAREINPUT_VERSION > 1 ? ORIGINAL.INPUT_MODE_ASYNC : 0);
 
             } catch (ReflectException e) {
                 Log.e(TAG, e.getMessage(), e);
@@ -197,21 +210,22 @@ public abstract class IEventMediator extends IMediatorSetup {
         }
     }
 
-	public void performHapticFeedback(KeyEvent keyEvent, Integer type, Integer policyFlags) {
+	/*
+	 * The values below are read from the pre-processed configuration, as they are needed for each key event
+	 */
+	protected abstract int getHardResetTimeout();
+	
+	protected abstract boolean isForcedHaptic(int keyCode);
+	
+	public void performHapticFeedback(KeyEvent keyEvent, int type, int policyFlags) {
 		try {
 			if (type == HapticFeedbackConstants.VIRTUAL_KEY) {
-				List<String> forcedKeys = mXServiceManager.getStringArray(Settings.REMAP_LIST_FORCED_HAPTIC, null);
-				Integer keyCode = 0;
-                if (keyEvent != null) {
-                    keyCode = keyEvent.getKeyCode();
-                }
-				
-				if (forcedKeys == null || !forcedKeys.contains(""+keyCode)) {
+				if (!isForcedHaptic(keyEvent != null ? keyEvent.getKeyCode() : 0)) {
 					if (SDK.SAMSUNG_FEEDBACK_VERSION == 1) {
-						mMethods.get("samsung.performSystemKeyFeedback").invokeOriginal(keyEvent); return;
+						mSamsungPerformSystemKeyFeedback.invokeOriginal(keyEvent); return;
 						
 					} else if (SDK.SAMSUNG_FEEDBACK_VERSION == 2) {
-						mMethods.get("samsung.performSystemKeyFeedback").invokeOriginal(keyEvent, false, true); return;
+						mSamsungPerformSystemKeyFeedback.invokeOriginal(keyEvent, false, true); return;
 						
 					} else if ((policyFlags & ORIGINAL.FLAG_VIRTUAL) == 0) {
 						return;
@@ -219,7 +233,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 				}
 			}
 			
-			mMethods.get("performHapticFeedback").invokeOriginal(null, type, false);
+			mPerformHapticFeedback.invokeOriginal(null, type, false);
 			
 		} catch (ReflectException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -238,10 +252,10 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-	public void pokeUserActivity(Long time, Boolean forced) {
+	public void pokeUserActivity(long time, boolean forced) {
 		if (forced) {
 			if (SDK.MANAGER_POWER_VERSION > 1) {
-				mMethods.get("wakeUp").invoke(time);
+				mWakeUp.invoke(time);
 				
 			} else {
 				/*
@@ -251,7 +265,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 				 * turns on the screen when you plug in your USB cable.
 				 */
 				try {
-					mMethods.get("forceUserActivityLocked").invoke();
+					mForceUserActivityLocked.invoke();
 					
 				} catch (ReflectException e) {
 					Log.e(TAG, e.getMessage(), e);
@@ -264,42 +278,42 @@ public abstract class IEventMediator extends IMediatorSetup {
 			}
 			
 			if (SDK.MANAGER_POWER_VERSION == 1) {
-				mMethods.get("userActivity").invoke(time, true);
+				mUserActivity.invoke(time, true);
 				
 			} else {
-				mMethods.get("userActivity").invoke(time, 0, 1 << 0);
+				mUserActivity.invoke(time, 0, 1 << 0);
 			}
 		}
 	}
 	
 	@SuppressLint("NewApi")
-	public void changeDisplayState(Long time, Boolean on) {
+	public void changeDisplayState(long time, boolean on) {
 		if (on) {
 			pokeUserActivity(time, true);
 			
 		} else {
 			if (SDK.MANAGER_POWER_VERSION > 3) {
-				mMethods.get("goToSleep").invoke(time, 4, 0);
+				mGoToSleep.invoke(time, 4, 0);
 				
 			} else if (SDK.MANAGER_POWER_VERSION > 1) {
-				mMethods.get("goToSleep").invoke(time, 0);
+				mGoToSleep.invoke(time, 0);
 				
 			} else {
-				mMethods.get("goToSleep").invoke(time);
+				mGoToSleep.invoke(time);
 			}
 		}
 	}
 	
-	public void powerHardResetTimer(Integer keyCode, Boolean isKeyDown, int pressTimeout) {
-		Integer delay = mXServiceManager.getInt(Settings.REMAP_TIMEOUT_HARD_RESET, 15000);
+	public void powerHardResetTimer(int keyCode, boolean isKeyDown, int pressTimeout) {
+		int delay = getHardResetTimeout();
 		if (delay > 0) {
-			if (keyCode.equals(KeyEvent.KEYCODE_POWER) && isKeyDown) {
+			if (keyCode == KeyEvent.KEYCODE_POWER && isKeyDown) {
                 //Set the vibrate warning quite late, after possible feedback
 				int vibrateDelay = delay * 3/4;
 				if (vibrateDelay < delay && vibrateDelay > 3*pressTimeout) {
 					mHandler.postDelayed(mPowerHardResetVibrateRunnable, vibrateDelay);
 				}
-				Log.d(TAG, "Rebooting in " + delay + "ms (if no other key events)");
+				if(Common.debug()) Log.d(TAG, "Rebooting in " + delay + "ms (if no other key events)");
 				mHandler.postDelayed(mPowerHardResetRunnable, delay);
 
 			} else {
@@ -310,20 +324,13 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 
 	public Boolean isKeyguardShowing() {
-		try {
-			return (Boolean) mMethods.get("KeyguardMediator.isShowing").invoke();
-			
-		} catch (ReflectException e) {
-			Log.e(TAG, e.getMessage(), e);
-		}
-		
-		return false;
+		return mKeyguardState.isShowing();
 	}
 	
 	public Boolean isKeyguardLockedAndInsecure() {
 		if (isKeyguardLocked()) {
 			try {
-				return !((Boolean) mMethods.get("KeyguardMediator.isRestricted").invoke());
+				return !((Boolean) mKeyguardIsRestricted.invoke());
 				
 			} catch (ReflectException e) {
 				Log.e(TAG, e.getMessage(), e);
@@ -334,20 +341,13 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public Boolean isKeyguardLocked() {
-		try {
-			return (Boolean) mMethods.get("KeyguardMediator.isLocked").invoke();
-			
-		} catch (ReflectException e) {
-			Log.e(TAG, e.getMessage(), e);
-		}
-		
-		return false;
+		return mKeyguardState.isLocked();
 	}
 	
 	public void keyGuardDismiss() {
 		if (isKeyguardLocked()) {
 			try {
-				mMethods.get("KeyguardMediator.dismiss").invoke(false, true);
+				mKeyguardDismiss.invoke(false, true);
 				
 			} catch (ReflectException e) {
 				Log.e(TAG, e.getMessage(), e);
@@ -380,6 +380,19 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public String getPackageNameFromStack(Integer stack, StackAction action) {
+		/*
+		 * The focused task is tracked, so the task stack is only needed for older tasks
+		 */
+		ForegroundTracker.FocusedTask focusedTask = stack == 0 && action != StackAction.JUMP_HOME ? mForegroundTracker.getFocusedTask() : null;
+		
+		if (focusedTask != null) {
+			if (action == StackAction.INCLUDE_HOME || !focusedTask.getBasePackageName().equals(getHomePackage())) {
+				return focusedTask.getPackageName();
+			}
+			
+			return null;
+		}
+		
 		ActivityManager.RunningTaskInfo pkg = getPackageFromStack(stack, action);
 		
 		return pkg != null ? pkg.topActivity.getPackageName() : null;
@@ -406,15 +419,15 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public Object getUserInstance() {
-		return mConstructors.get("UserHandle").invoke(
-				mFields.get("UserHandle.current").getValue()
+		return mUserHandleConstructor.invoke(
+				mUserHandleCurrent.getValue()
 		);
 	}
 
 	public void launchIntent(Intent intent) {
 		if (SDK.MANAGER_MULTIUSER_VERSION > 0) {
 			try {
-				mMethods.get("startActivityAsUser").invoke(intent, getUserInstance());
+				mStartActivityAsUser.invoke(intent, getUserInstance());
 				
 			} catch (ReflectException e) {
 				Log.e(TAG, e.getMessage(), e);
@@ -449,9 +462,13 @@ public abstract class IEventMediator extends IMediatorSetup {
 	
 
     @SuppressLint("InlinedApi")
-    void launchUri(String uri) {
+    void launchShortcut(Intent intent) {
+        if (intent == null) {
+            Log.e(TAG, "Invalid shortcut, the URI could not be parsed");
+            return;
+        }
+
         try {
-            Intent intent = Intent.parseUri(uri, Intent.URI_INTENT_SCHEME);
             if (SDK.FLAG_ACTIVITY_VERSION > 1) {
                 intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
             } else {
@@ -461,7 +478,7 @@ public abstract class IEventMediator extends IMediatorSetup {
             launchIntent(intent);
         }
         catch (Exception e) {
-            Log.e(TAG, "Parse URI exception!"+e.getMessage(), e);
+            Log.e(TAG, "Launch shortcut exception!"+e.getMessage(), e);
         }
     }
 
@@ -484,6 +501,14 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void killForegroundApplication() {
+		resolveActionTools();
+		
+		if (mForceStopPackage == null) {
+			Log.e(TAG, "Cannot force stop the application, IActivityManager.forceStopPackage() is missing");
+			
+			return;
+		}
+		
 		String packageName = getPackageNameFromStack(0, StackAction.EXLUDE_HOME);
 		
 		if (packageName != null) {
@@ -491,10 +516,10 @@ public abstract class IEventMediator extends IMediatorSetup {
 			
 			try {
 				if (SDK.MANAGER_MULTIUSER_VERSION > 0) {
-					mMethods.get("forceStopPackage").invoke(packageName, mFields.get("UserHandle.current").getValue());
+					mForceStopPackage.invoke(packageName, mUserHandleCurrent.getValue());
 
 				} else {
-					mMethods.get("forceStopPackage").invoke(packageName);
+					mForceStopPackage.invoke(packageName);
 				}
 				
 			} catch (ReflectException e) {
@@ -506,7 +531,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 	public void sendBroadcast(Intent intent) {
 		if (SDK.MANAGER_MULTIUSER_VERSION > 0) {
 			try {
-				mMethods.get("sendBroadcastAsUser").invoke(intent, getUserInstance());
+				mSendBroadcastAsUser.invoke(intent, getUserInstance());
 				
 			} catch (ReflectException e) {
 				Log.e(TAG, e.getMessage(), e);
@@ -518,6 +543,8 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 
     public void toggleFlashLight() {
+		resolveActionTools();
+		
 		if (mTorchIntent != null) {
 			if (Common.TORCH_INTENT_ACTION.equals(mTorchIntent.getAction())) {
 				if(Common.debug()) Log.d(TAG, "Toggling native Torch service");
@@ -533,10 +560,16 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void sendCloseSystemWindows(String reason) {
+		resolveActionTools();
+		
+		if (mCloseSystemDialogs == null) {
+			return;
+		}
+		
 		if(Common.debug()) Log.d(TAG, "Closing all system windows");
 		
 		try {
-			mMethods.get("closeSystemDialogs").invoke(reason);
+			mCloseSystemDialogs.invoke(reason);
 			
 		} catch (ReflectException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -544,16 +577,24 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void openGlobalActionsDialog() {
+		resolveActionTools();
+		
+		if (mShowGlobalActionsDialogCustom == null && mShowGlobalActionsDialog == null) {
+			Log.e(TAG, "Cannot open the Global Actions Dialog, PhoneWindowManager.showGlobalActionsDialog() is missing");
+			
+			return;
+		}
+		
 		if(Common.debug()) Log.d(TAG, "Invoking Global Actions Dialog");
 		
 		sendCloseSystemWindows("globalactions");
 		
 		try {
-			if (mMethods.containsKey("showGlobalActionsDialog.custom")) {
-				mMethods.get("showGlobalActionsDialog.custom").invoke(true);
+			if (mShowGlobalActionsDialogCustom != null) {
+				mShowGlobalActionsDialogCustom.invoke(true);
 				
 			} else {
-				mMethods.get("showGlobalActionsDialog").invoke();
+				mShowGlobalActionsDialog.invoke();
 			}
 			
 		} catch (ReflectException e) {
@@ -562,12 +603,20 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void openRecentAppsDialog() {
+		resolveActionTools();
+		
+		if (mToggleRecentApps == null) {
+			Log.e(TAG, "Cannot open the Recent Application Dialog, the toggle method is missing");
+			
+			return;
+		}
+		
 		if(Common.debug()) Log.d(TAG, "Invoking Recent Application Dialog");
 		
 		sendCloseSystemWindows("recentapps");
 		
 		try {
-			mMethods.get("toggleRecentApps").invoke();
+			mToggleRecentApps.invoke();
 			
 		} catch (ReflectException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -575,8 +624,16 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void takeScreenshot() {
+		resolveActionTools();
+		
+		if (mTakeScreenshot == null) {
+			Log.e(TAG, "Cannot take a screenshot, PhoneWindowManager.takeScreenshot() is missing");
+			
+			return;
+		}
+		
 		try {
-			mMethods.get("takeScreenshot").invoke();
+			mTakeScreenshot.invoke();
 			
 		} catch (ReflectException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -584,8 +641,13 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public void freezeRotation(Integer orientation) {
+		resolveActionTools();
+		
 		if (SDK.MANAGER_ROTATION_VERSION > 1) {
-			if (orientation != 1) {
+			if (mFreezeRotation == null || mThawRotation == null) {
+				Log.e(TAG, "Cannot change the rotation, IWindowManager.freezeRotation() or thawRotation() is missing");
+				
+			} else if (orientation != 1) {
 				switch (orientation) {
 					case 90: orientation = Surface.ROTATION_90; break;
 					case 180: orientation = Surface.ROTATION_180; break;
@@ -593,7 +655,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 				}
 				
 				try {
-					mMethods.get("freezeRotation").invoke(orientation);
+					mFreezeRotation.invoke(orientation);
 					
 				} catch (ReflectException e) {
 					Log.e(TAG, e.getMessage(), e);
@@ -601,7 +663,7 @@ public abstract class IEventMediator extends IMediatorSetup {
 				
 			} else {
 				try {
-					mMethods.get("thawRotation").invoke();
+					mThawRotation.invoke();
 					
 				} catch (ReflectException e) {
 					Log.e(TAG, e.getMessage(), e);
@@ -618,8 +680,14 @@ public abstract class IEventMediator extends IMediatorSetup {
 	}
 	
 	public Integer getCurrentRotation() {
+		resolveActionTools();
+		
+		if (mGetRotation == null) {
+			return 0;
+		}
+		
 		try {
-			return (Integer) mMethods.get("getRotation").invoke();
+			return (Integer) mGetRotation.invoke();
 
 		} catch (ReflectException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -644,21 +712,13 @@ public abstract class IEventMediator extends IMediatorSetup {
 				res.activityInfo.packageName : "com.android.launcher";
 	}
 	
-	public Boolean isWakeKeyWhenScreenOff(Integer keyCode) {
-		if (mMethods.get("isWakeKeyWhenScreenOff") != null) {
-			return (Boolean) mMethods.get("isWakeKeyWhenScreenOff").invoke(keyCode);
-		}
-		
-		return true;
-	}
-	
-	public Integer fixPolicyFlags(Integer keyCode, Integer policyFlags) {
-		if (!keyCode.equals(KeyEvent.KEYCODE_POWER) 
+	public int fixPolicyFlags(int keyCode, int policyFlags) {
+		if (keyCode != KeyEvent.KEYCODE_POWER 
 				&& !isWakeKeyWhenScreenOff(keyCode)
 				&& (policyFlags & ORIGINAL.FLAG_WAKE_DROPPED) != 0) {
 					policyFlags &= ~ORIGINAL.FLAG_WAKE_DROPPED;
 			
-		} else if ((keyCode.equals(KeyEvent.KEYCODE_POWER) || isWakeKeyWhenScreenOff(keyCode)) &&
+		} else if ((keyCode == KeyEvent.KEYCODE_POWER || isWakeKeyWhenScreenOff(keyCode)) &&
                 (policyFlags & ORIGINAL.FLAG_WAKE_DROPPED) == 0) {
 			policyFlags |= ORIGINAL.FLAG_WAKE_DROPPED;
 		}
@@ -682,79 +742,179 @@ public abstract class IEventMediator extends IMediatorSetup {
         return false;
     }
 
-    public Integer getActionKeyCode(String action) {
-        String[] actions = Common.actionParse(action);
-        String type = actions[0];
-        Integer keyCode;
-        if ("dispatch".equals(type)) {
-            keyCode = Integer.parseInt(action);
-        } else {
-            keyCode = 0;
+    public int getActionKeyCode(ParsedAction action) {
+        return action.getKeyCode();
+    }
+
+    public ActionRegistry getActionRegistry() {
+        return mActionRegistry;
+    }
+
+    /*
+     * Custom actions added by other modules through the XService, stored as "package/intentAction".
+     * The action is sent as a broadcast to the package with the action name as the "action" extra.
+     */
+    private boolean registerExternalAction(String name, String handler) {
+        int pos = handler != null ? handler.indexOf('/') : -1;
+
+        if (!ParsedAction.isCustomName(name) || BUILTIN_ACTIONS.contains(name) || pos <= 0) {
+            Log.e(TAG, "Ignoring the invalid external action '" + name + "' (" + handler + ")");
+
+            return false;
+        }
+
+        final String packageName = handler.substring(0, pos);
+        final String intentAction = handler.substring(pos + 1);
+
+        if(Common.debug()) Log.d(TAG, "Registering external action '" + name + "' (" + intentAction + " in " + packageName + ")");
+
+        mActionRegistry.register(name, new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                Intent intent = new Intent(intentAction);
+                intent.setPackage(packageName);
+                intent.putExtra("action", action);
+
+                sendBroadcast(intent);
+            }
+        });
+
+        return true;
+    }
+
+    private void registerActions() {
+        mActionRegistry.register("disabled", new ActionHandler() {
+            @Override
+            public void handle(String action) {}
+        });
+
+        mActionRegistry.register("torch", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                toggleFlashLight();
+            }
+        });
+
+        mActionRegistry.register("powermenu", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                openGlobalActionsDialog();
+            }
+        });
+
+        mActionRegistry.register("recentapps", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                openRecentAppsDialog();
+            }
+        });
+
+        mActionRegistry.register("screenshot", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                takeScreenshot();
+            }
+        });
+
+        mActionRegistry.register("flipleft", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                freezeRotation( getNextRotation(true) );
+            }
+        });
+
+        mActionRegistry.register("flipright", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                freezeRotation( getNextRotation(false) );
+            }
+        });
+
+        mActionRegistry.register("fliptoggle", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                if (isRotationLocked()) {
+                    Toast.makeText((Context) mContext.getReceiver(), "Rotation has been Enabled", Toast.LENGTH_SHORT).show();
+                    freezeRotation(1);
+
+                } else {
+                    Toast.makeText((Context) mContext.getReceiver(), "Rotation has been Disabled", Toast.LENGTH_SHORT).show();
+                    freezeRotation(-1);
+                }
+            }
+        });
+
+        mActionRegistry.register("previousapp", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                togglePreviousApplication();
+            }
+        });
+
+        mActionRegistry.register("killapp", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                killForegroundApplication();
+            }
+        });
+
+        mActionRegistry.register("guarddismiss", new ActionHandler() {
+            @Override
+            public void handle(String action) {
+                keyGuardDismiss();
+            }
+        });
+    }
+
+    /*
+     * Read the external actions from the XService and replace the registered ones
+     */
+    public void registerExternalActions() {
+        Map<String, String> actions = mXServiceManager.getActionHandlers();
+
+        if (actions != null) {
+            synchronized (mExternalActions) {
+                for (String name : mExternalActions) {
+                    if (!actions.containsKey(name)) {
+                        mActionRegistry.register(name, null);
+                    }
+                }
+
+                mExternalActions.clear();
+
+                for (Map.Entry<String, String> entry : actions.entrySet()) {
+                    if (registerExternalAction(entry.getKey(), entry.getValue())) {
+                        mExternalActions.add(entry.getKey());
+                    }
+                }
+            }
         }
-        return keyCode;
     }
 
-    public void handleEventAction(final String actionString) {
+    public void handleEventAction(final ParsedAction parsedAction) {
 		/*
 		 * This should always be wrapped and sent to a handler. 
 		 * If this is executed directly, some of the actions will crash with the error 
 		 * -> 'Can't create handler inside thread that has not called Looper.prepare()'
 		 */
 
-        String[] actions = Common.actionParse(actionString);
-        final String type = actions[0];
-        final String action = actions[1];
+        final ParsedAction.Type type = parsedAction.getType();
+        final String action = parsedAction.getPayload();
         mHandler.post(new Runnable() {
 			public void run() {
-				if ("launcher".equals(type)) {
+				if (type == ParsedAction.Type.LAUNCHER) {
 					launchPackage(action);
 					
-				} else if ("custom".equals(type)) {
-					if (!"disabled".equals(action)) {
-						if ("torch".equals(action)) {
-							toggleFlashLight();
-							
-						} else if ("powermenu".equals(action)) {
-							openGlobalActionsDialog();	
-							
-						} else if ("recentapps".equals(action)) {
-							openRecentAppsDialog();
-							
-						} else if ("screenshot".equals(action)) {
-							takeScreenshot();
-							
-						} else if ("flipleft".equals(action)) {
-							freezeRotation( getNextRotation(true) );
-							
-						} else if ("flipright".equals(action)) {
-							freezeRotation( getNextRotation(false) );
-							
-						} else if ("fliptoggle".equals(action)) {
-							if (isRotationLocked()) {
-								Toast.makeText((Context) mContext.getReceiver(), "Rotation has been Enabled", Toast.LENGTH_SHORT).show();
-								freezeRotation(1);
-								
-							} else {
-								Toast.makeText((Context) mContext.getReceiver(), "Rotation has been Disabled", Toast.LENGTH_SHORT).show();
-								freezeRotation(-1);
-							}
-							
-						} else if ("previousapp".equals(action)) {
-							togglePreviousApplication();
-							
-						} else if ("killapp".equals(action)) {
-							killForegroundApplication();
-							
-						} else if ("guarddismiss".equals(action)) {
-							keyGuardDismiss();
-						}
+				} else if (type == ParsedAction.Type.CUSTOM) {
+					if (!mActionRegistry.invoke(parsedAction.getHandlerId(), action)) {
+						Log.d(TAG, "No handler for the action: "+action);
 					}
 
-                } else if ("tasker".equals(type)) {
+                } else if (type == ParsedAction.Type.TASKER) {
                     sendBroadcast(new TaskerIntent(action));
 
-                } else if ("shortcut".equals(type)) {
-                    launchUri(action);
+                } else if (type == ParsedAction.Type.SHORTCUT) {
+                    launchShortcut(parsedAction.getIntent());
 
                 }
                 else {
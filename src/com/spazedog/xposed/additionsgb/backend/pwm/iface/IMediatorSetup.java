@@ -1,8 +1,8 @@
 package com.spazedog.xposed.additionsgb.backend.pwm.iface;
 
-import java.util.HashMap;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.List;
-import java.util.Map;
 
 import android.content.Context;
 import android.content.Intent;
@@ -12,7 +12,9 @@ import android.content.pm.ResolveInfo;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.InputDevice;
 import android.view.KeyEvent;
 
 import com.spazedog.lib.reflecttools.ReflectClass;
@@ -40,24 +42,33 @@ public abstract class IMediatorSetup {
 	 */
 	public static final class SDK {
 		private static Integer calcSamsungAPI() {
-			ReflectClass spwm = ReflectClass.forName("com.android.internal.policy.impl.sec.SamsungPhoneWindowManager", Match.SUPPRESS);
-
-			if (spwm.exists()) {
-				return spwm.findMethod("performSystemKeyFeedback", Match.SUPPRESS, KeyEvent.class).exists() ? 1 :
+			Integer version = ProbeCache.getInt("SAMSUNG_FEEDBACK_VERSION");
+			
+			if (version == null) {
+				ReflectClass spwm = ReflectClass.forName("com.android.internal.policy.impl.sec.SamsungPhoneWindowManager", Match.SUPPRESS);
+				
+				version = !spwm.exists() ? 0 : 
+					spwm.findMethod("performSystemKeyFeedback", Match.SUPPRESS, KeyEvent.class).exists() ? 1 :
 					spwm.findMethod("performSystemKeyFeedback", Match.SUPPRESS, KeyEvent.class, Boolean.TYPE, Boolean.TYPE).exists() ? 2 : 0;
+				
+				ProbeCache.putInt("SAMSUNG_FEEDBACK_VERSION", version);
 			}
 
-			return 0;
+			return version;
 		}
 
 		private static Integer calcInputDeviceAIP() {
-			ReflectClass id = ReflectClass.forName("android.view.InputDevice", Match.SUPPRESS);
-
-			if (id.exists() && id.findMethod("isExternal", Match.SUPPRESS, KeyEvent.class).exists()) {
-				return 2;
+			Integer version = ProbeCache.getInt("INPUT_DEVICESTORAGE_VERSION");
+			
+			if (version == null) {
+				ReflectClass id = ReflectClass.forName("android.view.InputDevice", Match.SUPPRESS);
+				
+				version = id.exists() && id.findMethod("isExternal", Match.SUPPRESS, KeyEvent.class).exists() ? 2 : 1;
+				
+				ProbeCache.putInt("INPUT_DEVICESTORAGE_VERSION", version);
 			}
 
-			return 1;
+			return version;
 		}
 
 		/*
@@ -178,11 +189,58 @@ public abstract class IMediatorSetup {
 	protected ReflectClass mAudioManager;
 	protected ReflectClass mRecentApplicationsDialog;				// com.android.internal.policy.impl.RecentApplicationsDialog or com.android.internal.statusbar.IStatusBarService
 	
+	protected ForegroundTracker mForegroundTracker;
+	protected KeyguardState mKeyguardState;
+	
 	protected Boolean mReady = false;
 	
-	protected Map<String, ReflectConstructor> mConstructors = new HashMap<String, ReflectConstructor>();
-	protected Map<String, ReflectMethod> mMethods = new HashMap<String, ReflectMethod>();
-	protected Map<String, ReflectField> mFields = new HashMap<String, ReflectField>();
+	/*
+	 * The hidden members are resolved once in the constructor. Optional members are null 
+	 * when they are not available on the device. 
+	 */
+	protected ReflectMethod mInjectInputEvent;						// injectInputEvent(KeyEvent, int) or injectInputEventNoWait(KeyEvent)
+	protected ReflectMethod mIsDeviceExternal;						// InputDevice.isExternal()
+	protected ReflectMethod mPerformHapticFeedback;
+	protected ReflectMethod mSamsungPerformSystemKeyFeedback;
+	protected ReflectMethod mIsWakeKeyWhenScreenOff;				// Optional
+	
+	protected ReflectMethod mKeyguardIsShowing;
+	protected ReflectMethod mKeyguardIsLocked;
+	protected ReflectMethod mKeyguardIsRestricted;
+	protected ReflectMethod mKeyguardDismiss;
+	
+	protected ReflectMethod mGoToSleep;
+	protected ReflectMethod mUserActivity;
+	protected ReflectMethod mForceUserActivityLocked;
+	protected ReflectMethod mWakeUp;
+	
+	protected ReflectConstructor mUserHandleConstructor;
+	protected ReflectField mUserHandleCurrent;
+	protected ReflectMethod mStartActivityAsUser;
+	protected ReflectMethod mSendBroadcastAsUser;
+	
+	protected ReflectMethod mCloseSystemDialogs;
+	protected ReflectMethod mShowGlobalActionsDialog;				// Optional
+	protected ReflectMethod mShowGlobalActionsDialogCustom;			// Optional, showGlobalActionsDialog(boolean)
+	protected ReflectMethod mToggleRecentApps;
+	protected ReflectMethod mTakeScreenshot;						// Optional
+	protected ReflectMethod mForceStopPackage;
+	
+	protected ReflectMethod mGetRotation;
+	protected ReflectMethod mFreezeRotation;
+	protected ReflectMethod mThawRotation;
+	
+	/*
+	 * The members used on every key event are also kept as plain methods for the typed wrappers below
+	 */
+	private Method mInjectInputEventMethod;
+	private Object mInjectInputEventReceiver;
+	private Method mIsDeviceExternalMethod;
+	private Method mIsWakeKeyWhenScreenOffMethod;
+	private Object mPhoneWindowManagerReceiver;
+	
+	private volatile boolean mActionToolsResolved = false;
+	private final Object mActionToolsLock = new Object();
 	
 	protected IMediatorSetup(ReflectClass pwm, XServiceManager xServiceManager) {
 		mXServiceManager = xServiceManager;
@@ -233,17 +291,17 @@ public abstract class IMediatorSetup {
 			mSamsungPhoneWindowManager = pwm.findField("mSPWM").getValueToInstance();
 			
 			if (SDK.SAMSUNG_FEEDBACK_VERSION == 1) {
-				mMethods.put("samsung.performSystemKeyFeedback", mSamsungPhoneWindowManager.findMethod("performSystemKeyFeedback", Match.DEFAULT, KeyEvent.class));
+				mSamsungPerformSystemKeyFeedback = mSamsungPhoneWindowManager.findMethod("performSystemKeyFeedback", Match.DEFAULT, KeyEvent.class);
 				
 			} else {
-				mMethods.put("samsung.performSystemKeyFeedback", mSamsungPhoneWindowManager.findMethod("performSystemKeyFeedback", Match.DEFAULT, KeyEvent.class, Boolean.TYPE, Boolean.TYPE));
+				mSamsungPerformSystemKeyFeedback = mSamsungPhoneWindowManager.findMethod("performSystemKeyFeedback", Match.DEFAULT, KeyEvent.class, Boolean.TYPE, Boolean.TYPE);
 			}
 		}
 		
 		/*
 		 * Get the regular haptic feedback method
 		 */
-		mMethods.put("performHapticFeedback", pwm.findMethodDeep("performHapticFeedbackLw", Match.BEST, "android.view.WindowManagerPolicy$WindowState", Integer.TYPE, Boolean.TYPE));
+		mPerformHapticFeedback = pwm.findMethodDeep("performHapticFeedbackLw", Match.BEST, "android.view.WindowManagerPolicy$WindowState", Integer.TYPE, Boolean.TYPE);
 		
 		/*
 		 * Locate KeyGuard Tools
@@ -259,21 +317,24 @@ public abstract class IMediatorSetup {
 		});
 		
 		if (SDK.MANAGER_KEYGUARD_VERSION > 2) {
-			mMethods.put("KeyguardMediator.isShowing", mKeyguardMediator.findMethodDeep("isShowingAndNotOccluded"));
+			mKeyguardIsShowing = mKeyguardMediator.findMethodDeep("isShowingAndNotOccluded");
 		
 		} else {
-			mMethods.put("KeyguardMediator.isShowing", mKeyguardMediator.findMethodDeep("isShowingAndNotHidden"));
+			mKeyguardIsShowing = mKeyguardMediator.findMethodDeep("isShowingAndNotHidden");
 		}
 		
-		mMethods.put("KeyguardMediator.isLocked", mKeyguardMediator.findMethodDeep("isShowing"));
-		mMethods.put("KeyguardMediator.isRestricted", mKeyguardMediator.findMethodDeep("isInputRestricted"));
-		mMethods.put("KeyguardMediator.dismiss", mKeyguardMediator.findMethodDeep("keyguardDone", Match.DEFAULT, Boolean.TYPE, Boolean.TYPE));
+		mKeyguardIsLocked = mKeyguardMediator.findMethodDeep("isShowing");
+		mKeyguardIsRestricted = mKeyguardMediator.findMethodDeep("isInputRestricted");
+		mKeyguardDismiss = mKeyguardMediator.findMethodDeep("keyguardDone", Match.DEFAULT, Boolean.TYPE, Boolean.TYPE);
+		
+		mKeyguardState = new KeyguardState(mKeyguardMediator, mKeyguardIsShowing, mKeyguardIsLocked);
 		
 		/*
 		 * Get the Activity Management tools
 		 */
 		mActivityManager = ReflectClass.forReceiver(((Context) mContext.getReceiver()).getSystemService(Context.ACTIVITY_SERVICE));
 		mActivityManagerService = ReflectClass.forName("android.app.ActivityManagerNative").findMethod("getDefault").invokeToInstance();
+		mForegroundTracker = new ForegroundTracker();
 		
 		/*
 		 * Get the Power Management tools
@@ -287,21 +348,21 @@ public abstract class IMediatorSetup {
 		 */
 		
 		if (SDK.MANAGER_POWER_VERSION > 3) {
-			mMethods.put("goToSleep", mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE, Integer.TYPE, Integer.TYPE));
+			mGoToSleep = mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE, Integer.TYPE, Integer.TYPE);
 			
 		} else if (SDK.MANAGER_POWER_VERSION > 1) {
-			mMethods.put("goToSleep", mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE, Integer.TYPE));
+			mGoToSleep = mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE, Integer.TYPE);
 			
 		} else {
-			mMethods.put("goToSleep", mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE));
+			mGoToSleep = mPowerManagerService.findMethodDeep("goToSleep", Match.DEFAULT, Long.TYPE);
 		}
 		if (SDK.MANAGER_POWER_VERSION == 1) {
-			mMethods.put("userActivity", mPowerManagerService.findMethodDeep("userActivity", Match.DEFAULT, Long.TYPE, Boolean.TYPE));
-			mMethods.put("forceUserActivityLocked", mPowerManagerService.findMethodDeep("forceUserActivityLocked"));
+			mUserActivity = mPowerManagerService.findMethodDeep("userActivity", Match.DEFAULT, Long.TYPE, Boolean.TYPE);
+			mForceUserActivityLocked = mPowerManagerService.findMethodDeep("forceUserActivityLocked");
 			
 		} else {
-			mMethods.put("userActivity", mPowerManagerService.findMethodDeep("userActivity", Match.DEFAULT, Long.TYPE, Integer.TYPE, Integer.TYPE));
-			mMethods.put("wakeUp", mPowerManagerService.findMethodDeep("wakeUp", Match.DEFAULT, Long.TYPE));
+			mUserActivity = mPowerManagerService.findMethodDeep("userActivity", Match.DEFAULT, Long.TYPE, Integer.TYPE, Integer.TYPE);
+			mWakeUp = mPowerManagerService.findMethodDeep("wakeUp", Match.DEFAULT, Long.TYPE);
 		}
 		
 		/*
@@ -311,17 +372,22 @@ public abstract class IMediatorSetup {
 		
 		if (SDK.MANAGER_HARDWAREINPUT_VERSION > 1) {
 			mInputManager = ReflectClass.forName("android.hardware.input.InputManager").findMethod("getInstance").invokeForReceiver();
-			mMethods.put("injectInputEvent", mInputManager.findMethodDeep("injectInputEvent", Match.DEFAULT, KeyEvent.class, Integer.TYPE));
+			mInjectInputEvent = mInputManager.findMethodDeep("injectInputEvent", Match.DEFAULT, KeyEvent.class, Integer.TYPE);
+			mInjectInputEventReceiver = mInputManager.getReceiver();
 		
 		} else {
-			mMethods.put("injectInputEvent", mWindowManagerService.findMethodDeep("injectInputEventNoWait", Match.DEFAULT, KeyEvent.class));
+			mInjectInputEvent = mWindowManagerService.findMethodDeep("injectInputEventNoWait", Match.DEFAULT, KeyEvent.class);
+			mInjectInputEventReceiver = mWindowManagerService.getReceiver();
 		}
 		
+		mInjectInputEventMethod = accessible(mInjectInputEvent.getObject());
+		
 		/*
 		 * Get a hidden method to check internal/external state of devices
 		 */
 		if (SDK.INPUT_DEVICESTORAGE_VERSION > 1) {
-			mMethods.put("isDeviceExternal", ReflectClass.forName("android.view.InputDevice").findMethod("isExternal"));
+			mIsDeviceExternal = ReflectClass.forName("android.view.InputDevice").findMethod("isExternal");
+			mIsDeviceExternalMethod = accessible(mIsDeviceExternal.getObject());
 		}
 		
 		/*
@@ -333,119 +399,283 @@ public abstract class IMediatorSetup {
 		 * Get Multi User tools
 		 */
 		if (SDK.MANAGER_MULTIUSER_VERSION > 0) {
-			mConstructors.put("UserHandle", ReflectClass.forName("android.os.UserHandle").findConstructor(Match.BEST, Integer.TYPE));
-			mFields.put("UserHandle.current", ReflectClass.forName("android.os.UserHandle").findField("USER_CURRENT"));
-			mMethods.put("startActivityAsUser", mContext.findMethodDeep("startActivityAsUser", Match.BEST, Intent.class, "android.os.UserHandle"));
-			mMethods.put("sendBroadcastAsUser", mContext.findMethodDeep("sendBroadcastAsUser", Match.BEST, Intent.class, "android.os.UserHandle"));
+			mUserHandleConstructor = ReflectClass.forName("android.os.UserHandle").findConstructor(Match.BEST, Integer.TYPE);
+			mUserHandleCurrent = ReflectClass.forName("android.os.UserHandle").findField("USER_CURRENT");
+			mStartActivityAsUser = mContext.findMethodDeep("startActivityAsUser", Match.BEST, Intent.class, "android.os.UserHandle");
+			mSendBroadcastAsUser = mContext.findMethodDeep("sendBroadcastAsUser", Match.BEST, Intent.class, "android.os.UserHandle");
 		}
 		
 		/*
-		 * Get Tools for displaying Global Actions Menu
+		 * Find tools to handle wake keys
 		 */
+		Integer wakeKeyProbe = ProbeCache.getInt("isWakeKeyWhenScreenOff");
+		
+		if (wakeKeyProbe == null || wakeKeyProbe > 0) {
+			try {
+				mIsWakeKeyWhenScreenOff = mPhoneWindowManager.findMethodDeep("isWakeKeyWhenScreenOff", Match.BEST, Integer.TYPE);
+				mIsWakeKeyWhenScreenOffMethod = accessible(mIsWakeKeyWhenScreenOff.getObject());
+				mPhoneWindowManagerReceiver = mPhoneWindowManager.getReceiver();
+				ProbeCache.putInt("isWakeKeyWhenScreenOff", 1);
+				
+			} catch (ReflectException e) {
+				ProbeCache.putInt("isWakeKeyWhenScreenOff", 0);
+			}
+		}
+		
+		/*
+		 * The tools that are only used by actions are resolved in the background, 
+		 * so that the input path is ready sooner after boot. 
+		 */
+		new Thread("MediatorSetup") {
+			@Override
+			public void run() {
+				resolveActionTools();
+			}
+		}.start();
+		
+		mReady = true;
+	}
+	
+	public Boolean isReady() {
+		return mReady;
+	}
+	
+	private static Method accessible(Method method) {
+		method.setAccessible(true);
+		
+		return method;
+	}
+	
+	/*
+	 * Typed wrappers for the members used on every key event. They call the resolved java.lang.reflect.Method 
+	 * directly, which skips the argument matching and receiver handling in ReflectMethod.invoke(). 
+	 * Errors are thrown as ReflectException, like the ReflectMethod calls. 
+	 */
+	protected final void injectInputEvent(KeyEvent keyEvent, int mode) {
+		try {
+			if (SDK.MANAGER_HARDWAREINPUT_VERSION > 1) {
+				mInjectInputEventMethod.invoke(mInjectInputEventReceiver, keyEvent, mode);
+				
+			} else {
+				mInjectInputEventMethod.invoke(mInjectInputEventReceiver, keyEvent);
+			}
+			
+		} catch (IllegalAccessException e) {
+			throw new ReflectException(e);
+			
+		} catch (InvocationTargetException e) {
+			throw new ReflectException(e.getCause());
+		}
+	}
+	
+	protected final boolean isDeviceExternal(InputDevice device) {
+		try {
+			return (Boolean) mIsDeviceExternalMethod.invoke(device);
+			
+		} catch (IllegalAccessException e) {
+			throw new ReflectException(e);
+			
+		} catch (InvocationTargetException e) {
+			throw new ReflectException(e.getCause());
+		}
+	}
+	
+	/*
+	 * All keys are wake keys when the method is not available
+	 */
+	protected final boolean isWakeKeyWhenScreenOff(int keyCode) {
+		if (mIsWakeKeyWhenScreenOffMethod == null) {
+			return true;
+		}
+		
 		try {
-			mMethods.put("closeSystemDialogs", mActivityManagerService.findMethodDeep("closeSystemDialogs", Match.BEST, String.class));
+			return (Boolean) mIsWakeKeyWhenScreenOffMethod.invoke(mPhoneWindowManagerReceiver, keyCode);
+			
+		} catch (IllegalAccessException e) {
+			throw new ReflectException(e);
 			
+		} catch (InvocationTargetException e) {
+			throw new ReflectException(e.getCause());
+		}
+	}
+	
+	/*
+	 * Resolve the members used by the global actions, recent applications, screenshot, rotation, 
+	 * torch and force stop actions. Actions using them calls this first, in case the background 
+	 * thread has not finished yet. 
+	 */
+	protected final void resolveActionTools() {
+		if (mActionToolsResolved) {
+			return;
+		}
+		
+		synchronized (mActionToolsLock) {
+			if (mActionToolsResolved) {
+				return;
+			}
+			
+			long start = SystemClock.elapsedRealtime();
+			
+			/*
+			 * Each group is resolved on its own, so that a missing member only disables 
+			 * the actions that depends on it. 
+			 */
 			try {
-				if (android.os.Build.VERSION.SDK_INT >= 21) {
-					mMethods.put("showGlobalActionsDialog", mPhoneWindowManager.findMethodDeep("showGlobalActions"));
-					
-				} else {
-					mMethods.put("showGlobalActionsDialog", mPhoneWindowManager.findMethodDeep("showGlobalActionsDialog"));
+				mCloseSystemDialogs = mActivityManagerService.findMethodDeep("closeSystemDialogs", Match.BEST, String.class);
+				
+			} catch (ReflectException e) {
+				if(Common.debug()) Log.d(TAG, "Missing IActivityManager.closeSystemDialogs()");
+			}
+			
+			/*
+			 * Get Tools for displaying Global Actions Menu
+			 */
+			try {
+				/*
+				 * The stored probe tells which of the versions was found on the last boot
+				 */
+				String globalActions = ProbeCache.getString("showGlobalActionsDialog");
+				
+				if (globalActions == null || globalActions.equals("default")) {
+					try {
+						if (android.os.Build.VERSION.SDK_INT >= 21) {
+							mShowGlobalActionsDialog = mPhoneWindowManager.findMethodDeep("showGlobalActions");
+							
+						} else {
+							mShowGlobalActionsDialog = mPhoneWindowManager.findMethodDeep("showGlobalActionsDialog");
+						}
+						
+						globalActions = "default";
+						
+					} catch (ReflectException e) {
+						globalActions = null;
+					}
 				}
 				
-				mXServiceManager.putBoolean("variable:remap.support.global_actions", true);
+				if (globalActions == null || globalActions.equals("custom")) {
+					try {
+						/*
+						 * Support for ROM's like SlimKat that uses a 'boolean pokeWakeLock' parameter
+						 */
+						mShowGlobalActionsDialogCustom = mPhoneWindowManager.findMethodDeep("showGlobalActionsDialog", Match.BEST, Boolean.TYPE);
+						globalActions = "custom";
+						
+					} catch (ReflectException ei) {
+						globalActions = "none";
+					}
+				}
 				
-			} catch (ReflectException e) {
-				try {
-					/*
-					 * Support for ROM's like SlimKat that uses a 'boolean pokeWakeLock' parameter
-					 */
-					mMethods.put("showGlobalActionsDialog.custom", mPhoneWindowManager.findMethodDeep("showGlobalActionsDialog", Match.BEST, Boolean.TYPE));
+				ProbeCache.putString("showGlobalActionsDialog", globalActions);
+				
+				if (!globalActions.equals("none")) {
 					mXServiceManager.putBoolean("variable:remap.support.global_actions", true);
 					
-				} catch (ReflectException ei) {
+				} else {
 					if(Common.debug()) Log.d(TAG, "Missing PhoneWindowManager.showGlobalActionsDialog()");
 				}
+				
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
 			}
 			
-			mRecentApplicationsDialog = ReflectClass.forName( SDK.MANAGER_RECENT_DIALOG_VERSION > 1 ? "com.android.internal.statusbar.IStatusBarService" : "com.android.internal.policy.impl.RecentApplicationsDialog" );
-			mRecentApplicationsDialog.setOnReceiverListener(new OnReceiverListener(){
-				@Override
-				public Object onReceiver(ReflectMember<?> member) {
-					Object recentAppsService;
-					
-					if (SDK.MANAGER_RECENT_DIALOG_VERSION > 1) {
-						recentAppsService = member.getReflectClass().bindInterface("statusbar").getReceiver();
+			/*
+			 * Get Tools for displaying the Recent Applications Dialog
+			 */
+			try {
+				mRecentApplicationsDialog = ReflectClass.forName( SDK.MANAGER_RECENT_DIALOG_VERSION > 1 ? "com.android.internal.statusbar.IStatusBarService" : "com.android.internal.policy.impl.RecentApplicationsDialog" );
+				mRecentApplicationsDialog.setOnReceiverListener(new OnReceiverListener(){
+					@Override
+					public Object onReceiver(ReflectMember<?> member) {
+						Object recentAppsService;
+						
+						if (SDK.MANAGER_RECENT_DIALOG_VERSION > 1) {
+							recentAppsService = member.getReflectClass().bindInterface("statusbar").getReceiver();
+							
+						} else {
+							recentAppsService = member.getReflectClass().newInstance(((Context) mContext.getReceiver()));
+						}
 						
-					} else {
-						recentAppsService = member.getReflectClass().newInstance(((Context) mContext.getReceiver()));
+						member.getReflectClass().setReceiver(recentAppsService);
+						
+						return recentAppsService;
 					}
+				});
+				mRecentApplicationsDialog.setOnErrorListener(new OnErrorListener(){
+					@Override
+					public void onError(ReflectMember<?> member) {
+						member.getReflectClass().setReceiver(null);
+					}
+				});
+				
+				mToggleRecentApps = mRecentApplicationsDialog.findMethodDeep( SDK.MANAGER_RECENT_DIALOG_VERSION > 1 ? "toggleRecentApps" : "show" );
+				mXServiceManager.putBoolean("variable:remap.support.recent_dialog", true);
+				
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
+			}
+			
+			/*
+			 * Get ScreenShot Tools
+			 */
+			Integer screenshotProbe = ProbeCache.getInt("takeScreenshot");
+			
+			if (screenshotProbe == null || screenshotProbe > 0) {
+				try {
+					/*
+					 * This does not exists in all Gingerbread versions
+					 */
+					mTakeScreenshot = mPhoneWindowManager.findMethodDeep("takeScreenshot");
+					mXServiceManager.putBoolean("variable:remap.support.screenshot", true);
+					ProbeCache.putInt("takeScreenshot", 1);
 					
-					member.getReflectClass().setReceiver(recentAppsService);
-					
-					return recentAppsService;
+				} catch (ReflectException e) {
+					ProbeCache.putInt("takeScreenshot", 0);
 				}
-			});
-			mRecentApplicationsDialog.setOnErrorListener(new OnErrorListener(){
-				@Override
-				public void onError(ReflectMember<?> member) {
-					member.getReflectClass().setReceiver(null);
+			}
+			
+			/*
+			 * Get Rotation Tools
+			 */
+			try {
+				mGetRotation = mWindowManagerService.findMethodDeep("getRotation");
+				
+				if (SDK.MANAGER_ROTATION_VERSION > 1) {
+					mFreezeRotation = mWindowManagerService.findMethodDeep("freezeRotation", Match.BEST, Integer.TYPE);
+					mThawRotation = mWindowManagerService.findMethodDeep("thawRotation");
 				}
-			});
+				
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
+			}
 			
-			mMethods.put("toggleRecentApps", mRecentApplicationsDialog.findMethodDeep( SDK.MANAGER_RECENT_DIALOG_VERSION > 1 ? "toggleRecentApps" : "show" ));
-			mXServiceManager.putBoolean("variable:remap.support.recent_dialog", true);
+			/*
+			 * Start searching for torch support
+			 */
+			try {
+				if (((Context) mContext.getReceiver()).getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH)) {
+					torchLocator();
+				}
+				
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
+			}
 			
-		} catch (ReflectException e) {
-			if(Common.debug()) Log.d(TAG, "Missing IActivityManager.closeSystemDialogs()");
-		}
-		
-		/*
-		 * Get ScreenShot Tools
-		 */
-		try {
 			/*
-			 * This does not exists in all Gingerbread versions
+			 * Get the tools to force stop the foreground application
 			 */
-			mMethods.put("takeScreenshot", mPhoneWindowManager.findMethodDeep("takeScreenshot"));
-			mXServiceManager.putBoolean("variable:remap.support.screenshot", true);
+			try {
+				mForceStopPackage = mActivityManagerService.findMethodDeep("forceStopPackage", Match.BEST, SDK.MANAGER_MULTIUSER_VERSION > 0 ? new Object[]{String.class, Integer.TYPE} : new Object[]{String.class});
+				
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
+			}
 			
-		} catch (ReflectException e) {}
-		
-		/*
-		 * Get Rotation Tools
-		 */
-		mMethods.put("getRotation", mWindowManagerService.findMethodDeep("getRotation"));
-		if (SDK.MANAGER_ROTATION_VERSION > 1) {
-			mMethods.put("freezeRotation", mWindowManagerService.findMethodDeep("freezeRotation", Match.BEST, Integer.TYPE));
-			mMethods.put("thawRotation", mWindowManagerService.findMethodDeep("thawRotation"));
-		}
-		
-		/*
-		 * Find tools to handle wake keys
-		 */
-		try {
-			mMethods.put("isWakeKeyWhenScreenOff", mPhoneWindowManager.findMethodDeep("isWakeKeyWhenScreenOff", Match.BEST, Integer.TYPE));
+			mActionToolsResolved = true;
 			
-		} catch (ReflectException e) {}
-		
-		/*
-		 * Start searching for torch support
-		 */
-		if (((Context) mContext.getReceiver()).getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH)) {
-			torchLocator();
+			ProbeCache.save();
+			
+			if(Common.debug()) Log.d(TAG, "Resolved the action tools in " + (SystemClock.elapsedRealtime() - start) + "ms");
 		}
-		
-		/*
-		 * 
-		 */
-		mMethods.put("forceStopPackage", mActivityManagerService.findMethodDeep("forceStopPackage", Match.BEST, SDK.MANAGER_MULTIUSER_VERSION > 0 ? new Object[]{String.class, Integer.TYPE} : new Object[]{String.class}));
-		
-		mReady = true;
-	}
-	
-	public Boolean isReady() {
-		return mReady;
 	}
 	
 	protected void torchLocator() {
@@ -0,0 +1,144 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.spazedog.lib.reflecttools.ReflectClass;
+import com.spazedog.lib.reflecttools.ReflectMethod;
+import com.spazedog.lib.reflecttools.utils.ReflectException;
+import com.spazedog.xposed.additionsgb.Common;
+import com.spazedog.xposed.additionsgb.backend.pwm.iface.IMediatorSetup.SDK;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+/*
+ * Caches the keyguard state, so that it does not have to be queried on every key event.
+ *
+ * The KeyguardViewMediator used before API 19 lives in the system process, so the methods that
+ * changes the state can be hooked to drop the cached value. From API 19 the keyguard is managed
+ * by SystemUI and the changes cannot be seen from here, so the state is always queried.
+ *
+ * In debug mode the cached value is compared against a real query, and mismatches are logged.
+ */
+final class KeyguardState {
+	private static final String TAG = KeyguardState.class.getName();
+
+	private static final int SHOWING = 1;
+	private static final int LOCKED = 2;
+	private static final int KNOWN = 4;
+	private static final int STATE_MASK = SHOWING | LOCKED | KNOWN;
+	private static final int GENERATION_SHIFT = 3;
+
+	private final ReflectMethod mIsShowing;
+	private final ReflectMethod mIsLocked;
+
+	private final boolean mTracking;
+
+	/*
+	 * The state flags and a change generation above GENERATION_SHIFT are packed into one value.
+	 * A queried state is only stored with a compare-and-set against the value that was read
+	 * before the query, so a change that happens during the query is never overwritten.
+	 */
+	private final AtomicInteger mState = new AtomicInteger(0);
+
+	KeyguardState(ReflectClass mediator, ReflectMethod isShowing, ReflectMethod isLocked) {
+		mIsShowing = isShowing;
+		mIsLocked = isLocked;
+
+		boolean tracking = false;
+
+		if (SDK.MANAGER_KEYGUARD_VERSION == 1) {
+			try {
+				/*
+				 * mShowing is changed in handleShow() and handleHide(), and mHidden in handleSetHidden().
+				 * The public setHidden() only posts a message, so hooking it would drop the cache before the change.
+				 * handleVerifyUnlock() can show the keyguard without handleShow().
+				 *
+				 * handleSetHidden() does not exist on the oldest versions, and neither does mHidden.
+				 */
+				tracking = mediator.inject("handleShow", hook_stateChanged) > 0
+						& mediator.inject("handleHide", hook_stateChanged) > 0;
+
+				if (tracking) {
+					mediator.inject("handleSetHidden", hook_stateChanged);
+					mediator.inject("handleVerifyUnlock", hook_stateChanged);
+				}
+
+			} catch (ReflectException e) {
+				Log.e(TAG, e.getMessage(), e);
+			}
+
+			if (!tracking) {
+				Log.e(TAG, "Could not hook the keyguard changes, the state will not be cached");
+			}
+		}
+
+		mTracking = tracking;
+	}
+
+	protected XC_MethodHook hook_stateChanged = new XC_MethodHook() {
+		@Override
+		protected final void afterHookedMethod(final MethodHookParam param) {
+			invalidate();
+		}
+	};
+
+	/*
+	 * Showing and not hidden or occluded by another window
+	 */
+	public boolean isShowing() {
+		return mTracking ? (getState() & SHOWING) != 0 : invoke(mIsShowing);
+	}
+
+	public boolean isLocked() {
+		return mTracking ? (getState() & LOCKED) != 0 : invoke(mIsLocked);
+	}
+
+	private void invalidate() {
+		int value;
+
+		do {
+			value = mState.get();
+
+		} while (!mState.compareAndSet(value, ((value >>> GENERATION_SHIFT) + 1) << GENERATION_SHIFT));
+	}
+
+	private int getState() {
+		int value = mState.get();
+		int state = value & (SHOWING | LOCKED);
+
+		if ((value & KNOWN) == 0) {
+			state = query();
+
+			mState.compareAndSet(value, (value & ~STATE_MASK) | KNOWN | state);
+
+		} else if (Common.debug()) {
+			int realState = query();
+
+			if (realState != state) {
+				Log.d(TAG, "The cached keyguard state " + state + " does not match the real state " + realState);
+
+				invalidate();
+				state = realState;
+			}
+		}
+
+		return state;
+	}
+
+	private int query() {
+		return (invoke(mIsShowing) ? SHOWING : 0) | (invoke(mIsLocked) ? LOCKED : 0);
+	}
+
+	private boolean invoke(ReflectMethod method) {
+		try {
+			return (Boolean) method.invoke();
+
+		} catch (ReflectException e) {
+			Log.e(TAG, e.getMessage(), e);
+		}
+
+		return false;
+	}
+}
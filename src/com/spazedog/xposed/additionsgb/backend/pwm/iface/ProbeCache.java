@@ -0,0 +1,179 @@
+package com.spazedog.xposed.additionsgb.backend.pwm.iface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import android.os.Build;
+import android.os.Environment;
+import android.util.Log;
+
+import com.spazedog.xposed.additionsgb.Common;
+
+/*
+ * Stores the results of the framework probing, like the feature versions in SDK
+ * and which optional methods exists, so that the same lookups are not repeated on every boot.
+ *
+ * The results are only used as long as the build fingerprint and the installed module are the same as when they were stored.
+ * If binding to a stored result fails, the cache should be invalidated so that everything is probed again on the next boot.
+ *
+ * Only the outcome of a probe is stored, not the members themselves. A stored result skips the lookups
+ * of members that are known to be missing, but the members that exists are still resolved on every boot.
+ */
+public final class ProbeCache {
+	private static final String TAG = ProbeCache.class.getName();
+
+	/*
+	 * The system process cannot write to the module data directory in newer Android versions
+	 */
+	private static final File FILE = new File(Environment.getDataDirectory(), "system/" + Common.PACKAGE_NAME + ".probes");
+
+	private static final String FINGERPRINT = "fingerprint";
+	private static final String MODULE = "module";
+
+	private static String oModulePath;
+	private static Properties oProbes;
+	private static boolean oChanged = false;
+
+	/*
+	 * Called from initZygote(). The module versionCode cannot be read from the PackageManager 
+	 * this early in the system process, so the size and time of the installed APK is used instead. 
+	 * These changes with every install, including every new versionCode.
+	 */
+	public static synchronized void setModulePath(String path) {
+		oModulePath = path;
+	}
+
+	private static String getModuleId() {
+		if (oModulePath != null) {
+			File apk = new File(oModulePath);
+
+			return oModulePath + ":" + apk.length() + ":" + apk.lastModified();
+		}
+
+		return "unknown";
+	}
+
+	private static Properties getProbes() {
+		if (oProbes == null) {
+			oProbes = load();
+		}
+
+		return oProbes;
+	}
+
+	private static Properties load() {
+		Properties probes = new Properties();
+
+		if (FILE.exists()) {
+			FileInputStream in = null;
+
+			try {
+				in = new FileInputStream(FILE);
+				probes.load(in);
+
+			} catch (IOException e) {
+				Log.e(TAG, e.getMessage(), e);
+
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+
+					} catch (IOException e) {}
+				}
+			}
+
+			if (!Build.FINGERPRINT.equals(probes.getProperty(FINGERPRINT)) || !getModuleId().equals(probes.getProperty(MODULE))) {
+				if(Common.debug()) Log.d(TAG, "The build fingerprint or the module has changed, probing the framework again");
+
+				probes.clear();
+			}
+		}
+
+		probes.setProperty(FINGERPRINT, Build.FINGERPRINT);
+		probes.setProperty(MODULE, getModuleId());
+
+		return probes;
+	}
+
+	public static synchronized Integer getInt(String name) {
+		String value = getProbes().getProperty(name);
+
+		return value != null ? Integer.valueOf(value) : null;
+	}
+
+	public static synchronized void putInt(String name, int value) {
+		putString(name, String.valueOf(value));
+	}
+
+	public static synchronized String getString(String name) {
+		return getProbes().getProperty(name);
+	}
+
+	public static synchronized void putString(String name, String value) {
+		Properties probes = getProbes();
+
+		if (!value.equals(probes.getProperty(name))) {
+			probes.setProperty(name, value);
+			oChanged = true;
+		}
+	}
+
+	/*
+	 * Read the stored results from the file again on the next lookup
+	 */
+	static synchronized void reload() {
+		oProbes = null;
+	}
+
+	/*
+	 * Remove all stored results, used when binding to one of them failed
+	 */
+	public static synchronized void invalidate() {
+		Log.e(TAG, "Clearing the stored probe results");
+
+		Properties probes = getProbes();
+
+		probes.clear();
+		probes.setProperty(FINGERPRINT, Build.FINGERPRINT);
+		probes.setProperty(MODULE, getModuleId());
+		oChanged = true;
+
+		save();
+	}
+
+	public static synchronized void save() {
+		if (oChanged) {
+			File tmpFile = new File(FILE.getPath() + ".tmp");
+			FileOutputStream out = null;
+
+			try {
+				out = new FileOutputStream(tmpFile);
+				getProbes().store(out, null);
+				out.close();
+				out = null;
+
+				if (tmpFile.renameTo(FILE)) {
+					oChanged = false;
+
+				} else {
+					Log.e(TAG, "Could not replace the probe file");
+				}
+
+			} catch (IOException e) {
+				Log.e(TAG, e.getMessage(), e);
+
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+
+					} catch (IOException e) {}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * This file is part of the Xposed Additions Project: https://github.com/spazedog/xposed-additions
+ *
+ * Copyright (c) 2014 Daniel Bergløv
+ *
+ * Xposed Additions is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * Xposed Additions is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with Xposed Additions. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import android.os.Bundle;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.spazedog.xposed.additionsgb.Common;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+
+/*
+ * Delivers the service events to the registered listeners on a separate thread.
+ *
+ * The callers only add the event to a queue, so a slow or hanging listener process
+ * does not block the service or the process that changed a preference.
+ * If the queue is full, the pending preference changes are replaced by a full reload
+ * (onPreferenceDataSetChanged), while broadcasts are dropped.
+ */
+final class ListenerDispatcher implements Runnable {
+	private static final String TAG = ListenerDispatcher.class.getName();
+
+	private static final int QUEUE_SIZE = 64;
+
+	//Deliveries slower than this are logged in debug mode
+	private static final long SLOW_DELIVERY = 50 * 1000 * 1000;
+
+	private static abstract class Event {
+		//Preference changes can be replaced by a full reload
+		private final boolean mPreferences;
+
+		Event(boolean preferences) {
+			mPreferences = preferences;
+		}
+
+		abstract void deliver(IXServiceChangeListener listener) throws RemoteException;
+
+		/*
+		 * Whether a listener subscribed to the topics should receive the event
+		 */
+		boolean matches(List<String> topics) {
+			return true;
+		}
+	}
+
+	private static final Event RELOAD_EVENT = new Event(true) {
+		@Override
+		void deliver(IXServiceChangeListener listener) throws RemoteException {
+			listener.onPreferenceDataSetChanged();
+		}
+	};
+
+	/*
+	 * Delivery statistics for each listener, stored as the listener cookie
+	 */
+	static final class ListenerInfo {
+		private final int mPid;
+		private final List<String> mTopics;
+
+		private int mCount = 0;
+		private long mTotalTime = 0;
+		private long mMaxTime = 0;
+
+		ListenerInfo(int pid, List<String> topics) {
+			mPid = pid;
+			mTopics = topics != null ? new ArrayList<String>(topics) : null;
+		}
+
+		private synchronized void record(long time) {
+			mCount++;
+			mTotalTime += time;
+
+			if (time > mMaxTime) {
+				mMaxTime = time;
+			}
+		}
+
+		public synchronized int getCount() {
+			return mCount;
+		}
+
+		public synchronized long getTotalTime() {
+			return mTotalTime;
+		}
+
+		public synchronized long getMaxTime() {
+			return mMaxTime;
+		}
+	}
+
+	private final RemoteCallbackList<IXServiceChangeListener> mListeners = new RemoteCallbackList<IXServiceChangeListener>();
+
+	private final BlockingQueue<Event> mQueue = new ArrayBlockingQueue<Event>(QUEUE_SIZE);
+
+	//Set when preference changes could not be queued
+	private volatile boolean mOverflow = false;
+
+	private volatile int mMaxQueueDepth = 0;
+	private volatile int mDropped = 0;
+
+	/*
+	 * The listeners of the last delivery, so the statistics can be dumped
+	 * without waiting for a delivery that is in progress
+	 */
+	private volatile ListenerInfo[] mListenerInfo = new ListenerInfo[0];
+
+	private volatile Thread mThread;
+
+	/*
+	 * The thread is started when the first event is queued and never in the constructor.
+	 * Before API 21 the service is created in Zygote, where no threads may be running when it forks,
+	 * and a thread started there would not exist in the forked system process.
+	 */
+	private synchronized void start() {
+		if (mThread == null) {
+			Thread thread = new Thread(this, "XServiceDispatcher");
+			thread.setDaemon(true);
+			thread.start();
+
+			mThread = thread;
+		}
+	}
+
+	/*
+	 * Add the listener, or replace the topics if it is already registered
+	 */
+	public void register(IXServiceChangeListener listener, int pid, List<String> topics) {
+		mListeners.unregister(listener);
+		mListeners.register(listener, new ListenerInfo(pid, topics));
+	}
+
+	public int getQueueDepth() {
+		return mQueue.size();
+	}
+
+	public int getMaxQueueDepth() {
+		return mMaxQueueDepth;
+	}
+
+	/*
+	 * The number of broadcasts that was dropped because the queue was full
+	 */
+	public int getDroppedCount() {
+		return mDropped;
+	}
+
+	/*
+	 * Write the queue and delivery statistics, used by the service dump
+	 */
+	public void dump(PrintWriter writer) {
+		writer.println("Listener queue: " + getQueueDepth() + " queued, " + getMaxQueueDepth() + " at most, " + getDroppedCount() + " broadcasts dropped");
+
+		for (ListenerInfo info : mListenerInfo) {
+			int count = info.getCount();
+
+			writer.println("  Listener in process " + info.mPid + ": " + count + " deliveries, average " + (count > 0 ? info.getTotalTime() / count / 1000 : 0) + "us, max " + (info.getMaxTime() / 1000) + "us");
+		}
+	}
+
+	public void dataSetChanged() {
+		enqueue(RELOAD_EVENT);
+	}
+
+	public void preferencesChanged(final SettingsData values, final List<String> removed) {
+		enqueue(new Event(true) {
+			@Override
+			void deliver(IXServiceChangeListener listener) throws RemoteException {
+				listener.onPreferencesChanged(values, removed);
+			}
+
+			@Override
+			boolean matches(List<String> topics) {
+				for (String key : values.keySet()) {
+					if (XServiceManager.matchesTopic(key, topics)) {
+						return true;
+					}
+				}
+
+				for (String key : removed) {
+					if (XServiceManager.matchesTopic(key, topics)) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+		});
+	}
+
+	public void packageChanged() {
+		enqueue(new Event(false) {
+			@Override
+			void deliver(IXServiceChangeListener listener) throws RemoteException {
+				listener.onPackageChanged();
+			}
+		});
+	}
+
+	public void broadcast(final String action, final Bundle data) {
+		enqueue(new Event(false) {
+			@Override
+			void deliver(IXServiceChangeListener listener) throws RemoteException {
+				listener.onBroadcastReceive(action, data);
+			}
+
+			@Override
+			boolean matches(List<String> topics) {
+				return XServiceManager.matchesTopic(action, topics);
+			}
+		});
+	}
+
+	private void enqueue(Event event) {
+		if (mThread == null) {
+			start();
+		}
+
+		if (mQueue.offer(event)) {
+			int depth = mQueue.size();
+
+			if (depth > mMaxQueueDepth) {
+				mMaxQueueDepth = depth;
+			}
+
+		} else if (event.mPreferences) {
+			if(Common.debug()) Log.d(TAG, "The listener queue is full, sending a full reload instead");
+
+			mOverflow = true;
+
+		} else {
+			Log.e(TAG, "The listener queue is full, dropping the event");
+
+			mDropped++;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Event event;
+
+			try {
+				event = mQueue.take();
+
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			if (mOverflow) {
+				/*
+				 * All queued preference changes are covered by the reload
+				 */
+				mOverflow = false;
+
+				for (Iterator<Event> iterator = mQueue.iterator(); iterator.hasNext();) {
+					if (iterator.next().mPreferences) {
+						iterator.remove();
+					}
+				}
+
+				deliver(RELOAD_EVENT);
+
+				if (event.mPreferences) {
+					continue;
+				}
+			}
+
+			deliver(event);
+		}
+	}
+
+	private void deliver(Event event) {
+		int count = mListeners.beginBroadcast();
+		ListenerInfo[] listenerInfo = new ListenerInfo[count];
+
+		try {
+			for (int i = 0; i < count; i++) {
+				ListenerInfo info = listenerInfo[i] = (ListenerInfo) mListeners.getBroadcastCookie(i);
+
+				if (info.mTopics != null && !event.matches(info.mTopics)) {
+					continue;
+				}
+
+				long start = System.nanoTime();
+
+				try {
+					event.deliver(mListeners.getBroadcastItem(i));
+
+				} catch (RemoteException e) {
+					/*
+					 * Dead listeners are removed by the RemoteCallbackList
+					 */
+
+				} catch (RuntimeException e) {
+					Log.e(TAG, e.getMessage(), e);
+				}
+
+				long time = System.nanoTime() - start;
+				info.record(time);
+
+				if (time > SLOW_DELIVERY && Common.debug()) {
+					Log.d(TAG, "Slow delivery to the listener in process " + info.mPid + " (" + (time / 1000000) + "ms, average " + (info.getTotalTime() / info.getCount() / 1000) + "us)");
+				}
+			}
+
+		} finally {
+			mListeners.finishBroadcast();
+
+			mListenerInfo = listenerInfo;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of the Xposed Additions Project: https://github.com/spazedog/xposed-additions
+ *
+ * Copyright (c) 2014 Daniel Bergløv
+ *
+ * Xposed Additions is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * Xposed Additions is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with Xposed Additions. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.spazedog.xposed.additionsgb.Common;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.Type;
+
+/*
+ * Resolves the default values for preferences that has not been set,
+ * using the resources in the module package.
+ *
+ * The module Resources and the resource id for each key (also keys without a resource)
+ * are kept until the module package is changed.
+ */
+final class ResourceDefaults {
+	private static final String TAG = ResourceDefaults.class.getName();
+
+	private final Context mContext;
+
+	private Resources mResources;
+
+	private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+
+	private int mHits = 0;
+	private int mMisses = 0;
+
+	ResourceDefaults(Context context) {
+		mContext = context;
+	}
+
+	public synchronized Object get(String key, Integer type, Object defaultValue) {
+		if (mResources == null) {
+			try {
+				mResources = mContext.getPackageManager().getResourcesForApplication(Common.PACKAGE_NAME);
+
+			} catch (NameNotFoundException e) {
+				Log.e(TAG, "Could not access the application resources!");
+
+				return defaultValue;
+			}
+		}
+
+		String idKey = type + "/" + key;
+		Integer resourceId = mIds.get(idKey);
+
+		if (resourceId == null) {
+			resourceId = mResources.getIdentifier(key, Type.getIdentifier(type), Common.PACKAGE_NAME);
+			mIds.put(idKey, resourceId);
+			mMisses++;
+
+			if(Common.debug()) Log.d(TAG, "Resolved the resource for '" + key + "' (" + mHits + " hits, " + mMisses + " misses)");
+
+		} else {
+			mHits++;
+		}
+
+		if (resourceId > 0) {
+			switch (type) {
+				case Type.STRING:
+					return mResources.getString(resourceId);
+
+				case Type.LIST:
+					String[] array = mResources.getStringArray(resourceId);
+					List<String> list = new ArrayList<String>();
+
+					Collections.addAll(list, array);
+
+					return list;
+
+				case Type.BOOLEAN:
+					return mResources.getBoolean(resourceId);
+
+				case Type.INTEGER:
+					return mResources.getInteger(resourceId);
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/*
+	 * Drop the cached resources, used when the module package has been changed
+	 */
+	public synchronized void invalidate() {
+		if(Common.debug()) Log.d(TAG, "Clearing the resource cache (" + mHits + " hits, " + mMisses + " misses)");
+
+		mResources = null;
+		mIds.clear();
+	}
+
+	public synchronized int getHits() {
+		return mHits;
+	}
+
+	public synchronized int getMisses() {
+		return mMisses;
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * This file is part of the Xposed Additions Project: https://github.com/spazedog/xposed-additions
+ *
+ * Copyright (c) 2014 Daniel Bergløv
+ *
+ * Xposed Additions is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * Xposed Additions is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with Xposed Additions. If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.spazedog.xposed.additionsgb.backend.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.spazedog.lib.reflecttools.ReflectClass;
+import com.spazedog.lib.reflecttools.ReflectMethod;
+import com.spazedog.lib.reflecttools.utils.ReflectConstants.Match;
+import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
+
+/*
+ * The settings published by the service in shared memory, so that other processes
+ * can read them without a binder call.
+ *
+ * The region starts with four ints: MAGIC, the sequence, the size of the data and a CRC32 of the data.
+ * The data is the binary format from SettingsData.writeToStream(). The sequence is odd while
+ * the service writes, and readers start over if it is odd or has changed after the data was copied.
+ * Java has no fences for memory shared between processes, so the checksum is what catches a copy
+ * that mixes two versions. A size of -1 means that the settings did not fit in the region.
+ */
+public final class SettingsSnapshot {
+
+	/*
+	 * The size of the region, the pages that are not written are never allocated
+	 */
+	public static final int CAPACITY = 256 * 1024;
+
+	private static final int MAGIC = 0x58415353;
+	private static final int HEADER_SIZE = 16;
+
+	/*
+	 * Copies that are started over before read() gives up and the service is asked instead
+	 */
+	private static final int RETRIES = 20;
+
+	public static interface Region {
+		public int length();
+		public void read(int offset, byte[] buffer, int count) throws IOException;
+		public void write(int offset, byte[] buffer, int count) throws IOException;
+	}
+
+	/*
+	 * A region in a ByteBuffer, like a MappedByteBuffer of a file
+	 */
+	public static final class BufferRegion implements Region {
+		private final ByteBuffer mBuffer;
+
+		public BufferRegion(ByteBuffer buffer) {
+			mBuffer = buffer.duplicate();
+		}
+
+		@Override
+		public int length() {
+			return mBuffer.capacity();
+		}
+
+		@Override
+		public synchronized void read(int offset, byte[] buffer, int count) {
+			mBuffer.position(offset);
+			mBuffer.get(buffer, 0, count);
+		}
+
+		@Override
+		public synchronized void write(int offset, byte[] buffer, int count) {
+			mBuffer.position(offset);
+			mBuffer.put(buffer, 0, count);
+		}
+	}
+
+	/*
+	 * An ashmem region mapped with the private MemoryFile methods, as MemoryFile
+	 * cannot be created from a descriptor. The address is an int before API 21 and a long after,
+	 * so it is passed back as it was returned.
+	 */
+	private static final class MemoryFileRegion implements Region {
+		private final FileDescriptor mFd;
+		private final Object mAddress;
+		private final int mLength;
+		private final ReflectMethod mRead;
+
+		private MemoryFileRegion(FileDescriptor fd, Object address, int length, ReflectMethod read) {
+			mFd = fd;
+			mAddress = address;
+			mLength = length;
+			mRead = read;
+		}
+
+		@Override
+		public int length() {
+			return mLength;
+		}
+
+		@Override
+		public void read(int offset, byte[] buffer, int count) {
+			mRead.invoke(mFd, mAddress, buffer, offset, 0, count, false);
+		}
+
+		@Override
+		public void write(int offset, byte[] buffer, int count) throws IOException {
+			throw new IOException("The region is read-only");
+		}
+	}
+
+	/*
+	 * Map a region published by the service for reading. The private MemoryFile methods are
+	 * used where they exist, otherwise the descriptor is mapped as a file.
+	 */
+	public static Region map(FileDescriptor fd, int length) throws IOException {
+		ReflectClass memoryFile = ReflectClass.forName("android.os.MemoryFile", Match.SUPPRESS);
+
+		if (memoryFile.exists()) {
+			ReflectMethod mmap = memoryFile.findMethod("native_mmap", Match.SUPPRESS, FileDescriptor.class, Integer.TYPE, Integer.TYPE);
+			ReflectMethod read = memoryFile.findMethod("native_read", Match.SUPPRESS, FileDescriptor.class, Long.TYPE, byte[].class, Integer.TYPE, Integer.TYPE, Integer.TYPE, Boolean.TYPE);
+
+			if (!read.exists()) {
+				read = memoryFile.findMethod("native_read", Match.SUPPRESS, FileDescriptor.class, Integer.TYPE, byte[].class, Integer.TYPE, Integer.TYPE, Integer.TYPE, Boolean.TYPE);
+			}
+
+			if (mmap.exists() && read.exists()) {
+				/*
+				 * 0x1 is PROT_READ
+				 */
+				return new MemoryFileRegion(fd, mmap.invoke(fd, length, 0x1), length, read);
+			}
+		}
+
+		/*
+		 * The mapping stays valid after the channel is closed
+		 */
+		FileChannel channel = new FileInputStream(fd).getChannel();
+
+		try {
+			return new BufferRegion(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+
+		} finally {
+			channel.close();
+		}
+	}
+
+	private final Region mRegion;
+
+	private final byte[] mHeader = new byte[HEADER_SIZE];
+	private final CRC32 mChecksum = new CRC32();
+
+	/*
+	 * The last sequence written by publish()
+	 */
+	private int mSequence = 0;
+
+	/*
+	 * The settings decoded by read() and the sequence they were published with
+	 */
+	private SettingsData mData;
+	private int mDataSequence = 0;
+
+	public SettingsSnapshot(Region region) {
+		mRegion = region;
+	}
+
+	/*
+	 * Write all values, persistent or not, to the region. Only one process may publish to a region.
+	 */
+	public synchronized void publish(SettingsData data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		data.writeToStream(out, true);
+		out.flush();
+
+		byte[] body = bytes.toByteArray();
+		boolean fits = HEADER_SIZE + body.length <= mRegion.length();
+
+		writeHeader(++mSequence, -1, 0);
+
+		if (fits) {
+			mChecksum.reset();
+			mChecksum.update(body, 0, body.length);
+			mRegion.write(HEADER_SIZE, body, body.length);
+		}
+
+		writeHeader(++mSequence, fits ? body.length : -1, fits ? (int) mChecksum.getValue() : 0);
+	}
+
+	private void writeHeader(int sequence, int size, int checksum) throws IOException {
+		ByteBuffer.wrap(mHeader).putInt(MAGIC).putInt(sequence).putInt(size).putInt(checksum);
+
+		mRegion.write(0, mHeader, HEADER_SIZE);
+	}
+
+	/*
+	 * The sequence of the published settings, odd while they are being written and 0 if nothing has been published
+	 */
+	public synchronized int getSequence() throws IOException {
+		mRegion.read(0, mHeader, HEADER_SIZE);
+
+		ByteBuffer header = ByteBuffer.wrap(mHeader);
+
+		return header.getInt() == MAGIC ? header.getInt() : 0;
+	}
+
+	/*
+	 * The published settings. They are only decoded again when the sequence has changed,
+	 * so the returned data is shared and must not be changed.
+	 *
+	 * Returns null if nothing has been published, if the settings did not fit,
+	 * or if the service kept writing while the data was copied.
+	 */
+	public synchronized SettingsData read() throws IOException {
+		for (int i=0; i < RETRIES; i++) {
+			mRegion.read(0, mHeader, HEADER_SIZE);
+
+			ByteBuffer header = ByteBuffer.wrap(mHeader);
+
+			if (header.getInt() != MAGIC) {
+				return null;
+			}
+
+			int sequence = header.getInt();
+			int size = header.getInt();
+			int checksum = header.getInt();
+
+			if ((sequence & 1) != 0) {
+				Thread.yield();
+
+				continue;
+
+			} else if (sequence == mDataSequence && mData != null) {
+				return mData;
+
+			} else if (size < 0 || size > mRegion.length() - HEADER_SIZE) {
+				return null;
+			}
+
+			byte[] body = new byte[size];
+
+			mRegion.read(HEADER_SIZE, body, size);
+			mChecksum.reset();
+			mChecksum.update(body, 0, size);
+
+			if (getSequence() != sequence || (int) mChecksum.getValue() != checksum) {
+				continue;
+			}
+
+			mData = new SettingsData(new DataInputStream(new ByteArrayInputStream(body)));
+			mDataSequence = sequence;
+
+			return mData;
+		}
+
+		return null;
+	}
+}
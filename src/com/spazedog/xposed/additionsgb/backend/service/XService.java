@@ -19,11 +19,17 @@
 
 package com.spazedog.xposed.additionsgb.backend.service;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
@@ -33,11 +39,16 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.MemoryFile;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -45,6 +56,7 @@ import com.spazedog.lib.reflecttools.ReflectClass;
 import com.spazedog.lib.reflecttools.utils.ReflectConstants.Match;
 import com.spazedog.xposed.additionsgb.Common;
 import com.spazedog.xposed.additionsgb.IServicePreferences;
+import com.spazedog.xposed.additionsgb.backend.pwm.ParsedAction;
 import com.spazedog.xposed.additionsgb.utils.SettingsHelper.SettingsData;
 import com.spazedog.xposed.additionsgb.utils.SettingsHelper.Type;
 
@@ -64,7 +76,46 @@ public final class XService extends IXService.Stub {
 	
 	private Integer mVersion = 0;
 	
-	private final Set<IBinder> mListeners = new HashSet<IBinder>();
+	private final ListenerDispatcher mDispatcher = new ListenerDispatcher();
+	
+	private final Map<String, String> mActionHandlers = new HashMap<String, String>();
+	
+	private ResourceDefaults mDefaults;
+	
+	/*
+	 * All values in shared memory, published before each change is sent to the listeners. 
+	 * Null if the region could not be created. 
+	 */
+	private MemoryFile mSnapshotFile;
+	private SettingsSnapshot mSnapshot;
+	
+	/*
+	 * apply() calls within this time are written to the preference file at once
+	 */
+	private static final long WRITE_DELAY = 2000;
+	
+	/*
+	 * The longest time the shutdown waits for the preferences to be written
+	 */
+	private static final long SHUTDOWN_WRITE_TIMEOUT = 3000;
+	
+	private Handler mHandler;
+	
+	/*
+	 * Keys changed since the last write. Only these are sent to the preference service, 
+	 * unless mWriteAll is set because the file content is unknown or a write failed. 
+	 */
+	private final Set<String> mChangedKeys = new HashSet<String>();
+	private boolean mWriteAll = true;
+	
+	private volatile int mWriteCount = 0;
+	
+	private final Runnable mWriteRunnable = new Runnable() {
+		@Override
+		public void run() {
+			write();
+		}
+	};
 	
 	private static class PREFERENCE {
 		private static int UID = 1000;
@@ -125,6 +176,7 @@ public final class XService extends IXService.Stub {
 				 * This is why we inject this as an After Hook.
 				 */
 				mContextSystem = (Context) param.getResult();
+				mDefaults = new ResourceDefaults(mContextSystem);
 				
 				ReflectClass.forName("android.os.ServiceManager")
 				.findMethod("addService", Match.BEST, String.class, IBinder.class)
@@ -136,6 +188,7 @@ public final class XService extends IXService.Stub {
 				 * This instance contains the system context.
 				 */
 				mContextSystem = (Context) ReflectClass.forReceiver(param.thisObject).findField("mSystemContext").getValue();
+				mDefaults = new ResourceDefaults(mContextSystem);
 				
 				/*
 				 * Set the class loader for the server process. 
@@ -148,6 +201,8 @@ public final class XService extends IXService.Stub {
 				.findMethod("addService", Match.BEST, String.class, IBinder.class, Boolean.TYPE)
 				.invoke(Common.XSERVICE_NAME, XService.this, true);
 			}
+			
+			createSnapshot();
 		}
 	};
 	
@@ -178,7 +233,9 @@ public final class XService extends IXService.Stub {
 			
 			mContextSystem.registerReceiver(applicationNotifier, intentFilter);
 			
-			pokeAppPreferenceService(PokeType.RESTORE_SETTINGS);
+			mHandler = new Handler(mContextSystem.getMainLooper());
+			
+			pokeAppPreferenceService(PokeType.RESTORE_SETTINGS, null);
 		}
 	};
 	
@@ -187,11 +244,15 @@ public final class XService extends IXService.Stub {
 		protected final void beforeHookedMethod(final MethodHookParam param) {
 			if(Common.DEBUG) Log.d(TAG, "Stopping the service");
 			
-			//pokeAppPreferenceService(PokeType.SAVE_SETTINGS);
+			flush();
 		}
 	};
 	
-	private boolean pokeAppPreferenceService(final PokeType poke) {
+	/*
+	 * If done is not null, the preference service is asked to finish writing the file 
+	 * before the latch is released. The latch is also released if nothing was sent. 
+	 */
+	private boolean pokeAppPreferenceService(final PokeType poke, final CountDownLatch done) {
 		/*
 		 * Make sure that our application is the one being called.
 		 */
@@ -207,22 +268,79 @@ public final class XService extends IXService.Stub {
 				
 				try {
 					if (poke == PokeType.SAVE_SETTINGS) {
-						service.writeSettingsData(mData);
+						SettingsData data;
+						List<String> keys = null;
+						
+						synchronized (mData) {
+							if (mWriteAll) {
+								data = mData;
+								
+							} else {
+								data = new SettingsData();
+								keys = new ArrayList<String>(mChangedKeys);
+								
+								for (String key : keys) {
+									if (mData.contains(key) && mData.persistent(key)) {
+										data.put(key, mData.get(key), true);
+									}
+								}
+							}
+							
+							mChangedKeys.clear();
+							mWriteAll = false;
+						}
+						
+						if (keys != null && !service.writeSettingsDelta(data, keys)) {
+							/*
+							 * The stored preferences could not be read, so the changes cannot be applied to them
+							 */
+							if(Common.debug()) Log.d(TAG, "The preference service could not apply the changes, writing all preferences");
+							
+							keys = null;
+							data = mData;
+							data.changed(true);
+						}
+						
+						if (keys == null) {
+							service.writeSettingsData(data);
+						}
+						
+						if (done != null) {
+							service.flush();
+						}
+						
+						mWriteCount++;
+						
+						if(Common.debug()) Log.d(TAG, "Wrote " + (keys == null ? "all" : keys.size()) + " preferences (" + mWriteCount + " writes in total)");
 						
 					} else {
 						SettingsData data = service.readSettingsData();
 						
-						/*
-						 * Copy all current non-persistent values
-						 */
-						synchronized (mData) {
-							for (String key : mData.keySet()) {
-								if (!mData.persistent(key)) {
-									data.put(key, mData.get(key), false);
+						if (data != null) {
+							/*
+							 * Copy all current non-persistent values
+							 */
+							synchronized (mData) {
+								for (String key : mData.keySet()) {
+									if (!mData.persistent(key)) {
+										data.put(key, mData.get(key), false);
+									}
 								}
+								
+								mData = data;
+								
+								/*
+								 * The file now matches the persistent values
+								 */
+								mWriteAll = false;
 							}
 							
-							mData = data;
+						} else {
+							/*
+							 * The preference file could not be read. It has been moved aside by the 
+							 * preference service, so the next write will store all of the current values. 
+							 */
+							Log.e(TAG, "The stored preferences could not be restored");
 						}
 						
 						/*
@@ -235,8 +353,19 @@ public final class XService extends IXService.Stub {
 					mData.changed(false);
 					mIsReady = true;
 					
-				} catch (RemoteException e) {} finally {
+				} catch (RemoteException e) {
+					if (poke == PokeType.SAVE_SETTINGS) {
+						synchronized (mData) {
+							mWriteAll = true;
+						}
+					}
+					
+				} finally {
 					mContextSystem.unbindService(this);
+					
+					if (done != null) {
+						done.countDown();
+					}
 				}
 			}
 
@@ -244,11 +373,80 @@ public final class XService extends IXService.Stub {
 			public void onServiceDisconnected(ComponentName name) {}
 		};
 		
-		if (poke != PokeType.SAVE_SETTINGS || mData.changed()) {
-			return mContextSystem.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+		boolean bound = true;
+		
+		if (poke != PokeType.SAVE_SETTINGS || mData.changed() || !mChangedKeys.isEmpty()) {
+			bound = mContextSystem.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+			
+			if (bound) {
+				return true;
+			}
+		}
+		
+		if (done != null) {
+			done.countDown();
 		}
 		
-		return true;
+		return bound;
+	}
+	
+	/*
+	 * Used by "dumpsys user.additionsgb.service" to show the listener queue and delivery times
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		if (mContextSystem == null || mContextSystem.checkCallingOrSelfPermission(android.Manifest.permission.DUMP) != PackageManager.PERMISSION_GRANTED) {
+			writer.println("Permission Denial: can't dump XService from pid=" + Binder.getCallingPid() + ", uid=" + Binder.getCallingUid());
+			
+			return;
+		}
+		
+		writer.println("Preferences: " + mData.size() + " (" + mWriteCount + " writes)");
+		
+		mDispatcher.dump(writer);
+	}
+	
+	private void createSnapshot() {
+		try {
+			final MemoryFile file = new MemoryFile("XService.settings", SettingsSnapshot.CAPACITY);
+			
+			mSnapshot = new SettingsSnapshot(new SettingsSnapshot.Region() {
+				@Override
+				public int length() {
+					return file.length();
+				}
+				
+				@Override
+				public void read(int offset, byte[] buffer, int count) throws IOException {
+					file.readBytes(buffer, offset, 0, count);
+				}
+				
+				@Override
+				public void write(int offset, byte[] buffer, int count) throws IOException {
+					file.writeBytes(buffer, 0, offset, count);
+				}
+			});
+			
+			mSnapshotFile = file;
+			
+			publishSnapshot();
+			
+		} catch (IOException e) {
+			Log.e(TAG, "The shared settings could not be created", e);
+		}
+	}
+	
+	private void publishSnapshot() {
+		if (mSnapshot != null) {
+			try {
+				synchronized (mData) {
+					mSnapshot.publish(mData);
+				}
+				
+			} catch (IOException e) {
+				Log.e(TAG, "The shared settings could not be written", e);
+			}
+		}
 	}
 	
 	private Boolean accessGranted() {
@@ -263,6 +461,7 @@ public final class XService extends IXService.Stub {
 		synchronized (mData) {
 			if (accessGranted()) {
 				mData.put(key, value, preserve == 1);
+				mChangedKeys.add(key);
 				
 				broadcastChange(key);
 			}
@@ -274,38 +473,7 @@ public final class XService extends IXService.Stub {
 			return mData.get(key);
 		}
 		
-		PackageManager manager = mContextSystem.getPackageManager();
-		
-		try {
-			Resources resources = manager.getResourcesForApplication(Common.PACKAGE_NAME);
-			Integer resourceId = resources.getIdentifier(key, Type.getIdentifier(type), Common.PACKAGE_NAME);
-			
-			if (resourceId > 0) {
-				switch (type) {
-					case Type.STRING: 
-						return resources.getString(resourceId);
-						
-					case Type.LIST:
-						String[] array = resources.getStringArray(resourceId);
-						List<String> list = new ArrayList<String>();
-
-						Collections.addAll(list, array);
-						
-						return list;
-		
-					case Type.BOOLEAN:
-						return resources.getBoolean(resourceId);
-		
-					case Type.INTEGER:
-						return resources.getInteger(resourceId);
-				}
-			} 
-			
-		} catch (NameNotFoundException e) { 
-			Log.e(TAG, "Could not access the application resources!"); 
-		}
-		
-		return defaultValue;
+		return mDefaults.get(key, type, defaultValue);
 	}
 	
 	@Override
@@ -354,6 +522,7 @@ public final class XService extends IXService.Stub {
 		synchronized (mData) {
 			if (mData.contains(key) && accessGranted()) {
 				mData.remove(key);
+				mChangedKeys.add(key);
 				
 				broadcastChange(key);
 				
@@ -364,6 +533,72 @@ public final class XService extends IXService.Stub {
 		}
 	}
 	
+	/*
+	 * Remove all keys in a group, see SettingsData.groupKeys(). 
+	 * The listeners receive a single notification with all of the removed keys. 
+	 */
+	@Override
+	public boolean removeGroup(String group, String key) {
+		synchronized (mData) {
+			if (accessGranted()) {
+				List<String> keys = mData.groupKeys(group, key);
+				
+				if (keys.size() > 0) {
+					for (String groupKey : keys) {
+						mData.remove(groupKey);
+					}
+					
+					mChangedKeys.addAll(keys);
+					
+					broadcastChanges(new SettingsData(), keys);
+				}
+				
+				return true;
+			}
+			
+			return false;
+		}
+	}
+	
+	/*
+	 * Apply a set of changes at once. The listeners receive all of the new values 
+	 * in a single onPreferencesChanged() call. 
+	 */
+	@Override
+	public void putAll(SettingsData data, List<String> removed) {
+		synchronized (mData) {
+			if (accessGranted()) {
+				SettingsData values = new SettingsData();
+				List<String> removedKeys = new ArrayList<String>();
+				
+				if (removed != null) {
+					for (String key : removed) {
+						if (mData.contains(key)) {
+							mData.remove(key);
+							mChangedKeys.add(key);
+							removedKeys.add(key);
+						}
+					}
+				}
+				
+				if (data != null) {
+					for (String key : data.keySet()) {
+						Object value = data.get(key);
+						
+						mData.put(key, value, data.persistent(key));
+						mChangedKeys.add(key);
+						
+						if (Type.getType(value) != Type.UNKNOWN) {
+							values.put(key, value);
+						}
+					}
+				}
+				
+				broadcastChanges(values, removedKeys);
+			}
+		}
+	}
+	
 	@Override
 	public int getType(String key) {
 		if (mData.contains(key)) {
@@ -397,17 +632,63 @@ public final class XService extends IXService.Stub {
 		return list;
 	}
 	
+	/*
+	 * The settings screens calls this after each change, so the writes are 
+	 * collected and sent to the preference service once WRITE_DELAY has passed. 
+	 */
 	@Override
 	public void apply() {
-		write();
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mWriteRunnable);
+			mHandler.postDelayed(mWriteRunnable, WRITE_DELAY);
+			
+		} else {
+			write();
+		}
 	}
 	
 	private void write() {
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mWriteRunnable);
+		}
+		
 		synchronized (mData) {
-			pokeAppPreferenceService(PokeType.SAVE_SETTINGS);
+			pokeAppPreferenceService(PokeType.SAVE_SETTINGS, null);
 		}
 	}
 	
+	/*
+	 * Write the pending changes and wait until they are stored. 
+	 * The service connection is handled on the main thread, so it cannot wait when called from there. 
+	 */
+	private void flush() {
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mWriteRunnable);
+		}
+		
+		CountDownLatch done = new CountDownLatch(1);
+		
+		synchronized (mData) {
+			pokeAppPreferenceService(PokeType.SAVE_SETTINGS, done);
+		}
+		
+		if (Looper.myLooper() != Looper.getMainLooper()) {
+			try {
+				if (!done.await(SHUTDOWN_WRITE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					Log.e(TAG, "The preferences were not written before the timeout");
+				}
+				
+			} catch (InterruptedException e) {}
+		}
+	}
+	
+	/*
+	 * The number of times the changes has been sent to the preference service
+	 */
+	public int getWriteCount() {
+		return mWriteCount;
+	}
+	
 	@Override
 	public boolean isUnlocked() {
 		return mContextSystem.getPackageManager()
@@ -424,86 +705,73 @@ public final class XService extends IXService.Stub {
 		return mVersion;
 	}
 	
+	/*
+	 * The listener only receives changes and broadcasts where the key or action starts with one of the topics. 
+	 * A null list subscribes to everything. Calling this again replaces the topics for the listener. 
+	 */
 	@Override
-	public void setOnChangeListener(IXServiceChangeListener listener) throws RemoteException {
-		final IBinder binder = listener.asBinder();
-		binder.linkToDeath(new DeathRecipient(){
-			@Override
-			public void binderDied() {
-				synchronized(mListeners) {
-					binder.unlinkToDeath(this, 0);
-					
-					mListeners.remove(binder);
-				}
-			}
-			
-		}, 0);
-		
-		synchronized(mListeners) {
-			if (!mListeners.contains(binder)) {
-				mListeners.add(binder);
-			}
-		}
+	public void setOnChangeListener(IXServiceChangeListener listener, List<String> topics) throws RemoteException {
+		mDispatcher.register(listener, Binder.getCallingPid(), topics);
 	}
 	
 	@Override
 	public void sendBroadcast(String action, Bundle data) {
-		synchronized(mListeners) {
-			for (IBinder listener : mListeners) {
-				if (listener != null && listener.pingBinder()) {
-					try {
-						IXServiceChangeListener.Stub.asInterface(listener).onBroadcastReceive(action, data);
-						
-					} catch (RemoteException e) {}
-				}
-			}
-		}
+		mDispatcher.broadcast(action, data);
 	}
 	
 	protected BroadcastReceiver applicationNotifier = new BroadcastReceiver() {
 		@Override
 		public void onReceive(Context context, Intent intent) {
-			synchronized(mListeners) {
-				for (IBinder listener : mListeners) {
-					if (listener != null && listener.pingBinder()) {
-						try {
-							IXServiceChangeListener.Stub.asInterface(listener).onPackageChanged();
-							
-						} catch (RemoteException e) {}
-					}
-				}
+			Uri data = intent.getData();
+			
+			if (data != null && Common.PACKAGE_NAME.equals(data.getSchemeSpecificPart())) {
+				mDefaults.invalidate();
 			}
+			
+			mDispatcher.packageChanged();
 		}
 	};
 	
 	private void broadcastChange(String key) {
-		Integer type = key != null && mData.contains(key) ? mData.type(key) : Type.UNKNOWN;
-		
-		synchronized(mListeners) {
-			for (IBinder listener : mListeners) {
-				if (listener != null && listener.pingBinder()) {
-					try {
-						if (key == null) {
-							IXServiceChangeListener.Stub.asInterface(listener).onPreferenceDataSetChanged();
-							
-						} else if (type == Type.UNKNOWN) {
-							IXServiceChangeListener.Stub.asInterface(listener).onPreferenceRemoved(key);
-							
-						} else {
-							IXServiceChangeListener.Stub.asInterface(listener).onPreferenceChanged(key, type);
-						}
-						
-					} catch (RemoteException e) {}
-				}
+		if (key == null) {
+			publishSnapshot();
+			
+			mDispatcher.dataSetChanged();
+			
+		} else {
+			/*
+			 * Send the value along with the key, so the listeners does not have to request it
+			 */
+			SettingsData values = new SettingsData();
+			List<String> removed = new ArrayList<String>();
+			
+			if (mData.contains(key) && mData.type(key) != Type.UNKNOWN) {
+				values.put(key, mData.get(key));
+				
+			} else {
+				removed.add(key);
 			}
+			
+			broadcastChanges(values, removed);
 		}
 	}
 	
+	private void broadcastChanges(SettingsData values, List<String> removed) {
+		if (values.size() == 0 && removed.isEmpty()) {
+			return;
+		}
+		
+		publishSnapshot();
+		
+		mDispatcher.preferencesChanged(values, removed);
+	}
+	
 	@Override
 	public void setSettingsData(SettingsData data) {
 		synchronized (mData) {
 			if (accessGranted()) {
 				mData = data;
+				mWriteAll = true;
 				
 				broadcastChange(null);
 			}
@@ -514,4 +782,134 @@ public final class XService extends IXService.Stub {
 	public SettingsData getSettingsData() {
 		return mData;
 	}
+	
+	/*
+	 * All values with a key starting with one of the prefixes, or all values if no prefixes are given
+	 */
+	@Override
+	public SettingsData getSnapshot(List<String> prefixes) {
+		SettingsData snapshot = new SettingsData();
+		
+		synchronized (mData) {
+			for (String key : mData.keySet()) {
+				if ((prefixes == null || prefixes.isEmpty() || XServiceManager.matchesTopic(key, prefixes)) && mData.type(key) != Type.UNKNOWN) {
+					snapshot.put(key, mData.get(key));
+				}
+			}
+		}
+		
+		return snapshot;
+	}
+	
+	/*
+	 * All values in a group, see SettingsData.groupKeys()
+	 */
+	@Override
+	public SettingsData getGroup(String group, String key) {
+		SettingsData values = new SettingsData();
+		
+		synchronized (mData) {
+			for (String groupKey : mData.groupKeys(group, key)) {
+				if (mData.type(groupKey) != Type.UNKNOWN) {
+					values.put(groupKey, mData.get(groupKey));
+				}
+			}
+		}
+		
+		return values;
+	}
+	
+	/*
+	 * Let other modules add custom actions. When the action is executed, a broadcast is sent
+	 * to the package using the intent action, with the action name in the "action" extra.
+	 * The name cannot be a number, contain '.' or ':', see ParsedAction.isCustomName(). 
+	 * The package must belong to the caller, and only that package can replace or remove the action. 
+	 * A null intent action removes it. 
+	 * 
+	 * The handlers are stored as "package/intentAction". 
+	 */
+	@Override
+	public void registerActionHandler(String packageName, String action, String intentAction) {
+		if (!ParsedAction.isCustomName(action)) {
+			Log.e(TAG, "The action name '" + action + "' is not a valid custom action name");
+			
+		} else if (!isCallingPackage(packageName)) {
+			Log.e(TAG, "The package '" + packageName + "' does not belong to the caller " + Binder.getCallingUid());
+			
+		} else if (accessGranted()) {
+			synchronized (mActionHandlers) {
+				String current = mActionHandlers.get(action);
+				
+				if (current != null && !current.startsWith(packageName + "/")) {
+					Log.e(TAG, "The action '" + action + "' is already registered by another package");
+					
+					return;
+					
+				} else if (intentAction != null) {
+					mActionHandlers.put(action, packageName + "/" + intentAction);
+					
+				} else {
+					mActionHandlers.remove(action);
+				}
+			}
+			
+			/*
+			 * The receivers read the handlers from the service, so this cannot be used to send other handlers
+			 */
+			sendBroadcast("actionHandler:changed", new Bundle());
+		}
+	}
+	
+	private boolean isCallingPackage(String packageName) {
+		if (packageName == null || packageName.length() == 0) {
+			return false;
+		}
+		
+		String[] packages = mContextSystem.getPackageManager().getPackagesForUid(Binder.getCallingUid());
+		
+		if (packages != null) {
+			for (String callingPackage : packages) {
+				if (packageName.equals(callingPackage)) {
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public Map<String, String> getActionHandlers() {
+		synchronized (mActionHandlers) {
+			return new HashMap<String, String>(mActionHandlers);
+		}
+	}
+	
+	/*
+	 * The shared memory with all values, see SettingsSnapshot. The descriptor is writable, 
+	 * so it is only given to callers that can change the values anyway. 
+	 */
+	@Override
+	public ParcelFileDescriptor getSnapshotFile() {
+		if (mSnapshotFile != null && accessGranted()) {
+			try {
+				FileDescriptor fd = (FileDescriptor) ReflectClass.forReceiver(mSnapshotFile).findMethod("getFileDescriptor").invoke();
+				
+				/*
+				 * The returned descriptor is closed once it has been sent, so it must be a copy
+				 */
+				if (Build.VERSION.SDK_INT >= 13) {
+					return ParcelFileDescriptor.dup(fd);
+				}
+				
+				return (ParcelFileDescriptor) ReflectClass.forClass(ParcelFileDescriptor.class).findConstructor(Match.BEST, FileDescriptor.class)
+						.invoke(ReflectClass.forClass(Parcel.class).findMethod("dupFileDescriptor", Match.BEST, FileDescriptor.class).invoke(fd));
+				
+			} catch (Throwable e) {
+				Log.e(TAG, "The shared settings could not be sent", e);
+			}
+		}
+		
+		return null;
+	}
 }
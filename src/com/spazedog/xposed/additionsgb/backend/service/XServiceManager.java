@@ -19,15 +19,19 @@
 
 package com.spazedog.xposed.additionsgb.backend.service;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -48,15 +52,53 @@ public class XServiceManager {
 	
 	private static WeakReference<XServiceManager> oInstance = new WeakReference<XServiceManager>(null);
 	
-	private Set<XServiceBroadcastListener> mListeners = new HashSet<XServiceBroadcastListener>();
-	
-	private IXService mService;
-	
-	private Boolean mIsUnlocked;
-	
-	private Boolean isReady;
-	
-	private Map<String, Object> mData = new HashMap<String, Object>();
+	/*
+	 * The preferences that are loaded into the cache when connecting to the service
+	 */
+	private static final List<String> PREFETCH_PREFIXES = Arrays.asList("remap_", "forced_haptic_", "layout_", "usb_", "enable_");
+	
+	private final Set<XServiceBroadcastListener> mListeners = new CopyOnWriteArraySet<XServiceBroadcastListener>();
+	
+	private volatile IXService mService;
+	
+	/*
+	 * The key and broadcast prefixes this process receives changes for, null for everything. 
+	 * Values outside of these are not cached, as the cache would not be updated. 
+	 */
+	private volatile List<String> mTopics;
+	
+	private volatile Boolean mIsUnlocked;
+	
+	private volatile Boolean isReady;
+	
+	/*
+	 * The cache is read from the input threads while binder threads updates it. 
+	 * Reads does not lock, all changes are made while holding mDataLock. 
+	 * ConcurrentHashMap does not allow null, so null values are stored as NULL_VALUE. 
+	 */
+	private final Map<String, Object> mData = new ConcurrentHashMap<String, Object>();
+	private final Object mDataLock = new Object();
+	private static final Object NULL_VALUE = new Object();
+	
+	/*
+	 * Changes collected between beginBatch() and commitBatch()
+	 */
+	private SettingsData mBatch;
+	private List<String> mBatchRemoved;
+	private int mBatchDepth = 0;
+	
+	/*
+	 * Increased whenever the service reports a preference change. 
+	 * Allows users to keep pre-processed copies of the settings up to date. 
+	 */
+	private volatile int mGeneration = 0;
+	
+	/*
+	 * The values that the service publishes in shared memory, read when a value 
+	 * is not cached. Null if the service does not publish them. 
+	 */
+	private volatile SettingsSnapshot mSnapshot;
+	private ParcelFileDescriptor mSnapshotFile;
 	
 	public static interface XServiceBroadcastListener {
 		public void onBroadcastReceive(String action, Bundle data);
@@ -65,26 +107,32 @@ public class XServiceManager {
 	private IXServiceChangeListener mInternalListener = new IXServiceChangeListener.Stub(){
 		@Override
 		public void onPreferenceDataSetChanged() {
-			mData.clear();
+			synchronized (mDataLock) {
+				mData.clear();
+				mGeneration++;
+			}
 		}
 		
+		/*
+		 * The new values are included, so the cache can be updated without going back to the service
+		 */
 		@Override
-		public void onPreferenceChanged(String key, int type) {
-			try {
-				switch(type) {
-					case Type.STRING: mData.put(key, mService.getString(key, "")); break;
-					case Type.INTEGER: mData.put(key, mService.getInt(key, -1)); break;
-					case Type.BOOLEAN: mData.put(key, mService.getBoolean(key, false)); break;
-					case Type.LIST: mData.put(key, mService.getStringArray(key, new ArrayList<String>())); 
-					case Type.UNKNOWN: mData.remove(key);
+		public void onPreferencesChanged(SettingsData values, List<String> removed) {
+			synchronized (mDataLock) {
+				for (String key : values.keySet()) {
+					if (matchesTopic(key, mTopics)) {
+						Object value = values.get(key);
+						
+						mData.put(key, value != null ? value : NULL_VALUE);
+					}
 				}
 				
-			} catch (RemoteException e) { handleRemoteException(e); }
-		}
-
-		@Override
-		public void onPreferenceRemoved(String key) {
-			mData.remove(key);
+				for (String key : removed) {
+					mData.remove(key);
+				}
+				
+				mGeneration++;
+			}
 		}
 
 		@Override
@@ -102,28 +150,39 @@ public class XServiceManager {
 		}
 	};
 	
-	public static synchronized XServiceManager getInstance() {
+	public static XServiceManager getInstance() {
+		return getInstance(null);
+	}
+	
+	/*
+	 * Get the manager, only subscribing to changes to keys and broadcasts that starts with one of the topics. 
+	 * If the process already has a manager, the topics are added to it. 
+	 */
+	public static synchronized XServiceManager getInstance(List<String> topics) {
 		XServiceManager instance = oInstance.get();
 		
-		if (instance == null || instance.mService == null) {
+		if (instance != null && instance.mService != null) {
+			instance.addTopics(topics);
+			
+		} else {
 			if (instance == null) {
 				instance = new XServiceManager();
+				instance.mTopics = topics != null ? new ArrayList<String>(topics) : null;
+				
+			} else {
+				instance.addTopics(topics);
 			}
 			
 			for (String serviceName : new String[]{Common.XSERVICE_NAME, Common.XSERVICE_NAME_COMBAT}) {
 				try {
 					ReflectClass service = ReflectClass.forClass(IXService.class).bindInterface(serviceName);
 					
-					if (service != null) {
-						instance.mService = (IXService) service.getReceiver();
+					if (service != null && service.getReceiver() != null) {
+						instance.attach((IXService) service.getReceiver());
 						
-						if (instance.mService != null) {
-							instance.mService.setOnChangeListener(instance.mInternalListener);
-							
-							oInstance = new WeakReference<XServiceManager>(instance);
-							
-							break;
-						}
+						oInstance = new WeakReference<XServiceManager>(instance);
+						
+						break;
 					}
 					
 				} catch (Throwable e) {
@@ -139,6 +198,70 @@ public class XServiceManager {
 		return instance;
 	}
 	
+	/*
+	 * A manager for a service that has not been published with the service manager. 
+	 * It is not shared with getInstance(). 
+	 */
+	static XServiceManager create(IXService service, List<String> topics) throws RemoteException {
+		XServiceManager instance = new XServiceManager();
+		instance.mTopics = topics != null ? new ArrayList<String>(topics) : null;
+		instance.attach(service);
+		
+		return instance;
+	}
+	
+	private void attach(IXService service) throws RemoteException {
+		mService = service;
+		mService.setOnChangeListener(mInternalListener, mTopics);
+		
+		openSnapshot();
+		prefetch(mTopics != null ? mTopics : PREFETCH_PREFIXES);
+	}
+	
+	/*
+	 * Map the shared memory of the current service, closing the one of a previous service
+	 */
+	private synchronized void openSnapshot() throws RemoteException {
+		ParcelFileDescriptor file = mService.getSnapshotFile();
+		
+		mSnapshot = null;
+		
+		try {
+			if (mSnapshotFile != null) {
+				mSnapshotFile.close();
+			}
+			
+			mSnapshotFile = file;
+			
+			if (file != null) {
+				mSnapshot = new SettingsSnapshot(SettingsSnapshot.map(file.getFileDescriptor(), SettingsSnapshot.CAPACITY));
+			}
+			
+		} catch (Throwable e) {
+			Log.e(TAG, "The shared settings could not be mapped, using IPC", e);
+		}
+	}
+	
+	/*
+	 * The values in shared memory, or null if they cannot be read
+	 */
+	private SettingsData readSnapshot() {
+		SettingsSnapshot snapshot = mSnapshot;
+		
+		if (snapshot != null) {
+			try {
+				return snapshot.read();
+				
+			} catch (IOException e) {
+				Log.e(TAG, "The shared settings could not be read, using IPC", e);
+				
+				mSnapshot = null;
+			}
+		}
+		
+		return null;
+	}
+	
 	private synchronized void handleRemoteException(RemoteException e) {
 		for (String serviceName : new String[]{Common.XSERVICE_NAME, Common.XSERVICE_NAME_COMBAT}) {
 			try {
@@ -148,7 +271,9 @@ public class XServiceManager {
 					mService = (IXService) service.getReceiver();
 					
 					if (mService != null) {
-						mService.setOnChangeListener(mInternalListener);
+						mService.setOnChangeListener(mInternalListener, mTopics);
+						
+						openSnapshot();
 						
 						break;
 					}
@@ -163,17 +288,138 @@ public class XServiceManager {
 	private XServiceManager(){}
 	
 	public void addBroadcastListener(XServiceBroadcastListener listener) {
-		if (!mListeners.contains(listener)) {
-			mListeners.add(listener);
-		}
+		mListeners.add(listener);
 	}
 	
 	public void removeBroadcastListener(XServiceBroadcastListener listener) {
-		if (mListeners.contains(listener)) {
-			mListeners.remove(listener);
+		mListeners.remove(listener);
+	}
+	
+	/*
+	 * Load all values with one of the key prefixes into the cache, from the shared memory 
+	 * if the service publishes it, otherwise using a single request
+	 */
+	public void prefetch(List<String> prefixes) {
+		try {
+			int generation = mGeneration;
+			SettingsData snapshot = readSnapshot();
+			boolean shared = snapshot != null;
+			
+			if (!shared) {
+				snapshot = mService.getSnapshot(prefixes);
+			}
+			
+			if (snapshot != null) {
+				int count = 0;
+				
+				synchronized (mDataLock) {
+					if (generation == mGeneration) {
+						for (String key : snapshot.keySet()) {
+							if (matchesTopic(key, mTopics) && (prefixes == null || prefixes.isEmpty() || matchesTopic(key, prefixes))) {
+								Object value = snapshot.get(key);
+								
+								mData.put(key, value != null ? value : NULL_VALUE);
+								count++;
+							}
+						}
+					}
+				}
+				
+				if(Common.debug()) Log.d(TAG, "Prefetched " + count + " preferences via " + (shared ? "shared memory" : "IPC"));
+			}
+			
+		} catch (RemoteException e) { handleRemoteException(e); }
+	}
+	
+	static boolean matchesTopic(String key, List<String> topics) {
+		if (topics == null) {
+			return true;
+		}
+		
+		for (int i = 0; i < topics.size(); i++) {
+			if (key.startsWith(topics.get(i))) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private synchronized void addTopics(List<String> topics) {
+		List<String> current = mTopics;
+		
+		if (current == null || (topics != null && current.containsAll(topics))) {
+			return;
+		}
+		
+		/*
+		 * The values for the new topics has not been cached yet
+		 */
+		List<String> added;
+		
+		if (topics == null) {
+			mTopics = null;
+			added = PREFETCH_PREFIXES;
+			
+		} else {
+			List<String> newTopics = new ArrayList<String>(current);
+			added = new ArrayList<String>();
+			
+			for (String topic : topics) {
+				if (!newTopics.contains(topic)) {
+					newTopics.add(topic);
+					added.add(topic);
+				}
+			}
+			
+			mTopics = newTopics;
+		}
+		
+		if (mService != null) {
+			try {
+				mService.setOnChangeListener(mInternalListener, mTopics);
+				
+				prefetch(added);
+				
+			} catch (RemoteException e) { handleRemoteException(e); }
 		}
 	}
 	
+	/*
+	 * Store a value fetched from the service. If the service has reported changes 
+	 * since the fetch started, the value may be outdated and is not cached. 
+	 */
+	private Object cacheValue(String key, Object value, int generation) {
+		synchronized (mDataLock) {
+			if (generation == mGeneration && matchesTopic(key, mTopics)) {
+				mData.put(key, value != null ? value : NULL_VALUE);
+			}
+		}
+		
+		return value;
+	}
+	
+	/*
+	 * A value that is not cached, read from the shared memory. Null values are returned 
+	 * as NULL_VALUE, and null is returned if the value is not there. 
+	 */
+	private Object getSharedValue(String key) {
+		int generation = mGeneration;
+		SettingsData snapshot = readSnapshot();
+		
+		if (snapshot != null && snapshot.contains(key)) {
+			Object value = cacheValue(key, snapshot.get(key), generation);
+			
+			return value != null ? value : NULL_VALUE;
+		}
+		
+		return null;
+	}
+	
+	public int getGeneration() {
+		return mGeneration;
+	}
+	
 	public Integer getIntGroup(String group, String key) {
 		return getInt(group + "#" + key, -1);
 	}
@@ -238,58 +484,86 @@ public class XServiceManager {
 		putStringArray(group + "#" + key, value);
 	}
 	
+	/*
+	 * Remove "group#key". If group is null, all keys ending with "#key" are removed, 
+	 * and if key is null, all keys starting with "group#". 
+	 */
 	public boolean removeGroup(String group, String key) {
 		try {
-			List<String> keys = mService.getKeys();
-			Boolean status = true;
-			
-			for (String arrKey : keys) {
-				if ((group != null && key != null && arrKey.equals(group + "#" + key)) ||
-						(key == null && arrKey.startsWith(group + "#")) ||
-						group == null && arrKey.endsWith("#" + key)) {
-					
-					try {
-						if(Common.debug()) Log.d(TAG, "Removing group array '" + arrKey + "'");
-						
-						mService.remove(arrKey);
+			if (inBatch()) {
+				/*
+				 * The keys are needed to add them to the batch. They are fetched 
+				 * without holding the lock, as the service might be slow or gone. 
+				 */
+				SettingsData values = mService.getGroup(group, key);
+				
+				synchronized (this) {
+					if (mBatch != null) {
+						if (values != null) {
+							for (String groupKey : values.keySet()) {
+								remove(groupKey);
+							}
+						}
 						
-					} catch (RemoteException e) { 
-						if(Common.debug()) Log.d(TAG, "The group array '" + arrKey + "' could not be removed");
+						/*
+						 * Keys that were added earlier in the same batch
+						 */
+						for (String groupKey : mBatch.groupKeys(group, key)) {
+							remove(groupKey);
+						}
 						
-						handleRemoteException(e); 
-						status = false; 
+						return values != null;
 					}
 				}
 			}
 			
-			return status;
+			if(Common.debug()) Log.d(TAG, "Removing group array '" + (group == null ? "" : group) + "#" + (key == null ? "" : key) + "'");
+			
+			return mService.removeGroup(group, key);
 			
 		} catch (RemoteException e) { 
-			Log.e(TAG, "It was not possible to get all group keys in order to remove " + (group == null ? "" : group) + "#" + (key == null ? "" : key));
+			Log.e(TAG, "It was not possible to remove the group keys " + (group == null ? "" : group) + "#" + (key == null ? "" : key));
 			
 			handleRemoteException(e); 
 		}
 		
 		return false;
 	}
+	
+	/*
+	 * All values in a group, using the same matching as removeGroup()
+	 */
+	public SettingsData getGroup(String group, String key) {
+		try {
+			return mService.getGroup(group, key);
+			
+		} catch (RemoteException e) { handleRemoteException(e); }
+		
+		return null;
+	}
 
 	public Integer getInt(String key) {
 		return getInt(key, -1);
 	}
 	
 	public Integer getInt(String key, Integer defaultValue) {
-		try {
-			if (!mData.containsKey(key)) {
+		Object value = mData.get(key);
+		
+		if (value == null) {
+			value = getSharedValue(key);
+		}
+		
+		if (value == null) {
+			try {
 				if(Common.debug()) Log.d(TAG, "Retrieving preference Integer '" + key + "' via IPC");
 				
-				mData.put(key, mService.getInt(key, defaultValue));
-			}
-			
-			Integer value = (Integer) mData.get(key);
+				int generation = mGeneration;
+				value = cacheValue(key, mService.getInt(key, defaultValue), generation);
+				
+			} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		}
 
-			return value != null ? value : defaultValue;
-			
-		} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		return value != null && value != NULL_VALUE ? (Integer) value : defaultValue;
 	}
 
 	public Boolean getBoolean(String key) {
@@ -297,18 +571,23 @@ public class XServiceManager {
 	}
 	
 	public Boolean getBoolean(String key, Boolean defaultValue) {
-		try {
-			if (!mData.containsKey(key)) {
+		Object value = mData.get(key);
+		
+		if (value == null) {
+			value = getSharedValue(key);
+		}
+		
+		if (value == null) {
+			try {
 				if(Common.debug()) Log.d(TAG, "Retrieving preference Boolean '" + key + "' via IPC");
 				
-				mData.put(key, mService.getBoolean(key, defaultValue));
-			}
-			
-			Boolean value = (Boolean) mData.get(key);
+				int generation = mGeneration;
+				value = cacheValue(key, mService.getBoolean(key, defaultValue), generation);
+				
+			} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		}
 
-			return value != null ? value : defaultValue;
-			
-		} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		return value != null && value != NULL_VALUE ? (Boolean) value : defaultValue;
 	}
 
 	public List<String> getStringArray(String key) {
@@ -317,18 +596,23 @@ public class XServiceManager {
 	
 	@SuppressWarnings("unchecked")
 	public List<String> getStringArray(String key, ArrayList<String> defaultValue) {
-		try {
-			if (!mData.containsKey(key)) {
+		Object value = mData.get(key);
+		
+		if (value == null) {
+			value = getSharedValue(key);
+		}
+		
+		if (value == null) {
+			try {
 				if(Common.debug()) Log.d(TAG, "Retrieving preference StringArray '" + key + "' via IPC");
 				
-				mData.put(key, mService.getStringArray(key, defaultValue));
-			}
-			
-			List<String> list = (List<String>) mData.get(key);
+				int generation = mGeneration;
+				value = cacheValue(key, mService.getStringArray(key, defaultValue), generation);
+				
+			} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		}
 
-			return list != null ? list : defaultValue;
-			
-		} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		return value != null && value != NULL_VALUE ? (List<String>) value : defaultValue;
 	}
 	
 	public String getString(String key) {
@@ -336,19 +620,81 @@ public class XServiceManager {
 	}
 	
 	public String getString(String key, String defaultValue) {
-		try {
-			if (!mData.containsKey(key)) {
+		Object value = mData.get(key);
+		
+		if (value == null) {
+			value = getSharedValue(key);
+		}
+		
+		if (value == null) {
+			try {
 				if(Common.debug()) Log.d(TAG, "Retrieving preference String '" + key + "' via IPC");
 				
-				mData.put(key, mService.getString(key, defaultValue));
-			}
+				int generation = mGeneration;
+				value = cacheValue(key, mService.getString(key, defaultValue), generation);
+				
+			} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+		}
 
-			return (String) mData.get(key);
+		return value != NULL_VALUE ? (String) value : null;
+	}
+
+	/*
+	 * Collect all changes until commitBatch() is called, and send them to the service 
+	 * as one change. The new values are not visible to the get methods until the batch is committed. 
+	 * Batches can be nested, only the outer commit sends the changes. 
+	 */
+	public synchronized void beginBatch() {
+		if (mBatchDepth++ == 0) {
+			mBatch = new SettingsData();
+			mBatchRemoved = new ArrayList<String>();
+		}
+	}
+	
+	private synchronized boolean inBatch() {
+		return mBatch != null;
+	}
+	
+	public void commitBatch() {
+		SettingsData batch;
+		List<String> removed;
+		
+		synchronized (this) {
+			if (mBatchDepth == 0 || --mBatchDepth > 0) {
+				return;
+			}
 			
-		} catch (RemoteException e) { handleRemoteException(e); return defaultValue; }
+			batch = mBatch;
+			removed = mBatchRemoved;
+			
+			mBatch = null;
+			mBatchRemoved = null;
+		}
+		
+		if (batch.size() > 0 || removed.size() > 0) {
+			try {
+				mService.putAll(batch, removed);
+				
+			} catch (RemoteException e) { handleRemoteException(e); }
+		}
+	}
+	
+	private synchronized boolean putBatch(String key, Object value, Boolean preserve) {
+		if (mBatch != null) {
+			mBatch.put(key, value, preserve);
+			mBatchRemoved.remove(key);
+			
+			return true;
+		}
+		
+		return false;
 	}
 
 	public void putInt(String key, Integer value, Boolean preserve) {
+		if (putBatch(key, value, preserve)) {
+			return;
+		}
+		
 		try {
 			mService.putInt(key, value, preserve ? 1 : 0);
 			
@@ -356,6 +702,10 @@ public class XServiceManager {
 	}
 	
 	public void putInt(String key, Integer value) {
+		if (putBatch(key, value, false)) {
+			return;
+		}
+		
 		try {
 			mService.putInt(key, value, -1);
 			
@@ -363,6 +713,10 @@ public class XServiceManager {
 	}
 
 	public void putBoolean(String key, Boolean value, Boolean preserve) {
+		if (putBatch(key, value, preserve)) {
+			return;
+		}
+		
 		try {
 			mService.putBoolean(key, value, preserve ? 1 : 0);
 			
@@ -370,6 +724,10 @@ public class XServiceManager {
 	}
 	
 	public void putBoolean(String key, Boolean value) {
+		if (putBatch(key, value, false)) {
+			return;
+		}
+		
 		try {
 			mService.putBoolean(key, value, -1);
 			
@@ -377,6 +735,10 @@ public class XServiceManager {
 	}
 
 	public void putString(String key, String value, Boolean preserve) {
+		if (putBatch(key, value, preserve)) {
+			return;
+		}
+		
 		try {
 			mService.putString(key, value, preserve ? 1 : 0);
 			
@@ -384,6 +746,10 @@ public class XServiceManager {
 	}
 	
 	public void putString(String key, String value) {
+		if (putBatch(key, value, false)) {
+			return;
+		}
+		
 		try {
 			mService.putString(key, value, -1);
 			
@@ -391,6 +757,10 @@ public class XServiceManager {
 	}
 	
 	public void putStringArray(String key, ArrayList<String> value, Boolean preserve) {
+		if (putBatch(key, value == null ? new ArrayList<String>() : value, preserve)) {
+			return;
+		}
+		
 		try {
 			mService.putStringArray(key, value == null ? new ArrayList<String>() : value, preserve ? 1 : 0);
 			
@@ -398,6 +768,10 @@ public class XServiceManager {
 	}
 	
 	public void putStringArray(String key, ArrayList<String> value) {
+		if (putBatch(key, value == null ? new ArrayList<String>() : value, false)) {
+			return;
+		}
+		
 		try {
 			mService.putStringArray(key, value == null ? new ArrayList<String>() : value, -1);
 			
@@ -405,6 +779,18 @@ public class XServiceManager {
 	}
 	
 	public boolean remove(String key) {
+		synchronized (this) {
+			if (mBatch != null) {
+				mBatch.remove(key);
+				
+				if (!mBatchRemoved.contains(key)) {
+					mBatchRemoved.add(key);
+				}
+				
+				return true;
+			}
+		}
+		
 		try {
 			return mService.remove(key);
 			
@@ -519,4 +905,28 @@ public class XServiceManager {
 		
 		return null;
 	}
+	
+	/*
+	 * The package must be the one of the calling process, it is the only one receiving the action broadcasts
+	 */
+	public void registerActionHandler(String packageName, String action, String intentAction) {
+		try {
+			mService.registerActionHandler(packageName, action, intentAction);
+		
+		} catch (RemoteException e) {
+			handleRemoteException(e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public Map<String, String> getActionHandlers() {
+		try {
+			return mService.getActionHandlers();
+		
+		} catch (RemoteException e) {
+			handleRemoteException(e);
+		}
+		
+		return null;
+	}
 }
@@ -17,6 +17,9 @@
 
 package com.spazedog.xposed.additionsgb.utils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,7 +41,9 @@ import android.os.Parcelable;
  */
 
 public class SettingsHelper {
-	public static final Integer SCHEMA_VERSION = 2;
+	public static final Integer SCHEMA_VERSION = 3;
+	
+	private static final int BINARY_MAGIC = 0x58415033;
 	
 	public static class Type {
 		public static final int UNKNOWN = -2;
@@ -74,6 +79,14 @@ public class SettingsHelper {
 		protected Set<String> mPersistent = new HashSet<String>();
 		protected Boolean mHasChanges = false;
 		
+		/*
+		 * Keys using the "group#name" format, indexed by "group#" and "#name". 
+		 * The two are kept apart, as both would be "#" for an empty group or name. 
+		 * This is not parceled, it is rebuilt from the keys. 
+		 */
+		protected Map<String, Set<String>> mGroups = new HashMap<String, Set<String>>();
+		protected Map<String, Set<String>> mNames = new HashMap<String, Set<String>>();
+		
 		public static final Parcelable.Creator<SettingsData> CREATOR = new Parcelable.Creator<SettingsData>() {
 			@Override
 			public SettingsData createFromParcel(Parcel in) {
@@ -86,21 +99,60 @@ public class SettingsHelper {
 			}
 		};
 		
+		/*
+		 * Parcel layout: 
+		 * 
+		 * 		string table, all keys and string values once
+		 * 		int itemCount, [int keyIndex, int dataType, value]...
+		 * 		int[] persistent bitset, one bit per item
+		 * 		int changed
+		 * 
+		 * Lists are written as a list type and an int array, holding either the integers 
+		 * or the string table indexes (-1 for null). Mixed lists fall back to writeList(). 
+		 */
 		@Override
 		public void writeToParcel(Parcel out, int flags) {
 			synchronized (mData) {
-				out.writeInt(mData.size());
+				List<String> keys = new ArrayList<String>(mData.size());
+				List<String> strings = new ArrayList<String>();
+				Map<String, Integer> stringIndex = new HashMap<String, Integer>();
 				
 				for (String key : mData.keySet()) {
 					Object value = mData.get(key);
+					
+					if (Type.getType(value) != Type.UNKNOWN) {
+						keys.add(key);
+						indexString(key, strings, stringIndex);
+						
+						if (value instanceof ArrayList<?>) {
+							for (Object listValue : (ArrayList<?>) value) {
+								if (listValue instanceof String) {
+									indexString((String) listValue, strings, stringIndex);
+								}
+							}
+							
+						} else if (value instanceof String) {
+							indexString((String) value, strings, stringIndex);
+						}
+					}
+				}
+				
+				out.writeStringList(strings);
+				out.writeInt(keys.size());
+				
+				int[] persistent = new int[(keys.size() + 31) / 32];
+				
+				for (int i=0; i < keys.size(); i++) {
+					String key = keys.get(i);
+					Object value = mData.get(key);
 					Integer type = Type.getType(value);
-
+					
+					out.writeInt(stringIndex.get(key));
 					out.writeInt(type);
-					out.writeString(key);
-
+					
 					switch (type) {
 						case Type.LIST: 
-							out.writeList((ArrayList<?>) value); break;
+							writeList(out, (ArrayList<?>) value, stringIndex); break;
 							
 						case Type.BOOLEAN: 
 							out.writeInt((Boolean) value ? 1 : 0); break;
@@ -109,21 +161,89 @@ public class SettingsHelper {
 							out.writeInt((Integer) value); break;
 							
 						case Type.STRING: 
-							out.writeString((String) value);
-							
+							out.writeInt(stringIndex.get(value));
+					}
+					
+					if (mPersistent.contains(key)) {
+						persistent[i / 32] |= 1 << (i % 32);
 					}
 				}
 				
-				out.writeInt(mPersistent.size());
+				out.writeIntArray(persistent);
+				out.writeInt(mHasChanges ? 1 : 0);
+			}
+		}
+		
+		private static void writeList(Parcel out, ArrayList<?> list, Map<String, Integer> stringIndex) {
+			int listType = Type.NULL;
+			
+			for (Object listValue : list) {
+				int type = Type.getType(listValue);
 				
-				for (String key : mPersistent) {
-					out.writeString(key);
+				if (type != Type.NULL) {
+					if (listType == Type.NULL && (type == Type.STRING || type == Type.INTEGER)) {
+						listType = type;
+						
+					} else if (listType != type) {
+						listType = Type.UNKNOWN; break;
+					}
 				}
+			}
+			
+			/*
+			 * Integer arrays cannot contain null
+			 */
+			if (listType == Type.INTEGER && list.contains(null)) {
+				listType = Type.UNKNOWN;
+			}
+			
+			out.writeInt(listType);
+			
+			if (listType == Type.UNKNOWN) {
+				out.writeList(list);
 				
-				out.writeInt(mHasChanges ? 1 : 0);
+			} else {
+				int[] values = new int[list.size()];
+				
+				for (int i=0; i < values.length; i++) {
+					Object listValue = list.get(i);
+					
+					values[i] = listValue == null ? -1 : 
+						listType == Type.INTEGER ? (Integer) listValue : stringIndex.get(listValue);
+				}
+				
+				out.writeIntArray(values);
 			}
 		}
 		
+		private static ArrayList<?> readList(Parcel in, List<String> strings) {
+			int listType = in.readInt();
+			
+			if (listType == Type.UNKNOWN) {
+				return in.readArrayList(ArrayList.class.getClassLoader());
+			}
+			
+			int[] values = in.createIntArray();
+			
+			if (listType == Type.INTEGER) {
+				ArrayList<Integer> list = new ArrayList<Integer>(values.length);
+				
+				for (int value : values) {
+					list.add(value);
+				}
+				
+				return list;
+			}
+			
+			ArrayList<String> list = new ArrayList<String>(values.length);
+			
+			for (int value : values) {
+				list.add(value < 0 ? null : strings.get(value));
+			}
+			
+			return list;
+		}
+		
 		@Override
 		public int describeContents() {
 			return 0;
@@ -146,18 +266,60 @@ public class SettingsHelper {
 					mPersistent.add(persistent);
 				}
 			}
+			
+			buildIndex();
+		}
+		
+		/*
+		 * Read the schema 3 binary format, see writeToStream(). 
+		 * 
+		 * Sizes and string indexes are checked, so that a damaged file fails with an IOException. 
+		 * The stream is expected to be a file, where available() is the remaining size. 
+		 */
+		public SettingsData(DataInputStream in) throws IOException {
+			if (in.readInt() != BINARY_MAGIC) {
+				throw new IOException("The preference file is not in the binary format");
+			}
+			
+			int version = in.readInt();
+			
+			if (version != SCHEMA_VERSION) {
+				throw new IOException("Unsupported preference file version " + version);
+			}
+			
+			String[] strings = new String[readSize(in)];
+			
+			for (int i=0; i < strings.length; i++) {
+				byte[] bytes = new byte[readSize(in)];
+				
+				in.readFully(bytes);
+				strings[i] = new String(bytes, "UTF-8");
+			}
+			
+			int dataSize = readSize(in);
+			
+			for (int i=0; i < dataSize; i++) {
+				String key = readString(in, strings);
+				
+				mData.put(key, readValue(in, strings));
+				mPersistent.add(key);
+			}
+			
+			buildIndex();
 		}
 		
 		public SettingsData(Parcel in) {
+			List<String> strings = in.createStringArrayList();
 			Integer dataSize = in.readInt();
+			String[] keys = new String[dataSize];
 			
 			for (int i=0; i < dataSize; i++) {
+				String key = keys[i] = strings.get(in.readInt());
 				Integer type = in.readInt();
-				String key = in.readString();
-
+				
 				switch (type) {
 					case Type.LIST: 
-						mData.put(key, in.readArrayList(ArrayList.class.getClassLoader())); break;
+						mData.put(key, readList(in, strings)); break;
 						
 					case Type.BOOLEAN: 
 						mData.put(key, in.readInt() == 1); break;
@@ -166,7 +328,7 @@ public class SettingsHelper {
 						mData.put(key, in.readInt()); break;
 						
 					case Type.STRING: 
-						mData.put(key, in.readString()); break;
+						mData.put(key, strings.get(in.readInt())); break;
 						
 					case Type.NULL: 
 						mData.put(key, null);
@@ -174,13 +336,90 @@ public class SettingsHelper {
 				}
 			}
 			
-			Integer persistSize = in.readInt();
+			int[] persistent = in.createIntArray();
 			
-			for (int i=0; i < persistSize; i++) {
-				mPersistent.add(in.readString());
+			for (int i=0; i < dataSize; i++) {
+				if ((persistent[i / 32] & (1 << (i % 32))) != 0) {
+					mPersistent.add(keys[i]);
+				}
 			}
 			
 			mHasChanges = in.readInt() == 1;
+			
+			buildIndex();
+		}
+		
+		private void buildIndex() {
+			for (String key : mData.keySet()) {
+				indexKey(key);
+			}
+		}
+		
+		/*
+		 * A key is indexed by every 'group#' prefix and '#name' suffix it has, 
+		 * so "a#b#c" can be found as group "a" or "a#b" and as name "c" or "b#c". 
+		 * This is the same as matching with startsWith() and endsWith(). 
+		 */
+		private void indexKey(String key) {
+			for (int pos = key.indexOf('#'); pos >= 0; pos = key.indexOf('#', pos+1)) {
+				addIndex(mGroups, key.substring(0, pos+1), key);
+				addIndex(mNames, key.substring(pos), key);
+			}
+		}
+		
+		private static void addIndex(Map<String, Set<String>> groups, String index, String key) {
+			Set<String> keys = groups.get(index);
+			
+			if (keys == null) {
+				keys = new HashSet<String>();
+				groups.put(index, keys);
+			}
+			
+			keys.add(key);
+		}
+		
+		private void unindexKey(String key) {
+			for (int pos = key.indexOf('#'); pos >= 0; pos = key.indexOf('#', pos+1)) {
+				removeIndex(mGroups, key.substring(0, pos+1), key);
+				removeIndex(mNames, key.substring(pos), key);
+			}
+		}
+		
+		private static void removeIndex(Map<String, Set<String>> groups, String index, String key) {
+			Set<String> keys = groups.get(index);
+			
+			if (keys != null) {
+				keys.remove(key);
+				
+				if (keys.isEmpty()) {
+					groups.remove(index);
+				}
+			}
+		}
+		
+		/*
+		 * The keys matching "group#name". If group is null, all keys ending with "#name" are returned, 
+		 * and if name is null, all keys starting with "group#". 
+		 */
+		public List<String> groupKeys(String group, String name) {
+			synchronized (mData) {
+				List<String> list = new ArrayList<String>();
+				
+				if (group != null && name != null) {
+					if (mData.containsKey(group + "#" + name)) {
+						list.add(group + "#" + name);
+					}
+					
+				} else if (group != null || name != null) {
+					Set<String> keys = group != null ? mGroups.get(group + "#") : mNames.get("#" + name);
+					
+					if (keys != null) {
+						list.addAll(keys);
+					}
+				}
+				
+				return list;
+			}
 		}
 		
 		public Boolean changed() {
@@ -223,6 +462,8 @@ public class SettingsHelper {
 				
 				mData.put(key, value);
 				mHasChanges = true;
+				
+				indexKey(key);
 			}
 		}
 		
@@ -231,6 +472,8 @@ public class SettingsHelper {
 				mPersistent.remove(key);
 				mHasChanges = true;
 				
+				unindexKey(key);
+				
 				return mData.remove(key);
 			}
 		}
@@ -261,53 +504,182 @@ public class SettingsHelper {
 			return (ArrayList<String>) mData.get(key);
 		}
 		
-		public Map<String, ?> getPreferenceMap() {
-			Map<String, Object> newData = new HashMap<String, Object>();
-			
-			for (String key : mData.keySet()) {
-				if (mPersistent.contains(key)) {
+		/*
+		 * Schema 3, a single binary file: 
+		 * 
+		 * 		int magic, int schemaVersion
+		 * 		int stringCount, [int length, utf-8 bytes]...
+		 * 		int itemCount, [int keyIndex, byte dataType, value]...
+		 * 
+		 * All keys and string values are stored once in the string table and referenced by index. 
+		 * Lists are stored as the size followed by a dataType and value for each item. 
+		 * Only persistent values are written. 
+		 */
+		public void writeToStream(DataOutputStream out) throws IOException {
+			writeToStream(out, false);
+		}
+		
+		/*
+		 * Same as writeToStream(), but with the non-persistent values as well if all is set. 
+		 * They are read back as persistent. 
+		 */
+		public void writeToStream(DataOutputStream out, boolean all) throws IOException {
+			synchronized (mData) {
+				List<String> keys = new ArrayList<String>();
+				List<String> strings = new ArrayList<String>();
+				Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+				
+				for (String key : mData.keySet()) {
 					Object value = mData.get(key);
-					Integer type = Type.getType(value);
-					String packKey = "@" + SCHEMA_VERSION + "|" + type + "|";
 					
-					switch (type) {
-						case Type.LIST: 
-							for (int i=0; i < ((ArrayList<?>) value).size(); i++) {
-								Object listValue = ((ArrayList<?>) value).get(i);
-								Integer listType = Type.getType(listValue);
-								String listKey = listType + "#" + i + "," + ((ArrayList<?>) value).size() + "|" + key;
-								
-								switch (listType) {
-									case Type.INTEGER:
-										newData.put(packKey + listKey, ((Integer) listValue).toString()); break;
-										
-									case Type.STRING:
-									case Type.NULL:
-										newData.put(packKey + listKey, listType == Type.STRING ? listValue : "");
+					if ((all || mPersistent.contains(key)) && isWritable(value)) {
+						keys.add(key);
+						indexString(key, strings, stringIndex);
+						
+						if (value instanceof ArrayList<?>) {
+							for (Object listValue : (ArrayList<?>) value) {
+								if (listValue instanceof String) {
+									indexString((String) listValue, strings, stringIndex);
 								}
 							}
 							
-							break;
-							
-						case Type.BOOLEAN: 
-							newData.put(packKey + key, (Boolean) value ? "1" : "0"); break;
-							
-						case Type.INTEGER:
-							newData.put(packKey + key, ((Integer) value).toString()); break;
-							
-						case Type.STRING:
-						case Type.NULL:
-							newData.put(packKey + key, type == Type.STRING ? value : "");
+						} else if (value instanceof String) {
+							indexString((String) value, strings, stringIndex);
+						}
+					}
+				}
+				
+				out.writeInt(BINARY_MAGIC);
+				out.writeInt(SCHEMA_VERSION);
+				out.writeInt(strings.size());
+				
+				for (String string : strings) {
+					byte[] bytes = string.getBytes("UTF-8");
+					
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+				
+				out.writeInt(keys.size());
+				
+				for (String key : keys) {
+					out.writeInt(stringIndex.get(key));
+					writeValue(out, mData.get(key), stringIndex);
+				}
+			}
+		}
+		
+		private static void indexString(String string, List<String> strings, Map<String, Integer> stringIndex) {
+			if (!stringIndex.containsKey(string)) {
+				stringIndex.put(string, strings.size());
+				strings.add(string);
+			}
+		}
+		
+		/*
+		 * Values that cannot be stored, including lists with such an item, are left out of the file. 
+		 * Writing them would make the whole file unreadable. 
+		 */
+		private static boolean isWritable(Object value) {
+			int type = Type.getType(value);
+			
+			if (type == Type.LIST) {
+				for (Object listValue : (ArrayList<?>) value) {
+					if (!isWritable(listValue)) {
+						return false;
 					}
 				}
 			}
 			
-			return newData;
+			return type != Type.UNKNOWN;
+		}
+		
+		private static void writeValue(DataOutputStream out, Object value, Map<String, Integer> stringIndex) throws IOException {
+			int type = Type.getType(value);
+			
+			if (type == Type.UNKNOWN) {
+				throw new IOException("Unsupported data type " + value.getClass().getName());
+			}
+			
+			out.writeByte(type);
+			
+			switch (type) {
+				case Type.LIST: 
+					out.writeInt(((ArrayList<?>) value).size());
+					
+					for (Object listValue : (ArrayList<?>) value) {
+						writeValue(out, listValue, stringIndex);
+					}
+					
+					break;
+					
+				case Type.BOOLEAN: 
+					out.writeBoolean((Boolean) value); break;
+					
+				case Type.INTEGER: 
+					out.writeInt((Integer) value); break;
+					
+				case Type.STRING: 
+					out.writeInt(stringIndex.get(value));
+			}
+		}
+		
+		private static Object readValue(DataInputStream in, String[] strings) throws IOException {
+			int type = in.readByte();
+			
+			switch (type) {
+				case Type.LIST: 
+					int size = readSize(in);
+					ArrayList<Object> list = new ArrayList<Object>(size);
+					
+					for (int i=0; i < size; i++) {
+						list.add(readValue(in, strings));
+					}
+					
+					return list;
+					
+				case Type.BOOLEAN: 
+					return in.readBoolean();
+					
+				case Type.INTEGER: 
+					return in.readInt();
+					
+				case Type.STRING: 
+					return readString(in, strings);
+					
+				case Type.NULL: 
+					return null;
+			}
+			
+			throw new IOException("Unknown data type " + type + " in the preference file");
+		}
+		
+		/*
+		 * Every counted item takes at least one byte, so a larger size can only come from a damaged file
+		 */
+		private static int readSize(DataInputStream in) throws IOException {
+			int size = in.readInt();
+			
+			if (size < 0 || size > in.available()) {
+				throw new IOException("Invalid size " + size + " in the preference file");
+			}
+			
+			return size;
+		}
+		
+		private static String readString(DataInputStream in, String[] strings) throws IOException {
+			int index = in.readInt();
+			
+			if (index < 0 || index >= strings.length) {
+				throw new IOException("Invalid string index " + index + " in the preference file");
+			}
+			
+			return strings[index];
 		}
 	}
 	
 	/*
-	 * Schema:
+	 * Schema 2, used in the shared preference file before schema 3:
 	 * 		
 	 * 		Arrays: "@schemaVersion|dataType|itemDataType#location,totalArraySize|name"
 	 * 		Default: "@schemaVersion|dataType|name"